@@ -0,0 +1,104 @@
+// Bench.java
+
+/* A small micro-benchmark harness used by HotPathBench.
+
+ Each benchmark runs op() in timed batches: a number of warmup
+ iterations are thrown away, then the measured iterations are used
+ to report the mean ops/sec (with the spread between iterations) and
+ the bytes allocated per op by the calling thread.
+
+ Allocation is read from the HotSpot ThreadMXBean extension, so it is
+ reported as "n/a" on JVMs that don't support it.
+ */
+
+import java.lang.management.ManagementFactory;
+
+public abstract class Bench {
+	private static final int WARMUP_ITERS = 5;
+	private static final int MEASURE_ITERS = 10;
+	private static final long ITER_TIME = 200000000L; // 200 ms per iteration
+
+	private static com.sun.management.ThreadMXBean threadBean = null;
+	static {
+		java.lang.management.ThreadMXBean bean = ManagementFactory
+				.getThreadMXBean();
+		if (bean instanceof com.sun.management.ThreadMXBean) {
+			threadBean = (com.sun.management.ThreadMXBean) bean;
+			if (threadBean.isThreadAllocatedMemorySupported())
+				threadBean.setThreadAllocatedMemoryEnabled(true);
+			else
+				threadBean = null;
+		}
+	}
+
+	private String name;
+
+	public Bench(String name) {
+		this.name = name;
+	}
+
+	public abstract void op() throws Exception;
+
+	// the result of the benchmarked code, kept so it can't be optimized away
+	protected Object sink;
+
+	public void run() throws Exception
+	// warm up, then measure and print one result line
+	{
+		long batch = calibrate();
+
+		for (int i = 0; i < WARMUP_ITERS; i++)
+			runBatch(batch);
+
+		double[] opsPerSec = new double[MEASURE_ITERS];
+		long totalOps = 0;
+		long startBytes = allocatedBytes();
+		for (int i = 0; i < MEASURE_ITERS; i++) {
+			long t = runBatch(batch);
+			opsPerSec[i] = batch * 1e9 / t;
+			totalOps += batch;
+		}
+		long bytes = allocatedBytes() - startBytes;
+
+		double mean = 0;
+		for (double v : opsPerSec)
+			mean += v;
+		mean /= MEASURE_ITERS;
+		double var = 0;
+		for (double v : opsPerSec)
+			var += (v - mean) * (v - mean);
+		double stdDev = Math.sqrt(var / MEASURE_ITERS);
+
+		String alloc = (startBytes < 0) ? "n/a" : String.format("%.1f",
+				((double) bytes) / totalOps);
+		System.out.printf("%-45s %14.1f ops/s  +- %10.1f  %10s B/op\n", name,
+				mean, stdDev, alloc);
+	} // end of run()
+
+	private long calibrate() throws Exception
+	// find a batch size that takes roughly ITER_TIME to run
+	{
+		long batch = 1;
+		while (true) {
+			long t = runBatch(batch);
+			if ((t >= ITER_TIME / 10) || (batch >= (1L << 30)))
+				return Math.max(1, batch * ITER_TIME / Math.max(t, 1));
+			batch *= 2;
+		}
+	} // end of calibrate()
+
+	private long runBatch(long batch) throws Exception {
+		long t0 = System.nanoTime();
+		for (long i = 0; i < batch; i++)
+			op();
+		return System.nanoTime() - t0;
+	}
+
+	private static long allocatedBytes() {
+		if (threadBean == null)
+			return -1;
+		return threadBean.getThreadAllocatedBytes(Thread.currentThread()
+				.getId());
+	}
+
+} // end of Bench class
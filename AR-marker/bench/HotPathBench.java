@@ -0,0 +1,349 @@
+// HotPathBench.java
+
+/* Micro-benchmarks for the marker detection and pose hot path:
+ DetectMarkers.updateModels(), DetectMarkers.findBestDetections(),
+ SmoothMatrix.add()/get() and MarkerModel.moveModel(), and the
+ thresholding of a frame into a binary raster (NyARToolkit's filter
+ against RegionThreshold's loops, and its Vector API kernel if it's
+ available; see RegionThreshold).
+
+ The benchmarks replay the bundled Data/320x240ABGR.raw frame (which
+ contains a "hiro" marker), centred in a frame of each requested
+ resolution (NyARToolkit's labeling can't handle more than about a
+ million pixels, so 1280x720 is the largest searched at full size), against a detector that has the requested number of markers
+ registered (alternating patt.hiro and patt.kanji).
+
+ Results are printed as ops/sec and bytes allocated per op (see Bench).
+
+ --------------------
+ Usage (from the source directory, with bench on the classpath):
+ > run HotPathBench [-markers 2,10,100,500] [-sizes 320x240,640x480]
+                    [-track <n>] [-pyramid <n>]
+
+ -track n also benchmarks updateModels() in tracking mode, with a
+   full-frame search every n frames.
+ -pyramid n also benchmarks updateModels() searching frames reduced n
+   times in each direction, with full-size refinement (see
+   MarkerDetector); larger frames, such as 1920x1080, are only
+   benchmarked this way.
+ The Vector API threshold is only benchmarked when VectorThreshold is
+ on the classpath, and java is given "--add-modules jdk.incubator.vector".
+ */
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+import jp.nyatla.nyartoolkit.core.NyARCode;
+import jp.nyatla.nyartoolkit.core.param.NyARParam;
+import jp.nyatla.nyartoolkit.core.raster.NyARBinRaster;
+import jp.nyatla.nyartoolkit.core.raster.rgb.INyARRgbRaster;
+import jp.nyatla.nyartoolkit.core.raster.rgb.NyARRgbRaster_BGRA;
+import jp.nyatla.nyartoolkit.core.raster.rgb.NyARRgbRaster_RGB;
+import jp.nyatla.nyartoolkit.core.rasterfilter.rgb2bin.NyARRasterFilter_ARToolkitThreshold;
+import jp.nyatla.nyartoolkit.core.transmat.NyARTransMatResult;
+
+public class HotPathBench {
+	private static final String PARAMS_FNM = "Data/camera_para.dat";
+	private static final String FRAME_FNM = "Data/320x240ABGR.raw";
+	private static final int FRAME_WIDTH = 320;
+	private static final int FRAME_HEIGHT = 240;
+
+	private static final long MAX_FULL_PIXELS = 1280 * 720;
+	// largest frame searched without a pyramid
+
+	private static final String[] PATT_FNMS = { "patt.hiro", "patt.kanji" };
+	private static final String[] MODEL_FNMS = { "robot.3ds", "cow.obj" };
+	private static final double[] MODEL_SCALES = { 0.15, 0.12 };
+	private static final boolean[] MODEL_COORDS = { false, true };
+
+	private byte[] frameBuf; // the bundled 320x240 BGRA frame
+	private MarkerModel[] models = new MarkerModel[0]; // grows as needed
+
+	public HotPathBench() throws IOException {
+		frameBuf = readFile(FRAME_FNM);
+	}
+
+	private byte[] readFile(String fnm) throws IOException {
+		File f = new File(fnm);
+		byte[] buf = new byte[(int) f.length()];
+		FileInputStream fs = new FileInputStream(f);
+		int pos = 0;
+		while (pos < buf.length) {
+			int n = fs.read(buf, pos, buf.length - pos);
+			if (n < 0)
+				throw new IOException("Short read of " + fnm);
+			pos += n;
+		}
+		fs.close();
+		return buf;
+	} // end of readFile()
+
+	private INyARRgbRaster makeFrame(int w, int h)
+	/*
+	 * put the bundled frame in the middle of a w x h frame, repeating its
+	 * edge pixels to fill the rest; the marker isn't scaled up, since
+	 * ARToolKit ignores squares of more than 100000 pixels
+	 */
+	{
+		byte[] buf = new byte[w * h * 4];
+		int xOffset = (w - FRAME_WIDTH) / 2;
+		int yOffset = (h - FRAME_HEIGHT) / 2;
+		for (int y = 0; y < h; y++) {
+			int sy = Math.max(0, Math.min(y - yOffset, FRAME_HEIGHT - 1));
+			for (int x = 0; x < w; x++) {
+				int sx = Math.max(0, Math.min(x - xOffset, FRAME_WIDTH - 1));
+				System.arraycopy(frameBuf, (sy * FRAME_WIDTH + sx) * 4, buf,
+						(y * w + x) * 4, 4);
+			}
+		}
+		return NyARRgbRaster_BGRA.wrap(buf, w, h);
+	} // end of makeFrame()
+
+	private INyARRgbRaster makeFrame24(int w, int h)
+	// the same frame as makeFrame(), as 3 bytes per pixel
+	{
+		byte[] bgra = (byte[]) makeFrame(w, h).getBufferReader().getBuffer();
+		byte[] buf = new byte[w * h * 3];
+		for (int i = 0; i < w * h; i++) {
+			buf[i * 3] = bgra[i * 4 + 2]; // R
+			buf[i * 3 + 1] = bgra[i * 4 + 1]; // G
+			buf[i * 3 + 2] = bgra[i * 4]; // B
+		}
+		return NyARRgbRaster_RGB.wrap(buf, w, h);
+	} // end of makeFrame24()
+
+	private NyARParam makeParams(int w, int h) throws Exception {
+		NyARParam params = new NyARParam();
+		params.loadARParamFromFile(PARAMS_FNM);
+		params.changeScreenSize(w, h);
+		return params;
+	}
+
+	private MarkerModel[] getModels(int numMarkers)
+	// the first numMarkers models, loading more if necessary
+	{
+		if (numMarkers > models.length) {
+			MarkerModel[] mms = new MarkerModel[numMarkers];
+			System.arraycopy(models, 0, mms, 0, models.length);
+			for (int i = models.length; i < numMarkers; i++) {
+				int j = i % PATT_FNMS.length;
+				mms[i] = new MarkerModel(PATT_FNMS[j], MODEL_FNMS[j],
+						MODEL_SCALES[j], MODEL_COORDS[j]);
+			}
+			models = mms;
+		}
+		MarkerModel[] mms = new MarkerModel[numMarkers];
+		System.arraycopy(models, 0, mms, 0, numMarkers);
+		return mms;
+	} // end of getModels()
+
+	// ------------------------- benchmarks ---------------------------
+
+	public void benchUpdateModels(int numMarkers, int w, int h,
+			int fullScanInterval, int pyramidScale) throws Exception
+	// with tracking if fullScanInterval > 0, on a pyramid if pyramidScale > 1
+	{
+		final INyARRgbRaster raster = makeFrame(w, h);
+		final DetectMarkers detectMarkers = new DetectMarkers(null);
+		for (MarkerModel mm : getModels(numMarkers))
+			detectMarkers.addMarker(mm);
+		detectMarkers.setTracking(fullScanInterval);
+		detectMarkers.setPyramidScale(pyramidScale);
+		detectMarkers.createDetector(makeParams(w, h), raster);
+
+		String track = (fullScanInterval > 0) ? " track=" + fullScanInterval
+				: "";
+		if (pyramidScale > 1)
+			track += " pyramid=" + pyramidScale;
+		new Bench("updateModels markers=" + numMarkers + " " + w + "x" + h
+				+ track) {
+			public void op() {
+				detectMarkers.updateModels(raster);
+			}
+		}.run();
+
+		PatternIndex index = detectMarkers.getPatternIndex();
+		if (index != null)
+			System.out.printf("  pattern index hit rate: %.1f%%\n",
+					index.getHitRate() * 100);
+	} // end of benchUpdateModels()
+
+	public void benchThreshold(int w, int h) throws Exception
+	/*
+	 * threshold whole 32- and 24-bit frames with NyARToolkit's filter, and
+	 * with RegionThreshold, with and without the Vector API
+	 */
+	{
+		NyARBinRaster binRaster = new NyARBinRaster(w, h);
+		INyARRgbRaster[] rasters = { makeFrame(w, h), makeFrame24(w, h) };
+		String[] formats = { "BGRA", "RGB" };
+		boolean hasVector = RegionThreshold.isVectorized();
+
+		for (int i = 0; i < rasters.length; i++) {
+			String label = formats[i] + " " + w + "x" + h;
+			benchFilter("threshold NyARToolkit " + label, rasters[i],
+					binRaster);
+
+			RegionThreshold.setVectorized(false);
+			benchRegionThreshold("threshold RegionThreshold " + label,
+					rasters[i], binRaster);
+			if (hasVector && (i == 0)) { // the kernel only does 32-bit pixels
+				RegionThreshold.setVectorized(true);
+				benchRegionThreshold("threshold RegionThreshold (vector) "
+						+ label, rasters[i], binRaster);
+			}
+			RegionThreshold.setVectorized(hasVector);
+		}
+	} // end of benchThreshold()
+
+	private void benchFilter(String name, final INyARRgbRaster raster,
+			final NyARBinRaster binRaster) throws Exception {
+		final NyARRasterFilter_ARToolkitThreshold filter =
+				new NyARRasterFilter_ARToolkitThreshold(100, raster
+						.getBufferReader().getBufferType());
+		new Bench(name) {
+			public void op() throws Exception {
+				filter.doFilter(raster, binRaster);
+			}
+		}.run();
+	} // end of benchFilter()
+
+	private void benchRegionThreshold(String name,
+			final INyARRgbRaster raster, final NyARBinRaster binRaster)
+			throws Exception {
+		new Bench(name) {
+			public void op() {
+				RegionThreshold.threshold(raster, binRaster, 100, 0, 0,
+						binRaster.getWidth(), binRaster.getHeight());
+			}
+		}.run();
+	} // end of benchRegionThreshold()
+
+	public void benchFindBestDetections(int numMarkers, boolean isExclusive)
+			throws Exception
+	// select the best detection for every registered marker
+	{
+		INyARRgbRaster raster = makeFrame(FRAME_WIDTH, FRAME_HEIGHT);
+		final DetectMarkers detectMarkers = new DetectMarkers(null);
+		for (MarkerModel mm : getModels(numMarkers))
+			detectMarkers.addMarker(mm);
+		detectMarkers.createDetector(makeParams(FRAME_WIDTH, FRAME_HEIGHT),
+				raster);
+		final MarkerDetector detector = detectMarkers.getDetector();
+		final int numDetections = detector.detectMarkerLite(raster, 100);
+
+		if (isExclusive)
+			new Bench("assignDetections markers=" + numMarkers
+					+ " detections=" + numDetections) {
+				public void op() {
+					detectMarkers.assignDetections(detector, numDetections);
+				}
+			}.run();
+		else
+			new Bench("findBestDetections markers=" + numMarkers
+					+ " detections=" + numDetections) {
+				public void op() {
+					detectMarkers.findBestDetections(detector, numDetections);
+				}
+			}.run();
+	} // end of benchFindBestDetections()
+
+	public void benchSmoothMatrix() throws Exception {
+		final NyARTransMatResult transMat = detectedTransMat();
+		final SmoothMatrix sMat = new SmoothMatrix();
+
+		new Bench("SmoothMatrix.add+get") {
+			public void op() {
+				sMat.add(transMat);
+				sink = sMat.get();
+			}
+		}.run();
+	} // end of benchSmoothMatrix()
+
+	public void benchMoveModel() throws Exception {
+		final NyARTransMatResult transMat = detectedTransMat();
+		final MarkerModel mm = getModels(1)[0];
+
+		new Bench("MarkerModel.moveModel") {
+			public void op() {
+				mm.moveModel(transMat);
+			}
+		}.run();
+	} // end of benchMoveModel()
+
+	private NyARTransMatResult detectedTransMat() throws Exception
+	// the transformation matrix of the hiro marker in the bundled frame
+	{
+		INyARRgbRaster raster = makeFrame(FRAME_WIDTH, FRAME_HEIGHT);
+		NyARCode[] codes = { getModels(1)[0].getMarkerInfo() };
+		double[] widths = { getModels(1)[0].getMarkerWidth() };
+		MarkerDetector detector = new MarkerDetector(makeParams(
+				FRAME_WIDTH, FRAME_HEIGHT), codes, widths, 1, raster
+				.getBufferReader().getBufferType());
+		NyARTransMatResult transMat = new NyARTransMatResult();
+		if (detector.detectMarkerLite(raster, 100) > 0)
+			detector.getTransmationMatrix(0, transMat);
+		if (!transMat.has_value)
+			throw new IllegalStateException("No marker found in " + FRAME_FNM);
+		return transMat;
+	} // end of detectedTransMat()
+
+	// ------------------------------------------------------------
+
+	private static int[] parseInts(String s) {
+		String[] toks = s.split(",");
+		int[] vals = new int[toks.length];
+		for (int i = 0; i < toks.length; i++)
+			vals[i] = Integer.parseInt(toks[i].trim());
+		return vals;
+	}
+
+	public static void main(String args[]) throws Exception {
+		int[] markerCounts = { 2, 10, 100, 500 };
+		String[] sizes = { "320x240", "640x480", "1280x720" };
+		int fullScanInterval = 0; // no tracking benchmarks
+		int pyramidScale = 1; // no pyramid benchmarks
+
+		for (int i = 0; i < args.length - 1; i += 2) {
+			if (args[i].equals("-markers"))
+				markerCounts = parseInts(args[i + 1]);
+			else if (args[i].equals("-sizes"))
+				sizes = args[i + 1].split(",");
+			else if (args[i].equals("-track"))
+				fullScanInterval = Integer.parseInt(args[i + 1]);
+			else if (args[i].equals("-pyramid"))
+				pyramidScale = Integer.parseInt(args[i + 1]);
+			else
+				System.out.println("Ignoring unknown option " + args[i]);
+		}
+
+		HotPathBench hpb = new HotPathBench();
+		hpb.getModels(markerCounts[markerCounts.length - 1]); // load up front
+		System.out.println();
+
+		hpb.benchSmoothMatrix();
+		hpb.benchMoveModel();
+		for (int numMarkers : markerCounts) {
+			hpb.benchFindBestDetections(numMarkers, false);
+			hpb.benchFindBestDetections(numMarkers, true);
+		}
+		for (String size : sizes) {
+			String[] wh = size.split("x");
+			int w = Integer.parseInt(wh[0]);
+			int h = Integer.parseInt(wh[1]);
+			hpb.benchThreshold(w, h);
+			for (int numMarkers : markerCounts) {
+				boolean isFullOK = ((long) w * h <= MAX_FULL_PIXELS);
+				if (isFullOK)
+					hpb.benchUpdateModels(numMarkers, w, h, 0, 1);
+				if (isFullOK && (fullScanInterval > 0))
+					hpb.benchUpdateModels(numMarkers, w, h, fullScanInterval, 1);
+				if (pyramidScale > 1)
+					hpb.benchUpdateModels(numMarkers, w, h, 0, pyramidScale);
+			}
+		}
+		System.exit(0);
+	} // end of main()
+
+} // end of HotPathBench class
@@ -0,0 +1,184 @@
+// MultiCameraBench.java
+
+/* Measures how marker detection scales with the number of cameras,
+ each detected on its own thread by a CameraPipeline (as in MultiNyAR
+ with -Dcameras=n).
+
+ Each camera is simulated by a thread that copies the bundled
+ Data/320x240ABGR.raw frame (which contains a "hiro" marker) into the
+ free raster of the camera's TripleBuffer, publishes it, and wakes the
+ pipeline, as a JmfCamera does. The next frame is delivered as soon as
+ the pipeline has taken the last one, so the cameras are never the
+ bottleneck. Every pipeline has its own DetectMarkers and markers
+ (patt.hiro and patt.kanji), which share one PatternSet, and detects
+ in every frame it takes (no frame budget).
+
+ For each number of cameras, the frames detected per second are
+ printed for each camera and in total, with the speedup of the total
+ over one camera. The speedup can't be more than the number of cores.
+
+ --------------------
+ Usage (from the source directory, with bench on the classpath):
+ > run MultiCameraBench [-cameras 1,2,4] [-secs <n>]
+ */
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.locks.LockSupport;
+
+import jp.nyatla.nyartoolkit.core.param.NyARParam;
+import jp.nyatla.nyartoolkit.core.raster.rgb.NyARRgbRaster_BGRA;
+
+public class MultiCameraBench {
+	private static final String PARAMS_FNM = "Data/camera_para.dat";
+	private static final String FRAME_FNM = "Data/320x240ABGR.raw";
+	private static final int FRAME_WIDTH = 320;
+	private static final int FRAME_HEIGHT = 240;
+	private static final long POLL_PERIOD = 100000; // nanosecs between
+													// checks for a taken frame
+
+	private static final String[] PATT_FNMS = { "patt.hiro", "patt.kanji" };
+	private static final String[] MODEL_FNMS = { "robot.3ds", "cow.obj" };
+	private static final double[] MODEL_SCALES = { 0.15, 0.12 };
+	private static final boolean[] MODEL_COORDS = { false, true };
+
+	private byte[] frameBuf; // the bundled 320x240 BGRA frame
+	private PatternSet patterns; // shared by all the cameras
+
+	public MultiCameraBench() throws IOException {
+		frameBuf = readFile(FRAME_FNM);
+		patterns = new PatternSet("Data", null, Arrays.asList(PATT_FNMS));
+	}
+
+	private byte[] readFile(String fnm) throws IOException {
+		File f = new File(fnm);
+		byte[] buf = new byte[(int) f.length()];
+		FileInputStream fs = new FileInputStream(f);
+		int pos = 0;
+		while (pos < buf.length) {
+			int n = fs.read(buf, pos, buf.length - pos);
+			if (n < 0)
+				throw new IOException("Short read of " + fnm);
+			pos += n;
+		}
+		fs.close();
+		return buf;
+	} // end of readFile()
+
+	private NyARRgbRaster_BGRA makeRaster() {
+		return NyARRgbRaster_BGRA.wrap(new byte[frameBuf.length], FRAME_WIDTH,
+				FRAME_HEIGHT);
+	}
+
+	private CameraPipeline makePipeline(int cameraIdx,
+			TripleBuffer<NyARRgbRaster_BGRA> frames) throws Exception
+	// a camera's detector and markers, using the shared patterns
+	{
+		DetectMarkers detectMarkers = new DetectMarkers(null);
+		for (int i = 0; i < PATT_FNMS.length; i++)
+			detectMarkers.addMarker(new MarkerModel(PATT_FNMS[i], patterns,
+					MODEL_FNMS[i], MODEL_SCALES[i], MODEL_COORDS[i], true));
+		NyARParam params = new NyARParam();
+		params.loadARParamFromFile(PARAMS_FNM);
+		params.changeScreenSize(FRAME_WIDTH, FRAME_HEIGHT);
+		detectMarkers.createDetector(params, frames.getFront());
+		return new CameraPipeline("camera " + cameraIdx, detectMarkers,
+				frames, 0);
+	} // end of makePipeline()
+
+	private Thread makeSource(final TripleBuffer<NyARRgbRaster_BGRA> frames,
+			final CameraPipeline pipeline)
+	// a simulated camera, which delivers a frame once the last one is taken
+	{
+		Thread t = new Thread("camera source") {
+			public void run() {
+				while (!isInterrupted()) {
+					byte[] buf = (byte[]) frames.getBack().getBufferReader()
+							.getBuffer();
+					System.arraycopy(frameBuf, 0, buf, 0, frameBuf.length);
+					long numTaken = frames.getNumAcquired();
+					frames.publish();
+					pipeline.frameReady();
+					while ((frames.getNumAcquired() == numTaken)
+							&& !isInterrupted())
+						LockSupport.parkNanos(POLL_PERIOD);
+				}
+			}
+		};
+		t.setDaemon(true);
+		return t;
+	} // end of makeSource()
+
+	public double run(int numCameras, double secs) throws Exception
+	// run numCameras pipelines for secs; return the total frames/sec
+	{
+		ArrayList<CameraPipeline> pipelines = new ArrayList<CameraPipeline>();
+		ArrayList<Thread> sources = new ArrayList<Thread>();
+		for (int i = 0; i < numCameras; i++) {
+			TripleBuffer<NyARRgbRaster_BGRA> frames = new TripleBuffer<NyARRgbRaster_BGRA>(
+					makeRaster(), makeRaster(), makeRaster());
+			CameraPipeline pipeline = makePipeline(i, frames);
+			pipelines.add(pipeline);
+			sources.add(makeSource(frames, pipeline));
+		}
+
+		for (int i = 0; i < numCameras; i++) {
+			sources.get(i).start();
+			pipelines.get(i).start();
+		}
+		Thread.sleep(1000); // warm up
+		long[] startFrames = new long[numCameras];
+		for (int i = 0; i < numCameras; i++)
+			startFrames[i] = pipelines.get(i).getNumFrames();
+		long t0 = System.nanoTime();
+		Thread.sleep((long) (secs * 1000));
+		double elapsed = (System.nanoTime() - t0) / 1e9;
+
+		double total = 0;
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < numCameras; i++) {
+			double rate = (pipelines.get(i).getNumFrames() - startFrames[i])
+					/ elapsed;
+			total += rate;
+			sb.append(String.format(" %.0f", rate));
+		}
+		for (int i = 0; i < numCameras; i++) {
+			sources.get(i).interrupt();
+			pipelines.get(i).stop();
+		}
+		System.out.printf("cameras=%d  frames/sec per camera:%s  total %.0f\n",
+				numCameras, sb, total);
+		return total;
+	} // end of run()
+
+	// ------------------------------------------------------------
+
+	public static void main(String args[]) throws Exception {
+		String cameras = "1,2,4";
+		double secs = 5;
+		for (int i = 0; i + 1 < args.length; i += 2) {
+			if (args[i].equals("-cameras"))
+				cameras = args[i + 1];
+			else if (args[i].equals("-secs"))
+				secs = Double.parseDouble(args[i + 1]);
+		}
+
+		System.out.println("Cores: "
+				+ Runtime.getRuntime().availableProcessors());
+		MultiCameraBench bench = new MultiCameraBench();
+		double single = 0;
+		for (String s : cameras.split(",")) {
+			int n = Integer.parseInt(s.trim());
+			double total = bench.run(n, secs);
+			if (single == 0)
+				single = total / n; // the first run is the baseline
+			System.out.printf("  speedup over one camera: %.2fx\n", total
+					/ single);
+		}
+		System.exit(0);
+	} // end of main()
+
+} // end of MultiCameraBench class
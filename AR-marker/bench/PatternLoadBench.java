@@ -0,0 +1,150 @@
+// PatternLoadBench.java
+
+/* Compares the time taken to load a large marker library from the
+ ARToolKit text pattern files and from a compiled PatternBundle.
+
+ The library is made by copying Data/patt.hiro and Data/patt.kanji
+ (alternately) into a temporary directory, numPatterns times. Each
+ load is timed from nothing to a full set of NyARCodes, and repeated
+ a few times so the best time is reported (the files are then in the
+ OS's cache, so this is the parsing cost, not the disk's).
+
+ The bundle's codes are checked against the text-loaded ones.
+
+ --------------------
+ Usage (from the source directory, with bench on the classpath):
+ > run PatternLoadBench [-patterns 1000]
+ */
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import jp.nyatla.nyartoolkit.core.NyARCode;
+
+public class PatternLoadBench {
+	private static final String[] PATT_FNMS = { "patt.hiro", "patt.kanji" };
+	private static final int NUM_RUNS = 5;
+
+	private File dir, bundleFile;
+	private String[] names;
+
+	public PatternLoadBench(int numPatterns) throws IOException {
+		dir = File.createTempFile("patts", "");
+		dir.delete();
+		dir.mkdir();
+		bundleFile = new File(dir, "patterns.bin");
+
+		names = new String[numPatterns];
+		byte[][] srcs = { readFile("Data/" + PATT_FNMS[0]),
+				readFile("Data/" + PATT_FNMS[1]) };
+		for (int i = 0; i < numPatterns; i++) {
+			names[i] = String.format("patt.%05d", i);
+			FileOutputStream out = new FileOutputStream(new File(dir, names[i]));
+			out.write(srcs[i % 2]);
+			out.close();
+		}
+	} // end of PatternLoadBench()
+
+	private static byte[] readFile(String fnm) throws IOException {
+		File f = new File(fnm);
+		byte[] data = new byte[(int) f.length()];
+		FileInputStream in = new FileInputStream(f);
+		try {
+			int n = 0;
+			while (n < data.length)
+				n += in.read(data, n, data.length - n);
+		} finally {
+			in.close();
+		}
+		return data;
+	} // end of readFile()
+
+	private NyARCode[] loadText() throws Exception {
+		NyARCode[] codes = new NyARCode[names.length];
+		for (int i = 0; i < names.length; i++) {
+			codes[i] = new NyARCode(16, 16);
+			codes[i].loadARPattFromFile(new File(dir, names[i]).getPath());
+		}
+		return codes;
+	} // end of loadText()
+
+	private NyARCode[] loadBundle() throws Exception {
+		PatternBundle bundle = PatternBundle.open(bundleFile.getPath());
+		NyARCode[] codes = new NyARCode[names.length];
+		for (int i = 0; i < names.length; i++)
+			codes[i] = bundle.getCode(names[i]);
+		return codes;
+	} // end of loadBundle()
+
+	public void run() throws Exception {
+		long t0 = System.nanoTime();
+		PatternBundle.compile(dir, bundleFile);
+		System.out.printf("compiled %d patterns in %.1f ms (%d KB)\n",
+				names.length, (System.nanoTime() - t0) / 1e6,
+				bundleFile.length() / 1024);
+
+		double bestText = Double.MAX_VALUE, bestBundle = Double.MAX_VALUE;
+		NyARCode[] textCodes = null, bundleCodes = null;
+		for (int run = 0; run < NUM_RUNS; run++) {
+			t0 = System.nanoTime();
+			textCodes = loadText();
+			long t1 = System.nanoTime();
+			bundleCodes = loadBundle();
+			long t2 = System.nanoTime();
+			bestText = Math.min(bestText, (t1 - t0) / 1e6);
+			bestBundle = Math.min(bestBundle, (t2 - t1) / 1e6);
+		}
+		System.out.printf("text files: %8.1f ms\n", bestText);
+		System.out.printf("bundle:     %8.1f ms  (%.1fx faster)\n", bestBundle,
+				bestText / bestBundle);
+		System.out.println("codes match: " + sameCodes(textCodes, bundleCodes));
+	} // end of run()
+
+	private static boolean sameCodes(NyARCode[] as, NyARCode[] bs) {
+		for (int i = 0; i < as.length; i++)
+			for (int d = 0; d < 4; d++) {
+				if (!Arrays.equals(as[i].getColorData(d).refData(), bs[i]
+						.getColorData(d).refData())
+						|| (as[i].getColorData(d).getPow() != bs[i]
+								.getColorData(d).getPow()))
+					return false;
+				if (!Arrays.equals(as[i].getBlackWhiteData(d).refData(), bs[i]
+						.getBlackWhiteData(d).refData())
+						|| (as[i].getBlackWhiteData(d).getPow() != bs[i]
+								.getBlackWhiteData(d).getPow()))
+					return false;
+			}
+		return true;
+	} // end of sameCodes()
+
+	private void cleanUp() {
+		for (File f : dir.listFiles())
+			f.delete();
+		dir.delete();
+	}
+
+	public static void main(String args[]) {
+		int numPatterns = 1000;
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-patterns") && (i + 1 < args.length))
+				numPatterns = Integer.parseInt(args[++i]);
+			else
+				System.out.println("Ignoring unknown option " + args[i]);
+		}
+
+		PatternLoadBench bench = null;
+		try {
+			bench = new PatternLoadBench(numPatterns);
+			bench.run();
+		} catch (Exception e) {
+			System.out.println(e);
+		} finally {
+			if (bench != null)
+				bench.cleanUp();
+		}
+	} // end of main()
+
+} // end of PatternLoadBench class
@@ -0,0 +1,229 @@
+// PoseFilterBench.java
+
+/* Measures the lag and jitter of each PoseFilter by replaying a noisy
+ synthetic marker track through it at 30 frames/sec.
+
+ The track has three parts:
+   - the marker held still for 4 secs; the jitter is the RMS difference
+     between the filtered and true poses over the last 3 secs,
+   - the marker swinging from side to side (5 cm) and twisting (30
+     degrees) at 0.5 Hz for 8 secs; the lag is the time shift of the
+     true track that best matches the filtered one,
+   - a sudden 5 cm jump; the step time is how long the filtered
+     position takes to cover 90% of it.
+
+ Each frame's pose has Gaussian noise added: POS_NOISE in x and y,
+ three times that in z (depth is the least accurate), and ROT_NOISE
+ about each axis.
+
+ --------------------
+ Usage (from the source directory, with bench on the classpath):
+ > run PoseFilterBench [-filters average,slerp,oneeuro,kalman]
+ */
+
+import java.util.Random;
+
+import javax.vecmath.AxisAngle4d;
+import javax.vecmath.Matrix3d;
+import javax.vecmath.Matrix4d;
+import javax.vecmath.Quat4d;
+
+import jp.nyatla.nyartoolkit.core.transmat.NyARTransMatResult;
+
+public class PoseFilterBench {
+	private static final double FPS = 30;
+	private static final double POS_NOISE = 0.001; // metres
+	private static final double ROT_NOISE = Math.toRadians(0.5);
+
+	private static final double STILL_TIME = 4;
+	private static final double SETTLE_TIME = 1; // not used for the jitter
+	private static final double SWING_TIME = 8;
+	private static final double STEP_TIME = 2;
+
+	private static final double SWING_FREQ = 0.5; // Hz
+	private static final double SWING_DIST = 0.05; // metres
+	private static final double SWING_ANGLE = Math.toRadians(30);
+	private static final double STEP_DIST = 0.05; // metres
+	private static final double MAX_LAG = 0.5; // secs
+
+	private static final double[] BASE_POS = { 0, 0, 0.3 }; // in front of camera
+
+	private int numFrames;
+	private double[] times;
+	private NyARTransMatResult[] noisyMats; // the replayed poses
+
+	// the filtered results
+	private double[] xs, zAngles;
+	private double[] posErrs, rotErrs;
+
+	public PoseFilterBench() {
+		numFrames = (int) ((STILL_TIME + SWING_TIME + STEP_TIME) * FPS);
+		times = new double[numFrames];
+		noisyMats = new NyARTransMatResult[numFrames];
+		xs = new double[numFrames];
+		zAngles = new double[numFrames];
+		posErrs = new double[numFrames];
+		rotErrs = new double[numFrames];
+
+		Random rand = new Random(42); // same track for every filter
+		Matrix4d mat = new Matrix4d();
+		Matrix3d noise = new Matrix3d();
+		Matrix3d rot = new Matrix3d();
+		for (int i = 0; i < numFrames; i++) {
+			times[i] = i / FPS;
+			truePose(times[i], mat);
+
+			// add rotation noise about random axes, then position noise
+			noise.set(new AxisAngle4d(rand.nextGaussian(), rand.nextGaussian(),
+					rand.nextGaussian(), rand.nextGaussian() * ROT_NOISE
+							* Math.sqrt(3)));
+			mat.getRotationScale(rot);
+			rot.mul(noise);
+			mat.setRotationScale(rot);
+			mat.m03 += rand.nextGaussian() * POS_NOISE;
+			mat.m13 += rand.nextGaussian() * POS_NOISE;
+			mat.m23 += rand.nextGaussian() * POS_NOISE * 3;
+
+			noisyMats[i] = toTransMat(mat);
+		}
+	} // end of PoseFilterBench()
+
+	private void truePose(double t, Matrix4d mat)
+	// the marker's pose at time t
+	{
+		double x = BASE_POS[0];
+		double angle = 0;
+		if (t >= STILL_TIME + SWING_TIME)
+			x += STEP_DIST;
+		else if (t >= STILL_TIME) {
+			double s = Math.sin(2 * Math.PI * SWING_FREQ * (t - STILL_TIME));
+			x += SWING_DIST * s;
+			angle = SWING_ANGLE * s;
+		}
+		mat.rotZ(angle);
+		mat.m03 = x;
+		mat.m13 = BASE_POS[1];
+		mat.m23 = BASE_POS[2];
+	} // end of truePose()
+
+	private NyARTransMatResult toTransMat(Matrix4d mat)
+	// undo the axes flip made by the filters (see SmoothMatrix)
+	{
+		NyARTransMatResult tm = new NyARTransMatResult();
+		tm.m00 = -mat.m00;
+		tm.m01 = -mat.m01;
+		tm.m02 = -mat.m02;
+		tm.m03 = -mat.m03;
+		tm.m10 = -mat.m10;
+		tm.m11 = -mat.m11;
+		tm.m12 = -mat.m12;
+		tm.m13 = -mat.m13;
+		tm.m20 = mat.m20;
+		tm.m21 = mat.m21;
+		tm.m22 = mat.m22;
+		tm.m23 = mat.m23;
+		tm.has_value = true;
+		return tm;
+	} // end of toTransMat()
+
+	public void run(String filterName) {
+		PoseFilter filter = MarkerModel.createPoseFilter(filterName);
+		Matrix4d truth = new Matrix4d();
+		Quat4d rot = new Quat4d();
+		Quat4d trueRot = new Quat4d();
+		for (int i = 0; i < numFrames; i++) {
+			filter.add(noisyMats[i], times[i]);
+			Matrix4d mat = filter.get();
+			xs[i] = mat.m03;
+			zAngles[i] = Math.atan2(mat.m10, mat.m00);
+
+			truePose(times[i], truth);
+			posErrs[i] = Math.sqrt(sq(mat.m03 - truth.m03)
+					+ sq(mat.m13 - truth.m13) + sq(mat.m23 - truth.m23));
+			rot.set(mat); // normalized, as an average may not be
+			rot.normalize();
+			trueRot.set(truth);
+			double c = Math.abs(rot.x * trueRot.x + rot.y * trueRot.y + rot.z
+					* trueRot.z + rot.w * trueRot.w);
+			rotErrs[i] = 2 * Math.acos(Math.min(1, c)); // angle between them
+		}
+
+		System.out.printf("%-8s  jitter %6.2f mm %6.2f deg   lag %5.1f ms %5.1f ms"
+				+ "   step %5.1f ms\n", filterName,
+				rms(posErrs, SETTLE_TIME, STILL_TIME) * 1000,
+				Math.toDegrees(rms(rotErrs, SETTLE_TIME, STILL_TIME)),
+				findLag(xs, false) * 1000, findLag(zAngles, true) * 1000,
+				stepTime() * 1000);
+	} // end of run()
+
+	private double rms(double[] errs, double start, double end)
+	// RMS of the errors between the start and end times
+	{
+		double total = 0;
+		int n = 0;
+		for (int i = (int) (start * FPS); i < (int) (end * FPS); i++) {
+			total += errs[i] * errs[i];
+			n++;
+		}
+		return Math.sqrt(total / n);
+	} // end of rms()
+
+	private double findLag(double[] vals, boolean isAngle)
+	/*
+	 * find the time shift (in 1 ms steps) which makes the true swing best fit
+	 * the filtered x positions or z angles
+	 */
+	{
+		Matrix4d truth = new Matrix4d();
+		double bestLag = 0;
+		double bestErr = Double.MAX_VALUE;
+		int start = (int) ((STILL_TIME + SETTLE_TIME) * FPS);
+		int end = (int) ((STILL_TIME + SWING_TIME) * FPS);
+		for (double lag = 0; lag <= MAX_LAG; lag += 0.001) {
+			double err = 0;
+			for (int i = start; i < end; i++) {
+				truePose(times[i] - lag, truth);
+				double v = isAngle ? Math.atan2(truth.m10, truth.m00) : truth.m03;
+				err += sq(vals[i] - v);
+			}
+			if (err < bestErr) {
+				bestErr = err;
+				bestLag = lag;
+			}
+		}
+		return bestLag;
+	} // end of findLag()
+
+	private double stepTime()
+	// time for the filtered x position to cover 90% of the final step
+	{
+		int start = (int) ((STILL_TIME + SWING_TIME) * FPS);
+		double target = BASE_POS[0] + 0.9 * STEP_DIST;
+		for (int i = start; i < numFrames; i++)
+			if (xs[i] >= target)
+				return times[i] - times[start];
+		return STEP_TIME;
+	} // end of stepTime()
+
+	private static double sq(double d) {
+		return d * d;
+	}
+
+	public static void main(String args[]) {
+		String[] filterNames = { "average", "slerp", "oneeuro", "kalman" };
+		for (int i = 0; i < args.length - 1; i += 2) {
+			if (args[i].equals("-filters"))
+				filterNames = args[i + 1].split(",");
+			else
+				System.out.println("Ignoring unknown option " + args[i]);
+		}
+
+		PoseFilterBench pfb = new PoseFilterBench();
+		System.out.printf("noise %.1f mm %.1f deg at %.0f frames/sec\n",
+				POS_NOISE * 1000, Math.toDegrees(ROT_NOISE), FPS);
+		pfb.run("none");
+		for (String name : filterNames)
+			pfb.run(name);
+	} // end of main()
+
+} // end of PoseFilterBench class
@@ -0,0 +1,174 @@
+// AutoThreshold.java
+
+/* Chooses the threshold for each frame (see DetectMarkers.setThreshold())
+ from a histogram of the frame's brightness, so markers aren't lost
+ when the lighting changes.
+
+ Only every SAMPLE_STEP'th pixel of every SAMPLE_STEP'th row is put in
+ the histogram (with alternate sampled rows shifted by half a step), so
+ building it costs a small fraction of thresholding the frame. The
+ threshold is chosen from the histogram by NyARToolkit's
+ NyARHistgramAnalyzer_SlidePTile: half-way between the brightness of
+ the darkest PTILE percent of the pixels and the brightest PTILE
+ percent.
+
+ The threshold is only chosen again when the histogram has moved away
+ from the one the current threshold was chosen from: when the two
+ cumulative histograms differ by more than MAX_SHIFT of the samples
+ at some brightness. Otherwise the previous frame's threshold is
+ reused, so noise in the samples doesn't make the threshold jitter.
+
+ The sampling is done here for the 24- and 32-bit buffer formats (see
+ RegionThreshold); NyARToolkit's NyARRasterAnalyzer_Histgram is used
+ for the others, sampling every SAMPLE_STEP'th row.
+ */
+
+import jp.nyatla.nyartoolkit.NyARException;
+import jp.nyatla.nyartoolkit.core.analyzer.histgram.NyARHistgramAnalyzer_SlidePTile;
+import jp.nyatla.nyartoolkit.core.analyzer.raster.NyARRasterAnalyzer_Histgram;
+import jp.nyatla.nyartoolkit.core.raster.rgb.INyARRgbRaster;
+import jp.nyatla.nyartoolkit.core.rasterreader.INyARBufferReader;
+import jp.nyatla.nyartoolkit.core.types.NyARHistgram;
+
+public class AutoThreshold {
+	private static final int SAMPLE_STEP = 4; // pixels between samples
+	private static final int PTILE = 15; // percentage, as in NyARToolkit
+	private static final double MAX_SHIFT = 0.05;
+	// largest change in the histogram's cumulative fractions that keeps
+	// the threshold
+
+	private int bufferType;
+	private NyARRasterAnalyzer_Histgram rasterAnalyzer = null;
+	// for the buffer formats not sampled here
+	private NyARHistgramAnalyzer_SlidePTile ptile;
+
+	private NyARHistgram histogram = new NyARHistgram(256);
+	private NyARHistgram chosenFrom = new NyARHistgram(256);
+	// the histogram that the threshold was chosen from
+	private int threshold = -1; // none chosen yet
+
+	private long numChosen = 0, numReused = 0;
+
+	public AutoThreshold(int bufferType) throws NyARException {
+		this.bufferType = bufferType;
+		if (!RegionThreshold.isSupported(bufferType))
+			rasterAnalyzer = new NyARRasterAnalyzer_Histgram(bufferType,
+					SAMPLE_STEP);
+		ptile = new NyARHistgramAnalyzer_SlidePTile(PTILE);
+	} // end of AutoThreshold()
+
+	public int update(INyARRgbRaster raster) throws NyARException
+	// the threshold for raster, chosen again if its histogram has moved
+	{
+		if (rasterAnalyzer != null)
+			rasterAnalyzer.analyzeRaster(raster, histogram);
+		else
+			sample(raster);
+
+		if ((threshold >= 0) && !hasMoved()) {
+			numReused++;
+			return threshold;
+		}
+		threshold = ptile.getThreshold(histogram);
+		System.arraycopy(histogram.data, 0, chosenFrom.data, 0,
+				histogram.length);
+		chosenFrom.total_of_data = histogram.total_of_data;
+		numChosen++;
+		return threshold;
+	} // end of update()
+
+	private void sample(INyARRgbRaster raster)
+	// fill the histogram with the (R+G+B)/3 of a sparse grid of pixels
+	{
+		INyARBufferReader reader = raster.getBufferReader();
+		int width = raster.getWidth();
+		int height = raster.getHeight();
+		int[] hist = histogram.data;
+		for (int i = 0; i < histogram.length; i++)
+			hist[i] = 0;
+		int numSamples = 0;
+
+		if (bufferType == INyARBufferReader.BUFFERFORMAT_INT1D_X8R8G8B8_32) {
+			int[] inBuf = (int[]) reader.getBuffer();
+			for (int y = 0; y < height; y += SAMPLE_STEP) {
+				int x = ((y / SAMPLE_STEP) % 2) * (SAMPLE_STEP / 2);
+				int i = y * width + x;
+				for (; x < width; x += SAMPLE_STEP) {
+					int pix = inBuf[i];
+					int sum = ((pix >> 16) & 0xff) + ((pix >> 8) & 0xff)
+							+ (pix & 0xff);
+					hist[sum / 3]++;
+					i += SAMPLE_STEP;
+					numSamples++;
+				}
+			}
+			histogram.total_of_data = numSamples;
+			return;
+		}
+
+		// byte buffers: find the bytes per pixel, and where R,G,B start
+		int pixLen = 4;
+		int offset = 0;
+		if ((bufferType == INyARBufferReader.BUFFERFORMAT_BYTE1D_R8G8B8_24)
+				|| (bufferType == INyARBufferReader.BUFFERFORMAT_BYTE1D_B8G8R8_24))
+			pixLen = 3;
+		else if (bufferType == INyARBufferReader.BUFFERFORMAT_BYTE1D_X8R8G8B8_32)
+			offset = 1;
+
+		byte[] inBuf = (byte[]) reader.getBuffer();
+		int stepLen = SAMPLE_STEP * pixLen;
+		for (int y = 0; y < height; y += SAMPLE_STEP) {
+			int x = ((y / SAMPLE_STEP) % 2) * (SAMPLE_STEP / 2);
+			int bp = (y * width + x) * pixLen + offset;
+			for (; x < width; x += SAMPLE_STEP) {
+				int sum = (inBuf[bp] & 0xff) + (inBuf[bp + 1] & 0xff)
+						+ (inBuf[bp + 2] & 0xff);
+				hist[sum / 3]++;
+				bp += stepLen;
+				numSamples++;
+			}
+		}
+		histogram.total_of_data = numSamples;
+	} // end of sample()
+
+	private boolean hasMoved()
+	/*
+	 * do the cumulative histograms of this frame and of the one the threshold
+	 * was chosen from differ by more than MAX_SHIFT anywhere?
+	 */
+	{
+		if ((histogram.total_of_data <= 0) || (chosenFrom.total_of_data <= 0))
+			return true;
+		double scale = 1.0 / histogram.total_of_data;
+		double fromScale = 1.0 / chosenFrom.total_of_data;
+		int[] hist = histogram.data;
+		int[] fromHist = chosenFrom.data;
+		long sum = 0, fromSum = 0;
+		for (int i = 0; i < histogram.length; i++) {
+			sum += hist[i];
+			fromSum += fromHist[i];
+			if (Math.abs(sum * scale - fromSum * fromScale) > MAX_SHIFT)
+				return true;
+		}
+		return false;
+	} // end of hasMoved()
+
+	public int getThreshold()
+	// the last threshold returned by update(), or -1
+	{
+		return threshold;
+	}
+
+	public long getNumChosen()
+	// frames whose threshold was chosen from their histogram
+	{
+		return numChosen;
+	}
+
+	public long getNumReused()
+	// frames that reused the previous frame's threshold
+	{
+		return numReused;
+	}
+
+} // end of AutoThreshold class
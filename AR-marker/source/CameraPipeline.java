@@ -0,0 +1,127 @@
+// CameraPipeline.java
+
+/* Runs the detection for one camera on its own thread, so several
+ cameras can be detected in parallel (see MultiNyAR).
+
+ Each pipeline has its own DetectMarkers (with its own detector,
+ camera parameters and markers), and takes its frames from a
+ TripleBuffer filled by the camera (e.g. a JmfCamera). The thread
+ sleeps until frameReady() says a frame has been published (or for
+ at most MAX_WAIT), then detects in the newest frame, through a
+ DetectionScheduler if there is a frame budget. The markers' models
+ are moved from the pipeline's thread, which Java3D allows for a live
+ scene graph.
+
+ If the pipeline has a Background, each new camera frame is shown in
+ it, using the frame's own image if it's a CaptureRaster (so it isn't
+ copied again).
+ */
+
+import java.util.concurrent.locks.LockSupport;
+
+import javax.media.j3d.Background;
+
+import jp.nyatla.nyartoolkit.core.raster.rgb.INyARRgbRaster;
+
+public class CameraPipeline implements Runnable {
+	private static final long MAX_WAIT = 100000000; // nanosecs without a
+														// frame before checking
+														// for stop()
+
+	private String name;
+	private DetectMarkers detectMarkers;
+	private TripleBuffer<? extends INyARRgbRaster> frames;
+	private DetectionScheduler scheduler = null; // null means detect always
+	private Background bg = null; // shows the camera frames
+
+	private Thread thread = null;
+	private volatile boolean isRunning = false;
+	private volatile long numFrames = 0; // frames taken from the buffer
+
+	public CameraPipeline(String name, DetectMarkers detectMarkers,
+			TripleBuffer<? extends INyARRgbRaster> frames, double frameBudget)
+	// frameBudget is in secs; 0 means detect in every frame
+	{
+		this.name = name;
+		this.detectMarkers = detectMarkers;
+		this.frames = frames;
+		if (frameBudget > 0)
+			scheduler = new DetectionScheduler(detectMarkers, frameBudget);
+	} // end of CameraPipeline()
+
+	public void setBackground(Background bg) {
+		this.bg = bg;
+	}
+
+	public void start() {
+		isRunning = true;
+		thread = new Thread(this, "CameraPipeline " + name);
+		thread.setDaemon(true); // don't stop the JVM from exiting
+		thread.start();
+	} // end of start()
+
+	public void frameReady()
+	// called by the camera after publishing a frame
+	{
+		LockSupport.unpark(thread);
+	}
+
+	public void run()
+	// detect in each new frame until stop() is called
+	{
+		FrameMetrics metrics = detectMarkers.getMetrics();
+		while (isRunning) {
+			INyARRgbRaster rasterRGB = frames.acquire(); // newest frame
+			if (rasterRGB == null) { // no new frame since last time
+				LockSupport.parkNanos(this, MAX_WAIT);
+				continue;
+			}
+			numFrames++;
+			if ((bg != null) && (rasterRGB instanceof CaptureRaster)) {
+				long t0 = System.nanoTime();
+				bg.setImage(((CaptureRaster) rasterRGB).getImageComponent2D());
+				// refresh background
+				metrics.addTime(FrameMetrics.BACKGROUND, t0);
+			}
+			if (scheduler != null)
+				scheduler.update(rasterRGB); // detect or extrapolate
+			else
+				detectMarkers.updateModels(rasterRGB);
+		}
+	} // end of run()
+
+	public void stop()
+	// stop the thread, once it has finished with its current frame
+	{
+		isRunning = false;
+		if (thread == null)
+			return;
+		LockSupport.unpark(thread);
+		try {
+			thread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	} // end of stop()
+
+	public String getName() {
+		return name;
+	}
+
+	public DetectMarkers getDetectMarkers() {
+		return detectMarkers;
+	}
+
+	public DetectionScheduler getScheduler()
+	// null if there's no frame budget
+	{
+		return scheduler;
+	}
+
+	public long getNumFrames()
+	// frames taken from the buffer (detected in, or extrapolated)
+	{
+		return numFrames;
+	}
+
+} // end of CameraPipeline class
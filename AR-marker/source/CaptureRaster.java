@@ -0,0 +1,211 @@
+// CaptureRaster.java
+
+/* A raster holding one captured camera frame, which is both read by
+ the detector and shown in the Background, without copying it again.
+
+ The frame's pixels are kept in the byte array of a BGR BufferedImage,
+ top row first. The raster reads them in place (as
+ BUFFERFORMAT_BYTE1D_B8G8R8_24), and a by-reference ImageComponent2D
+ shows the same image, so the only copy is the one from the JMF buffer
+ in setBuffer(). That copy also flips the rows if the camera delivers
+ them bottom-up, and swaps R and B for RGB-ordered frames. YUV frames
+ have to be converted to BGR first (by NyARToolkit's JmfNyARRaster_RGB),
+ so they're copied once more.
+
+ The copy is done inside ImageComponent2D.updateData(), so Java3D
+ never draws the image while it's half-written. The ImageComponent2D
+ is made once, so nothing is allocated per frame; since a JmfCamera
+ cycles through three of these rasters, the Background is still given
+ a different ImageComponent2D each frame, which is what
+ J3dNyARRaster_RGB.renewImageComponent2D() was needed for.
+ */
+
+import java.awt.Dimension;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+
+import javax.media.Buffer;
+import javax.media.Format;
+import javax.media.format.RGBFormat;
+import javax.media.format.VideoFormat;
+import javax.media.format.YUVFormat;
+import javax.media.j3d.ImageComponent;
+import javax.media.j3d.ImageComponent2D;
+
+import jp.nyatla.nyartoolkit.NyARException;
+import jp.nyatla.nyartoolkit.core.raster.rgb.NyARRgbRaster_BasicClass;
+import jp.nyatla.nyartoolkit.core.rasterreader.INyARBufferReader;
+import jp.nyatla.nyartoolkit.core.rasterreader.INyARRgbPixelReader;
+import jp.nyatla.nyartoolkit.core.rasterreader.NyARBufferReader;
+import jp.nyatla.nyartoolkit.core.types.NyARIntSize;
+import jp.nyatla.nyartoolkit.jmf.utils.JmfNyARRaster_RGB;
+
+public class CaptureRaster extends NyARRgbRaster_BasicClass implements
+		ImageComponent2D.Updater {
+	private byte[] imageBuf; // the frame, as BGR bytes, top row first
+	private ImageComponent2D imc2d; // shows imageBuf, by reference
+	private INyARBufferReader bufferReader;
+	private INyARRgbPixelReader pixelReader;
+
+	// the captured format
+	private boolean isBGR; // otherwise RGB (or YUV)
+	private boolean isFlipped; // rows are bottom-up
+	private int lineStride; // bytes per captured row
+
+	private JmfNyARRaster_RGB yuvRaster = null; // converts YUV frames
+
+	private Buffer inBuf = null; // the buffer being copied by updateData()
+	private boolean hasData = false;
+
+	public CaptureRaster(NyARIntSize size, VideoFormat format)
+			throws NyARException {
+		super(new NyARIntSize(size));
+		Dimension d = format.getSize();
+		if ((d == null) || !_size.isEqualSize(d.width, d.height))
+			throw new NyARException("Capture size doesn't match the raster");
+		if (format instanceof RGBFormat)
+			initRGB((RGBFormat) format);
+		else if (format instanceof YUVFormat)
+			initYUV(format);
+		else
+			throw new NyARException("Unsupported capture format: " + format);
+
+		BufferedImage image = new BufferedImage(_size.w, _size.h,
+				BufferedImage.TYPE_3BYTE_BGR);
+		imageBuf = ((DataBufferByte) image.getRaster().getDataBuffer())
+				.getData();
+		bufferReader = new NyARBufferReader(imageBuf,
+				INyARBufferReader.BUFFERFORMAT_BYTE1D_B8G8R8_24);
+		pixelReader = new PixelReader();
+
+		imc2d = new ImageComponent2D(ImageComponent2D.FORMAT_RGB, image,
+				true, false); // by reference, top row first
+		imc2d.setCapability(ImageComponent.ALLOW_IMAGE_WRITE); // for
+																// updateData()
+	} // end of CaptureRaster()
+
+	private void initRGB(RGBFormat fmt) throws NyARException
+	// only 24-bit frames, with R and B in either order
+	{
+		if (fmt.getBitsPerPixel() != 24)
+			throw new NyARException("Unsupported capture format: " + fmt);
+		if ((fmt.getRedMask() == 3) && (fmt.getBlueMask() == 1))
+			isBGR = true;
+		else if ((fmt.getRedMask() == 1) && (fmt.getBlueMask() == 3))
+			isBGR = false;
+		else
+			throw new NyARException("Unsupported capture format: " + fmt);
+		isFlipped = (fmt.getFlipped() == Format.TRUE);
+		lineStride = fmt.getLineStride();
+		if (lineStride == Format.NOT_SPECIFIED)
+			lineStride = _size.w * 3;
+	} // end of initRGB()
+
+	private void initYUV(VideoFormat fmt) throws NyARException
+	// NyARToolkit converts YUV frames to unflipped BGR ones
+	{
+		yuvRaster = new JmfNyARRaster_RGB(_size, fmt);
+		isBGR = true;
+		isFlipped = false;
+		lineStride = _size.w * 3;
+	} // end of initYUV()
+
+	public void setBuffer(Buffer buf)
+	// copy the captured frame in buf into the raster (and its image)
+	{
+		inBuf = buf;
+		imc2d.updateData(this, 0, 0, _size.w, _size.h); // calls updateData()
+		inBuf = null;
+		hasData = true;
+	} // end of setBuffer()
+
+	public void updateData(ImageComponent2D imc, int x, int y, int width,
+			int height)
+	// called by Java3D, when it's safe to change the image
+	{
+		if (yuvRaster == null)
+			copyFrame((byte[]) inBuf.getData(), inBuf.getOffset());
+		else {
+			try {
+				yuvRaster.setBuffer(inBuf);
+				copyFrame((byte[]) yuvRaster.getBufferReader().getBuffer(), 0);
+			} catch (NyARException e) {
+				System.out.println("Could not convert YUV frame: " + e);
+			}
+		}
+	} // end of updateData()
+
+	private void copyFrame(byte[] src, int offset)
+	/*
+	 * copy the frame into imageBuf, flipping its rows if they're bottom-up,
+	 * and swapping R and B if they're in RGB order
+	 */
+	{
+		int rowLen = _size.w * 3;
+		for (int row = 0; row < _size.h; row++) {
+			int srcIdx = offset
+					+ (isFlipped ? (_size.h - 1 - row) : row) * lineStride;
+			int destIdx = row * rowLen;
+			if (isBGR)
+				System.arraycopy(src, srcIdx, imageBuf, destIdx, rowLen);
+			else {
+				for (int i = 0; i < rowLen; i += 3) {
+					imageBuf[destIdx + i] = src[srcIdx + i + 2];
+					imageBuf[destIdx + i + 1] = src[srcIdx + i + 1];
+					imageBuf[destIdx + i + 2] = src[srcIdx + i];
+				}
+			}
+		}
+	} // end of copyFrame()
+
+	public boolean hasData() {
+		return hasData;
+	}
+
+	public ImageComponent2D getImageComponent2D()
+	// the frame's image, for the Background; always the same object
+	{
+		return imc2d;
+	}
+
+	public INyARBufferReader getBufferReader() {
+		return bufferReader;
+	}
+
+	public INyARRgbPixelReader getRgbPixelReader() {
+		return pixelReader;
+	}
+
+	// ------------------------------------------------------------
+
+	private class PixelReader implements INyARRgbPixelReader
+	// reads the BGR bytes in imageBuf as R,G,B
+	{
+		public void getPixel(int x, int y, int[] rgb) {
+			int bp = (x + y * _size.w) * 3;
+			rgb[0] = (imageBuf[bp + 2] & 0xff); // R
+			rgb[1] = (imageBuf[bp + 1] & 0xff); // G
+			rgb[2] = (imageBuf[bp] & 0xff); // B
+		}
+
+		public void getPixelSet(int[] xs, int[] ys, int num, int[] rgb) {
+			int width = _size.w;
+			for (int i = num - 1; i >= 0; i--) {
+				int bp = (xs[i] + ys[i] * width) * 3;
+				rgb[i * 3] = (imageBuf[bp + 2] & 0xff); // R
+				rgb[i * 3 + 1] = (imageBuf[bp + 1] & 0xff); // G
+				rgb[i * 3 + 2] = (imageBuf[bp] & 0xff); // B
+			}
+		}
+
+		public void setPixel(int x, int y, int[] rgb) throws NyARException {
+			NyARException.notImplement();
+		}
+
+		public void setPixels(int[] xs, int[] ys, int num, int[] rgb)
+				throws NyARException {
+			NyARException.notImplement();
+		}
+	} // end of PixelReader class
+
+} // end of CaptureRaster class
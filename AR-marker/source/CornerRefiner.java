@@ -0,0 +1,209 @@
+// CornerRefiner.java
+
+/* Fits the sides of a square found on a reduced level of an image
+ pyramid (see MarkerDetector) to the full-resolution raster, so the
+ marker's pose is as accurate as if the square had been found at full
+ resolution.
+
+ The square's rough vertices (scaled up from the reduced level) give
+ each side's approximate position. The edge is looked for along the
+ side's outward normal at NUM_SAMPLES points, within a few pixels of
+ the rough side: it's where the brightness rises fastest from the
+ black border to the white background, located to a fraction of a
+ pixel by fitting a parabola to the brightness gradient. The edge
+ points are corrected for lens distortion, and a line is fitted
+ through them, in the same way as NyARToolkit's Coord2Linear fits a
+ line through a contour.
+
+ A side is only refined if enough of its edge points are found;
+ refine() returns false otherwise, so the caller can use the rough
+ side instead.
+ */
+
+import jp.nyatla.nyartoolkit.NyARException;
+import jp.nyatla.nyartoolkit.core.param.NyARCameraDistortionFactor;
+import jp.nyatla.nyartoolkit.core.param.NyARParam;
+import jp.nyatla.nyartoolkit.core.raster.rgb.INyARRgbRaster;
+import jp.nyatla.nyartoolkit.core.rasterreader.INyARRgbPixelReader;
+import jp.nyatla.nyartoolkit.core.types.NyARDoublePoint2d;
+import jp.nyatla.nyartoolkit.core.types.NyARIntPoint2d;
+import jp.nyatla.nyartoolkit.core.types.NyARLinear;
+
+public class CornerRefiner {
+	private static final int NUM_SAMPLES = 16; // edge points per side
+	private static final int MIN_SAMPLES = NUM_SAMPLES / 2;
+	// fewest edge points found for a side to be refined
+
+	private static final double END_MARGIN = 0.1;
+	// fraction of each side skipped near its vertices
+
+	private static final int MIN_CONTRAST = 3 * 16;
+	// smallest rise in R+G+B over 2 pixels that counts as an edge
+
+	private NyARCameraDistortionFactor distFactor;
+	private int width, height;
+	private int searchRange; // pixels either side of the rough side
+
+	private double[] profile; // brightness along the normal
+	private double[] xs = new double[NUM_SAMPLES]; // edge points (ideal)
+	private double[] ys = new double[NUM_SAMPLES];
+	private int[] rgb = new int[3];
+	private NyARDoublePoint2d ideal = new NyARDoublePoint2d();
+
+	public CornerRefiner(NyARParam params, int scale)
+	// for squares found on a level scale times smaller than params' screen
+	{
+		distFactor = params.getDistortionFactor();
+		width = params.getScreenSize().w;
+		height = params.getScreenSize().h;
+		searchRange = scale + 2; // a reduced pixel, and some distortion
+		profile = new double[2 * searchRange + 3];
+	} // end of CornerRefiner()
+
+	public boolean refine(INyARRgbRaster raster, NyARIntPoint2d[] vertex,
+			NyARLinear[] lines) throws NyARException
+	/*
+	 * fit lines[i] to the side from vertex[i] to vertex[i+1] in raster, in
+	 * ideal (undistorted) screen coordinates; return false if a side's edge
+	 * couldn't be found
+	 */
+	{
+		INyARRgbPixelReader reader = raster.getRgbPixelReader();
+		double cx = 0, cy = 0; // the square's centre
+		for (int i = 0; i < 4; i++) {
+			cx += vertex[i].x / 4.0;
+			cy += vertex[i].y / 4.0;
+		}
+		for (int i = 0; i < 4; i++) {
+			if (!refineSide(reader, vertex[i], vertex[(i + 1) % 4], cx, cy,
+					lines[i]))
+				return false;
+		}
+		return true;
+	} // end of refine()
+
+	private boolean refineSide(INyARRgbPixelReader reader, NyARIntPoint2d a,
+			NyARIntPoint2d b, double cx, double cy, NyARLinear line)
+			throws NyARException
+	// find the edge points along the side from a to b, and fit line to them
+	{
+		double dx = b.x - a.x;
+		double dy = b.y - a.y;
+		double len = Math.sqrt(dx * dx + dy * dy);
+		if (len < 1)
+			return false;
+		double nx = dy / len; // unit normal
+		double ny = -dx / len;
+		double mx = (a.x + b.x) / 2.0;
+		double my = (a.y + b.y) / 2.0;
+		if ((mx - cx) * nx + (my - cy) * ny < 0) { // make it point outwards
+			nx = -nx;
+			ny = -ny;
+		}
+
+		int n = 0;
+		for (int s = 0; s < NUM_SAMPLES; s++) {
+			double t = END_MARGIN + (1 - 2 * END_MARGIN) * s
+					/ (NUM_SAMPLES - 1);
+			double px = a.x + t * dx;
+			double py = a.y + t * dy;
+			double offset = findEdge(reader, px, py, nx, ny);
+			if (Double.isNaN(offset))
+				continue;
+			distFactor.observ2Ideal(px + offset * nx, py + offset * ny, ideal);
+			xs[n] = ideal.x;
+			ys[n] = ideal.y;
+			n++;
+		}
+		if (n < MIN_SAMPLES)
+			return false;
+		fitLine(n, line);
+		return true;
+	} // end of refineSide()
+
+	private double findEdge(INyARRgbPixelReader reader, double px, double py,
+			double nx, double ny) throws NyARException
+	/*
+	 * the distance along the outward normal (nx, ny) from (px, py) to where
+	 * the brightness rises fastest, or NaN if there's no clear edge
+	 */
+	{
+		int r = searchRange + 1; // one more each end for the gradient
+		for (int k = -r; k <= r; k++) {
+			double x = px + k * nx;
+			double y = py + k * ny;
+			if ((x < 0) || (y < 0) || (x >= width - 1) || (y >= height - 1))
+				return Double.NaN; // too near the edge of the raster
+			profile[k + r] = brightness(reader, x, y);
+		}
+
+		// the biggest rise (the border is dark, the background light)
+		int best = -1;
+		double bestGrad = MIN_CONTRAST;
+		for (int i = 1; i < profile.length - 1; i++) {
+			double grad = profile[i + 1] - profile[i - 1];
+			if (grad > bestGrad) {
+				best = i;
+				bestGrad = grad;
+			}
+		}
+		if ((best < 2) || (best > profile.length - 3))
+			return Double.NaN; // none, or at the end of the search
+
+		// fit a parabola through the gradients around the biggest
+		double g0 = profile[best] - profile[best - 2];
+		double g2 = profile[best + 2] - profile[best];
+		double denom = g0 - 2 * bestGrad + g2;
+		double frac = (denom < 0) ? 0.5 * (g0 - g2) / denom : 0;
+		return best - r + frac;
+	} // end of findEdge()
+
+	private double brightness(INyARRgbPixelReader reader, double x, double y)
+			throws NyARException
+	// R+G+B at (x, y), interpolated from the four nearest pixels
+	{
+		int x0 = (int) x;
+		int y0 = (int) y;
+		double fx = x - x0;
+		double fy = y - y0;
+		reader.getPixel(x0, y0, rgb);
+		double v00 = rgb[0] + rgb[1] + rgb[2];
+		reader.getPixel(x0 + 1, y0, rgb);
+		double v10 = rgb[0] + rgb[1] + rgb[2];
+		reader.getPixel(x0, y0 + 1, rgb);
+		double v01 = rgb[0] + rgb[1] + rgb[2];
+		reader.getPixel(x0 + 1, y0 + 1, rgb);
+		double v11 = rgb[0] + rgb[1] + rgb[2];
+		return (v00 * (1 - fx) + v10 * fx) * (1 - fy)
+				+ (v01 * (1 - fx) + v11 * fx) * fy;
+	} // end of brightness()
+
+	private void fitLine(int n, NyARLinear line)
+	/*
+	 * the line through the first n edge points along their main axis, in
+	 * NyARLinear's form (dy*x + dx*y + c = 0), as Coord2Linear does
+	 */
+	{
+		double mx = 0, my = 0;
+		for (int i = 0; i < n; i++) {
+			mx += xs[i];
+			my += ys[i];
+		}
+		mx /= n;
+		my /= n;
+
+		double sxx = 0, sxy = 0, syy = 0;
+		for (int i = 0; i < n; i++) {
+			double x = xs[i] - mx;
+			double y = ys[i] - my;
+			sxx += x * x;
+			sxy += x * y;
+			syy += y * y;
+		}
+		double angle = 0.5 * Math.atan2(2 * sxy, sxx - syy); // of main axis
+		line.dy = Math.sin(angle);
+		line.dx = -Math.cos(angle);
+		line.c = -(line.dy * mx + line.dx * my);
+	} // end of fitLine()
+
+} // end of CornerRefiner class
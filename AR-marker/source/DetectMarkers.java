@@ -4,41 +4,121 @@
 /* Collection of MarkerModel objects and a detector that finds
  markers in the camera's captured image. The new marker position
  is used to move its corresponding model
+
+ The poses of the found markers are solved and smoothed by a PoseSolver,
+ optionally in parallel (see setPoseThreads()). The models are moved
+ afterwards, on the calling thread (the behavior's, or a
+ CameraPipeline's when there are several cameras).
+
+ When there are many markers, a PatternIndex is built for them so each
+ detected square is only fully matched against a short list of them.
+
+ ID markers (see MarkerModel.isIdMarker()) aren't matched at all: the
+ detector decodes each square's ID and looks its marker up, so they
+ can be used in any number, alongside the pattern markers.
+
+ With a ModelManager (see setModelManager()), a marker's model is only
+ loaded when the marker is first found, and unloaded when it hasn't
+ been found for a while.
+
+ The time taken by each stage of updateModels(), and how often each
+ marker is found and lost, are recorded in a FrameMetrics object (see
+ getMetrics()), which can be watched over JMX.
+
+ The pose of every marker found in a frame is also published as an
+ event to any subscribers on other threads (see getPoseEvents()).
+
+ The markers' status is passed to the GUI by a StatusPublisher, and is
+ only rebuilt when it is due to be shown.
+
+ In tracking mode (see setTracking()), a MarkerTracker limits the search
+ to the regions around the markers found in the previous frame, with a
+ full-frame search every few frames, or when a marker goes missing.
+
+ For large frames, the squares can be looked for on a smaller level of
+ an image pyramid (see setPyramidScale()), and then refined at full
+ resolution by the MarkerDetector.
+
+ The frames are thresholded at a fixed brightness (see setThreshold()),
+ or at one chosen for each frame from its histogram by an
+ AutoThreshold, which is recorded in the FrameMetrics.
  */
 
 import java.util.ArrayList;
 
+import javax.vecmath.Matrix4d;
 import javax.vecmath.Point3d;
 
 import jp.nyatla.nyartoolkit.NyARException;
 import jp.nyatla.nyartoolkit.core.NyARCode;
 import jp.nyatla.nyartoolkit.core.param.NyARParam;
-import jp.nyatla.nyartoolkit.core.transmat.NyARTransMatResult;
-import jp.nyatla.nyartoolkit.detector.NyARDetectMarker;
-import jp.nyatla.nyartoolkit.java3d.utils.J3dNyARRaster_RGB;
+import jp.nyatla.nyartoolkit.core.raster.rgb.INyARRgbRaster;
+import jp.nyatla.nyartoolkit.core.squaredetect.NyARSquare;
+import jp.nyatla.nyartoolkit.core.types.NyARDoublePoint2d;
+import jp.nyatla.nyartoolkit.jmf.utils.JmfNyARRaster_RGB;
 
 public class DetectMarkers {
+	public final static int AUTO_THRESHOLD = -1;
+	// for setThreshold(): choose each frame's threshold from its histogram
+
+	private final static int DEFAULT_THRESHOLD = 100;
+
 	private final static double MIN_CONF = 0.3;
 	// smallest confidence accepted for finding a marker
 
-	private final static int CONF_SIZE = 1000;
-	// for converting confidence level double <--> integer
-
 	private final static int MAX_NO_DETECTIONS = 50;
 	// number of times a marker goes undetected before being made invisible
 
 	private ArrayList<MarkerModel> markerModels;
 	private int numMarkers;
 
-	private MultiNyAR top; // for reporting status
-	private NyARDetectMarker detector;
+	private final static int INDEX_MIN_MARKERS = 32;
+	// smallest number of pattern markers for which a PatternIndex is built
+
+	private final static int SHORT_LIST_SIZE = 8;
+	// number of codes fully matched against each square when indexed
+
+	private final static int MIN_EVENTS = 1024;
+	// smallest number of pose events kept for subscribers
+
+	private StatusPublisher status; // for reporting status (may be null)
+	private MarkerDetector detector;
+
+	private PoseSolver poseSolver; // calculates the models' new poses
+	private FrameMetrics metrics; // stage times and marker counts
+	private PoseEventRing poseEvents; // found poses, for subscribers
+	private int numPoseThreads = 1; // 1 means solve on the calling thread
+
+	// each marker's best detection in the current frame (or -1), and its
+	// confidence (or -1)
+	private int[] bestDetectedIdxs;
+	private double[] confidences;
+
+	private ModelManager modelManager = null; // null if models are preloaded
 
-	private NyARTransMatResult transMat = new NyARTransMatResult();
+	private int fullScanInterval = 0; // 0 means always search the whole frame
+	private MarkerTracker tracker = null;
 
-	// transformation matrix for a marker, which is used to move its model
+	private int pyramidScale = 1; // 1 means search the full frame
 
-	public DetectMarkers(MultiNyAR top) {
-		this.top = top;
+	private int threshold = DEFAULT_THRESHOLD; // for the current frame
+	private AutoThreshold autoThreshold = null; // null if fixed
+	private boolean isAutoThreshold = false;
+
+	// how far extrapolated poses were from the next detected ones (see
+	// extrapolateModels())
+	private double[] extrapErrs = new double[2];
+	private double totalPosError = 0, totalRotError = 0;
+	private long numExtrapErrors = 0;
+
+	private boolean isExclusive = false; // one marker per physical square
+	private int[] detectionOrder; // detections sorted by confidence
+	private boolean[] isClaimed; // detections already given to a marker
+
+	public DetectMarkers(StatusPublisher status)
+	// status may be null, if there's no GUI to report to
+	{
+		this.status = status;
 		markerModels = new ArrayList<MarkerModel>();
 		numMarkers = 0;
 	} // end of DetectMarkers()
@@ -48,14 +128,125 @@ public class DetectMarkers {
 		numMarkers++;
 	}
 
-	public void createDetector(NyARParam params, J3dNyARRaster_RGB rasterRGB)
+	public int getNumMarkers() {
+		return numMarkers;
+	}
+
+	public MarkerModel getMarker(int mkIdx)
+	// the marker added mkIdx'th, or null if there isn't one
+	{
+		if ((mkIdx < 0) || (mkIdx >= numMarkers))
+			return null;
+		return markerModels.get(mkIdx);
+	} // end of getMarker()
+
+	public void setExclusive(boolean b)
+	/*
+	 * if true, a physical square detected several times (e.g. matching
+	 * different patterns) is only given to one marker: the detections are
+	 * assigned in decreasing order of confidence
+	 */
+	{
+		isExclusive = b;
+	}
+
+	public void setPoseThreads(int numThreads)
+	/*
+	 * solve the found markers' poses using numThreads threads; must be called
+	 * before createDetector()
+	 */
+	{
+		numPoseThreads = numThreads;
+	}
+
+	public void setTracking(int interval)
+	/*
+	 * only search near the markers found in the last frame, except for every
+	 * interval'th frame; must be called before createDetector()
+	 */
+	{
+		fullScanInterval = interval;
+	}
+
+	public void setPyramidScale(int scale)
+	/*
+	 * look for the markers in frames reduced scale times in each direction,
+	 * then refine them at full resolution; must be called before
+	 * createDetector()
+	 */
+	{
+		pyramidScale = scale;
+	}
+
+	public void setThreshold(int th)
+	/*
+	 * threshold the frames at th (0-255), or at a threshold chosen for each
+	 * frame if th is AUTO_THRESHOLD; must be called before createDetector()
+	 */
+	{
+		isAutoThreshold = (th == AUTO_THRESHOLD);
+		if (!isAutoThreshold)
+			threshold = th;
+	} // end of setThreshold()
+
+	public AutoThreshold getAutoThreshold()
+	// the automatic thresholder, or null if the threshold is fixed
+	{
+		return autoThreshold;
+	}
+
+	public void setModelManager(ModelManager mgr)
+	// load (and unload) the markers' models as they are found (and lost)
+	{
+		modelManager = mgr;
+	}
+
+	public ModelManager getModelManager() {
+		return modelManager;
+	}
+
+	public MarkerTracker getTracker()
+	// the tracker, or null if not tracking
+	{
+		return tracker;
+	}
+
+	MarkerDetector getDetector()
+	// package access for HotPathBench
+	{
+		return detector;
+	}
+
+	public FrameMetrics getMetrics()
+	// the loop's timings; null until createDetector() is called
+	{
+		return metrics;
+	}
+
+	public PoseEventRing getPoseEvents()
+	/*
+	 * the found markers' poses, which other threads can subscribe to; null
+	 * until createDetector() is called
+	 */
+	{
+		return poseEvents;
+	}
+
+	public PatternIndex getPatternIndex()
+	// the detector's pattern index, or null if there isn't one
+	{
+		return detector.getPatternIndex();
+	}
+
+	public void createDetector(NyARParam params, INyARRgbRaster rasterRGB)
 	// create a single detector for all the markers
 	{
 		NyARCode[] markersInfo = new NyARCode[numMarkers];
+		// null for ID markers
 		double[] widths = new double[numMarkers];
 		int i = 0;
 		for (MarkerModel mm : markerModels) {
-			markersInfo[i] = mm.getMarkerInfo();
+			markersInfo[i] = mm.isIdMarker() ? null : mm.getMarkerInfo();
 			widths[i] = mm.getMarkerWidth();
 			// System.out.println("Object " + i + ": marker info = " +
 			// markersInfo[i]);
@@ -63,60 +254,124 @@ public class DetectMarkers {
 		}
 
 		try {
-			detector = new NyARDetectMarker(params, markersInfo, widths,
-					numMarkers, rasterRGB.getBufferReader().getBufferType());
+			detector = new MarkerDetector(params, markersInfo, widths,
+					numMarkers, rasterRGB.getBufferReader().getBufferType(),
+					pyramidScale);
 			detector.setContinueMode(false); // no history stored; use
 												// SmoothMatrix instead
+			i = 0;
+			for (MarkerModel mm : markerModels) {
+				if (mm.isIdMarker())
+					detector.setIdMarker(i, mm.getMarkerId());
+				i++;
+			}
+			NyARCode[] codes = detector.getCodes(); // the pattern markers'
+			if (codes.length >= INDEX_MIN_MARKERS)
+				detector.setPatternIndex(new PatternIndex(codes, codes.length,
+						SHORT_LIST_SIZE));
+			if (detector.getPyramidScale() < pyramidScale)
+				System.out.println("Pyramid detection not supported for this"
+						+ " raster type; searching full-size frames");
+			if (isAutoThreshold)
+				autoThreshold = new AutoThreshold(rasterRGB.getBufferReader()
+						.getBufferType());
+			metrics = new FrameMetrics(markerModels);
+			poseEvents = new PoseEventRing(Math.max(MIN_EVENTS,
+					4 * numMarkers)); // a few frames of every marker
+			poseSolver = new PoseSolver(detector, numMarkers, numPoseThreads,
+					metrics);
+
+			if (fullScanInterval > 0) {
+				if (detector.canUseRegions())
+					tracker = new MarkerTracker(rasterRGB.getWidth(),
+							rasterRGB.getHeight(), numMarkers, fullScanInterval);
+				else
+					System.out.println("Tracking not supported for this raster"
+							+ " type; searching whole frames");
+			}
+			bestDetectedIdxs = new int[numMarkers];
+			confidences = new double[numMarkers];
 		} catch (NyARException e) {
 			System.out.println("Could not create markers detector");
 			System.exit(1);
 		}
 	} // end of createDetector()
 
-	public void updateModels(J3dNyARRaster_RGB rasterRGB)
+	public void updateModels(INyARRgbRaster rasterRGB)
 	// move marker models using the detected marker positions inside the raster
 	{
-		int numDetections = getNumDetections(detector, rasterRGB);
+		long frameStart = System.nanoTime();
+		if (autoThreshold != null)
+			chooseThreshold(rasterRGB);
+		int numDetections = getNumDetections(detector, rasterRGB, false);
 		// System.out.println("numDetections: " + numDetections);
 
 		try {
-			StringBuffer statusInfo = new StringBuffer(); // for holding status
-															// information
-
 			// find the best detected match for each marker
+			matchDetections(numDetections);
+			if ((tracker != null) && tracker.wasRegionScan()
+					&& tracker.hasLostMarker(confidences, MIN_CONF)) {
+				// a marker has left its region, so search the whole frame
+				numDetections = getNumDetections(detector, rasterRGB, true);
+				matchDetections(numDetections);
+			}
+			metrics.addDetections(numDetections);
+			if (tracker != null)
+				tracker.update(detector, bestDetectedIdxs, confidences, MIN_CONF);
+
+			poseSolver.clear();
 			for (int mkIdx = 0; mkIdx < numMarkers; mkIdx++) {
 				MarkerModel mm = markerModels.get(mkIdx);
+				int bestDetectedIdx = bestDetectedIdxs[mkIdx];
 
-				int[] detectInfo = findBestDetectedIdx(detector, numDetections,
-						mkIdx); // look for mkIdx
-				int bestDetectedIdx = detectInfo[0];
-				double confidence = ((double) detectInfo[1]) / CONF_SIZE; // convert
-																			// back
-																			// to
-																			// double
-
-				if (bestDetectedIdx == -1) // marker not found so incr
-											// numTimesLost
+				if (bestDetectedIdx == -1) { // marker not found so incr
+												// numTimesLost
 					mm.incrNumTimesLost();
+					if (mm.getNumTimesLost() == 1)
+						metrics.markerLost(mkIdx); // found last time
+				}
 				else { // marker found
-					if (confidence >= MIN_CONF) { // detected a marker for mkIdx
-													// with high confidence
+					if (confidences[mkIdx] >= MIN_CONF) { // detected a marker
+															// for mkIdx with
+															// high confidence
 						mm.resetNumTimesLost();
-						// apply the transformation from the detected marker to
-						// the marker's model
-						// System.out.println("  For markers list index " +
-						// mkIdx +
-						// ": best detected index = " + bestDetectedIdx);
-						detector.getTransmationMatrix(bestDetectedIdx, transMat);
-						if (transMat.has_value)
-							mm.moveModel(transMat);
-						else
-							System.out
-									.println("Problem with transformation matrix");
+						// solve the transformation from the detected marker
+						// to the marker's model
+						poseSolver.add(mkIdx, mm, bestDetectedIdx);
 					}
 					// else // found a marker, but with low confidence
 					// System.out.println("  ***** " + mkIdx + " conf: " +
-					// confidence);
+					// confidences[mkIdx]);
+				}
+			}
+
+			poseSolver.solve(); // maybe in parallel
+
+			// apply the solved poses to the models
+			double time = System.nanoTime() / 1e9;
+			StringBuilder statusInfo = null; // for holding status information
+			if ((status != null) && status.isDue(time))
+				statusInfo = status.startStatus(time);
+			for (int mkIdx = 0; mkIdx < numMarkers; mkIdx++) {
+				MarkerModel mm = markerModels.get(mkIdx);
+
+				Matrix4d pose = poseSolver.getPose(mkIdx);
+				if (pose != null) {
+					if (mm.isExtrapolated()) { // compare with the detected pose
+						mm.extrapolationError(pose, time, extrapErrs);
+						totalPosError += extrapErrs[0];
+						totalRotError += extrapErrs[1];
+						numExtrapErrors++;
+					}
+					long t0 = System.nanoTime();
+					mm.applyPose(pose);
+					metrics.addTime(FrameMetrics.MOVE, t0);
+					metrics.markerFound(mkIdx);
+					if (poseEvents.hasSubscribers())
+						poseEvents.publish(mkIdx, frameStart,
+								confidences[mkIdx], pose);
+					if (modelManager != null)
+						modelManager.markerFound(mm, time); // load its model?
 				}
 
 				if (mm.getNumTimesLost() > MAX_NO_DETECTIONS) // marker not
@@ -124,81 +379,267 @@ public class DetectMarkers {
 																// many times
 					mm.hideModel(); // make its model invisible
 
-				statusInfo.append(mkIdx + ". " + mm.getNameInfo() + " ("
-						+ confidence + ")\n");
-				addToStatusInfo(mm, statusInfo);
+				if (statusInfo != null)
+					addToStatusInfo(mkIdx, mm, statusInfo);
 			}
-			top.setStatus(statusInfo.toString()); // display marker models
-													// status in the GUI
+			poseEvents.endFrame();
+			if (modelManager != null)
+				modelManager.update(time); // unload unused models?
+			if (statusInfo != null)
+				status.publish(); // display marker models status in the GUI
+			metrics.addTime(FrameMetrics.FRAME, frameStart);
 		} catch (NyARException e) {
 			System.out.println(e);
 		}
 	} // end of updateModels()
 
-	private int getNumDetections(NyARDetectMarker detector,
-			J3dNyARRaster_RGB rasterRGB) {
+	public void extrapolateModels()
+	/*
+	 * move the visible models to the poses predicted by their recent motion,
+	 * instead of detecting the markers in a frame
+	 */
+	{
+		double time = System.nanoTime() / 1e9;
+		for (MarkerModel mm : markerModels)
+			mm.extrapolatePose(time);
+	} // end of extrapolateModels()
+
+	public double getExtrapolationPosError()
+	// mean distance between extrapolated poses and the next detected ones
+	{
+		return (numExtrapErrors == 0) ? 0 : totalPosError / numExtrapErrors;
+	}
+
+	public double getExtrapolationRotError()
+	// mean angle (in radians) between extrapolated and detected poses
+	{
+		return (numExtrapErrors == 0) ? 0 : totalRotError / numExtrapErrors;
+	}
+
+	private void chooseThreshold(INyARRgbRaster rasterRGB)
+	/*
+	 * choose the threshold for rasterRGB from its histogram, or keep the last
+	 * one
+	 */
+	{
+		if (!hasData(rasterRGB))
+			return;
+		long t0 = System.nanoTime();
+		try {
+			long numReused = autoThreshold.getNumReused();
+			threshold = autoThreshold.update(rasterRGB);
+			metrics.addThreshold(threshold,
+					autoThreshold.getNumReused() > numReused);
+		} catch (NyARException e) {
+			System.out.println(e);
+		}
+		metrics.addTime(FrameMetrics.THRESHOLD, t0);
+	} // end of chooseThreshold()
+
+	private int getNumDetections(MarkerDetector detector,
+			INyARRgbRaster rasterRGB, boolean isWholeFrame)
+	/*
+	 * search the whole frame, or only the tracker's regions if there is a
+	 * tracker and isWholeFrame is false
+	 */
+	{
 		int numDetections = 0;
+		long t0 = System.nanoTime();
 		try {
-			synchronized (rasterRGB) {
-				if (rasterRGB.hasData())
-					numDetections = detector.detectMarkerLite(rasterRGB, 100);
+			// the caller owns rasterRGB until updateModels() returns, so no
+			// lock is needed (see NyARMarkersBehavior's TripleBuffer)
+			if (hasData(rasterRGB)) {
+				boolean useRegions = !isWholeFrame && (tracker != null)
+						&& tracker.useRegions();
+				if (useRegions)
+					numDetections = detector.detectMarkerLite(rasterRGB,
+							threshold, tracker.getRegions(), tracker
+									.getNumRegions());
+				else
+					numDetections = detector.detectMarkerLite(rasterRGB,
+							threshold);
+				if (tracker != null)
+					tracker.scanned(useRegions);
 			}
 		} catch (NyARException e) {
 			System.out.println(e);
 		}
+		metrics.addTime(FrameMetrics.DETECT, t0);
 
 		return numDetections;
 	} // end of getNumDetections()
 
-	private int[] findBestDetectedIdx(NyARDetectMarker detector,
-			int numDetections, int markerIdx)
+	private boolean hasData(INyARRgbRaster rasterRGB)
 	/*
-	 * return best detected marker index for marker markerIdx from all detected
-	 * markers, along with its confidence value as an integer
+	 * a camera raster is empty until JMF delivers its first frame; other
+	 * rasters (e.g. the raw frames replayed by SyntheticCamera) always wrap a
+	 * filled buffer
 	 */
 	{
-		int iBest = -1;
-		double confBest = -1;
+		if (rasterRGB instanceof JmfNyARRaster_RGB)
+			return ((JmfNyARRaster_RGB) rasterRGB).hasData();
+		return true;
+	} // end of hasData()
+
+	private void matchDetections(int numDetections)
+	// find the best detection for each marker
+	{
+		long t0 = System.nanoTime();
+		if (isExclusive)
+			assignDetections(detector, numDetections);
+		else
+			findBestDetections(detector, numDetections);
+		metrics.addTime(FrameMetrics.SELECT, t0);
+	} // end of matchDetections()
+
+	void findBestDetections(MarkerDetector detector, int numDetections)
+	/*
+	 * store the best detected marker index for every marker, along with its
+	 * confidence value, in a single pass over all the detected markers
+	 */
+	{
+		for (int mkIdx = 0; mkIdx < numMarkers; mkIdx++) {
+			bestDetectedIdxs[mkIdx] = -1;
+			confidences[mkIdx] = -1;
+		}
 
-		// System.out.println("  Look at detections for marker " + markerIdx);
 		for (int i = 0; i < numDetections; i++) { // check all detected markers
 			int codesIdx = detector.getARCodeIndex(i);
 			double conf = detector.getConfidence(i);
 			// System.out.println("    detections index["+i+"] = code index " +
 			// codesIdx + " -- conf: " + conf);
 
-			if ((codesIdx == markerIdx) && (conf > confBest)) {
-				iBest = i; // detected marker index with highest confidence
-				confBest = conf;
+			if (conf > confidences[codesIdx]) {
+				bestDetectedIdxs[codesIdx] = i; // detected marker index with
+												// highest confidence
+				confidences[codesIdx] = conf;
+			}
+		}
+	} // end of findBestDetections()
+
+	void assignDetections(MarkerDetector detector, int numDetections)
+	/*
+	 * like findBestDetections(), but the detections are assigned in decreasing
+	 * order of confidence, and a detection is skipped if its marker already
+	 * has one, or if it lies on a square already given to another marker
+	 */
+	{
+		for (int mkIdx = 0; mkIdx < numMarkers; mkIdx++) {
+			bestDetectedIdxs[mkIdx] = -1;
+			confidences[mkIdx] = -1;
+		}
+		if ((detectionOrder == null) || (detectionOrder.length < numDetections)) {
+			detectionOrder = new int[numDetections];
+			isClaimed = new boolean[numDetections];
+		}
+
+		// insertion sort the detections by decreasing confidence (there are
+		// only a few of them)
+		for (int i = 0; i < numDetections; i++) {
+			double conf = detector.getConfidence(i);
+			int j = i;
+			while ((j > 0)
+					&& (detector.getConfidence(detectionOrder[j - 1]) < conf)) {
+				detectionOrder[j] = detectionOrder[j - 1];
+				j--;
 			}
+			detectionOrder[j] = i;
+			isClaimed[i] = false;
+		}
+
+		for (int k = 0; k < numDetections; k++) {
+			int i = detectionOrder[k];
+			int codesIdx = detector.getARCodeIndex(i);
+			if ((bestDetectedIdxs[codesIdx] != -1) || isOnClaimedSquare(i, k))
+				continue;
+			bestDetectedIdxs[codesIdx] = i;
+			confidences[codesIdx] = detector.getConfidence(i);
+			isClaimed[i] = true;
+		}
+	} // end of assignDetections()
+
+	private boolean isOnClaimedSquare(int i, int numChecked)
+	/*
+	 * is the centre of detection i inside one of the squares already given
+	 * to a marker? Only the first numChecked detections in detectionOrder
+	 * can have been claimed
+	 */
+	{
+		NyARSquare sq = detector.getSquare(i);
+		double cx = 0, cy = 0;
+		for (int v = 0; v < 4; v++) {
+			cx += sq.sqvertex[v].x;
+			cy += sq.sqvertex[v].y;
 		}
-		// System.out.println("    mark index "+ markerIdx+" iBest = " + iBest +
-		// " conf: " + confBest);
+		cx /= 4;
+		cy /= 4;
 
-		int[] detectInfo = { iBest, (int) (confBest * CONF_SIZE) };
-		return detectInfo;
-	} // end of findBestDetectedIdx()
+		for (int k = 0; k < numChecked; k++) {
+			int j = detectionOrder[k];
+			if (isClaimed[j] && isInside(detector.getSquare(j), cx, cy))
+				return true;
+		}
+		return false;
+	} // end of isOnClaimedSquare()
 
-	private void addToStatusInfo(MarkerModel mm, StringBuffer statusInfo)
-	// add details about MarkerModel object to status info string
+	private boolean isInside(NyARSquare sq, double x, double y)
+	// is (x,y) inside the (convex) square?
 	{
+		boolean hasPos = false, hasNeg = false;
+		for (int v = 0; v < 4; v++) {
+			NyARDoublePoint2d p1 = sq.sqvertex[v];
+			NyARDoublePoint2d p2 = sq.sqvertex[(v + 1) % 4];
+			double cross = (p2.x - p1.x) * (y - p1.y) - (p2.y - p1.y)
+					* (x - p1.x);
+			if (cross > 0)
+				hasPos = true;
+			else if (cross < 0)
+				hasNeg = true;
+		}
+		return !(hasPos && hasNeg); // same side of every edge
+	} // end of isInside()
+
+	private void addToStatusInfo(int mkIdx, MarkerModel mm,
+			StringBuilder statusInfo)
+	/*
+	 * add details about MarkerModel object to status info, without making
+	 * temporary strings
+	 */
+	{
+		statusInfo.append(mkIdx).append(". ").append(mm.getNameInfo())
+				.append(" (");
+		StatusPublisher.append(statusInfo, confidences[mkIdx], 3);
+		statusInfo.append(")\n");
+
 		if (!mm.isVisible())
 			statusInfo.append(" not visible\n");
 		else { // model is visible, so report position and orientation
 			Point3d pos = mm.getPos();
-			if (pos != null)
-				statusInfo.append("    at (" + pos.x + ", " + pos.y + ", "
-						+ pos.z + ")\n");
-			else
+			if (pos != null) {
+				statusInfo.append("    at ");
+				appendPoint(statusInfo, pos);
+			} else
 				statusInfo.append("    at an unknown position\n");
 
 			Point3d rots = mm.getRots();
-			if (rots != null)
-				statusInfo.append("    rots (" + rots.x + ", " + rots.y + ", "
-						+ rots.z + ")\n");
-			else
+			if (rots != null) {
+				statusInfo.append("    rots ");
+				appendPoint(statusInfo, rots);
+			} else
 				statusInfo.append("    with unknown rotations\n");
 		}
 	} // end of addToStatusInfo()
 
+	private void appendPoint(StringBuilder sb, Point3d pt)
+	// add "(x, y, z)" and a newline, to 1 decimal place
+	{
+		sb.append('(');
+		StatusPublisher.append(sb, pt.x, 1);
+		sb.append(", ");
+		StatusPublisher.append(sb, pt.y, 1);
+		sb.append(", ");
+		StatusPublisher.append(sb, pt.z, 1);
+		sb.append(")\n");
+	} // end of appendPoint()
+
 } // end of class DetectMarkers
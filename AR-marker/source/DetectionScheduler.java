@@ -0,0 +1,127 @@
+// DetectionScheduler.java
+
+/* Decides which frames DetectMarkers should detect markers in, so that
+ detection doesn't hold up rendering when it can't keep up with the
+ camera.
+
+ The time taken by each detection is measured and smoothed. While it
+ fits inside the frame budget, every frame is detected. When it
+ doesn't, only every stride'th frame is detected, with the stride
+ chosen so that the detection time per frame fits the budget again;
+ in the frames between, the models are moved to poses extrapolated
+ from their recent motion (see DetectMarkers.extrapolateModels()).
+ The stride only drops again once detection would fit comfortably.
+
+ The effective detection rate (detections/sec, over the last second)
+ and the extrapolation error (see DetectMarkers) can be read as
+ metrics.
+ */
+
+import jp.nyatla.nyartoolkit.core.raster.rgb.INyARRgbRaster;
+
+public class DetectionScheduler {
+	private static final int MAX_STRIDE = 8;
+	private static final double TIME_WEIGHT = 0.2; // of the newest time
+	private static final double SLACK = 0.8; // fraction of budget to go under
+	private static final double RATE_PERIOD = 1.0; // secs
+
+	private DetectMarkers detectMarkers;
+	private double frameBudget; // secs
+
+	private int stride = 1; // detect in 1 frame out of every stride
+	private int numSinceDetect = 0; // frames since the last detection
+	private double detectTime = -1; // smoothed secs per detection
+
+	private long numFrames = 0;
+	private long numDetected = 0;
+
+	// detections/sec, measured over RATE_PERIOD
+	private double rateStart = -1;
+	private int rateCount = 0;
+	private double detectionRate = 0;
+
+	public DetectionScheduler(DetectMarkers detectMarkers, double frameBudget) {
+		this.detectMarkers = detectMarkers;
+		this.frameBudget = frameBudget;
+	} // end of DetectionScheduler()
+
+	public void update(INyARRgbRaster rasterRGB)
+	// detect the markers in this frame, or extrapolate the models' poses
+	{
+		long t0 = System.nanoTime();
+		numFrames++;
+		numSinceDetect++;
+		if (numSinceDetect < stride) {
+			detectMarkers.extrapolateModels();
+			return;
+		}
+
+		detectMarkers.updateModels(rasterRGB);
+		long t1 = System.nanoTime();
+		numSinceDetect = 0;
+		numDetected++;
+		adjustStride((t1 - t0) / 1e9);
+		countDetection(t1 / 1e9);
+	} // end of update()
+
+	private void adjustStride(double time)
+	// choose the stride for the smoothed detection time
+	{
+		if (detectTime < 0)
+			detectTime = time;
+		else
+			detectTime += TIME_WEIGHT * (time - detectTime);
+
+		int needed = (int) Math.ceil(detectTime / frameBudget);
+		if (needed > stride)
+			stride = Math.min(needed, MAX_STRIDE);
+		else if ((stride > 1) && (detectTime < SLACK * frameBudget * (stride - 1)))
+			stride--; // one step at a time
+	} // end of adjustStride()
+
+	private void countDetection(double time) {
+		if (rateStart < 0)
+			rateStart = time;
+		rateCount++;
+		if (time - rateStart >= RATE_PERIOD) {
+			detectionRate = rateCount / (time - rateStart);
+			rateStart = time;
+			rateCount = 0;
+		}
+	} // end of countDetection()
+
+	public int getStride() {
+		return stride;
+	}
+
+	public double getDetectionTime()
+	// smoothed secs per detection
+	{
+		return Math.max(detectTime, 0);
+	}
+
+	public double getDetectionRate()
+	// detections/sec over the last second
+	{
+		return detectionRate;
+	}
+
+	public long getNumFrames() {
+		return numFrames;
+	}
+
+	public long getNumDetected() {
+		return numDetected;
+	}
+
+	public double getExtrapolationPosError() {
+		return detectMarkers.getExtrapolationPosError();
+	}
+
+	public double getExtrapolationRotError()
+	// in radians
+	{
+		return detectMarkers.getExtrapolationRotError();
+	}
+
+} // end of DetectionScheduler class
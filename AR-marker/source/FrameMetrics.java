@@ -0,0 +1,266 @@
+// FrameMetrics.java
+
+/* Times each stage of the detection loop, and counts the detections
+ per frame and how often each marker was found or lost, so it can be
+ seen where the frame time goes, e.g. with jconsole while the
+ application runs (see register()).
+
+ The stages are:
+   - capture: copying a camera buffer into a raster
+     (NyARMarkersBehavior.onUpdateBuffer(), on the capture thread)
+   - background: copying a raster into the background image
+   - threshold: choosing the frame's threshold, if it's automatic
+     (AutoThreshold.update())
+   - detect: finding the squares and matching them to the codes
+     (MarkerDetector.detectMarkerLite())
+   - select: choosing each marker's best detection
+   - transform: calculating a found marker's transformation matrix
+     (MarkerDetector.getTransmationMatrix(); per marker, maybe on a
+     PoseSolver thread)
+   - filter: smoothing the marker's pose (its PoseFilter; per marker)
+   - move: moving the marker's model (MarkerModel.applyPose(); per
+     marker)
+   - frame: all of DetectMarkers.updateModels()
+
+ When the threshold is chosen automatically (see AutoThreshold), the
+ threshold used for each frame is recorded too, along with how many
+ frames reused the previous frame's threshold.
+
+ Each stage's times go in a LatencyHistogram, so recording is cheap
+ and the percentiles are only worked out when they are read.
+ */
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+public class FrameMetrics implements FrameMetricsMBean {
+	public static final int CAPTURE = 0;
+	public static final int BACKGROUND = 1;
+	public static final int THRESHOLD = 2;
+	public static final int DETECT = 3;
+	public static final int SELECT = 4;
+	public static final int TRANSFORM = 5;
+	public static final int FILTER = 6;
+	public static final int MOVE = 7;
+	public static final int FRAME = 8;
+
+	private static final String[] STAGE_NAMES = { "capture", "background",
+			"threshold", "detect", "select", "transform", "filter", "move",
+			"frame" };
+
+	private static final String OBJECT_NAME = "MultiNyAR:type=FrameMetrics";
+
+	private LatencyHistogram[] stageTimes; // in nanosecs
+	private LatencyHistogram detections; // per frame
+	private LatencyHistogram thresholds; // per frame, if automatic
+	private AtomicLong numThresholdsReused = new AtomicLong();
+	private volatile int lastThreshold = -1;
+
+	private String[] markerNames;
+	private AtomicLongArray foundCounts, lostCounts;
+
+	public FrameMetrics(ArrayList<MarkerModel> markerModels) {
+		stageTimes = new LatencyHistogram[STAGE_NAMES.length];
+		for (int i = 0; i < STAGE_NAMES.length; i++)
+			stageTimes[i] = new LatencyHistogram();
+		detections = new LatencyHistogram();
+		thresholds = new LatencyHistogram();
+
+		int numMarkers = markerModels.size();
+		markerNames = new String[numMarkers];
+		for (int i = 0; i < numMarkers; i++)
+			markerNames[i] = markerModels.get(i).getNameInfo();
+		foundCounts = new AtomicLongArray(numMarkers);
+		lostCounts = new AtomicLongArray(numMarkers);
+	} // end of FrameMetrics()
+
+	public void register(String camera)
+	/*
+	 * make the metrics visible over JMX, in the platform MBean server; camera
+	 * names the camera, if there's more than one
+	 */
+	{
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = new ObjectName(OBJECT_NAME
+					+ ((camera == null) ? "" : ",camera=" + camera));
+			if (server.isRegistered(name))
+				server.unregisterMBean(name); // replace an older detector's
+			server.registerMBean(this, name);
+		} catch (Exception e) {
+			System.out.println("Could not register frame metrics: " + e);
+		}
+	} // end of register()
+
+	// ---------------------- recording ------------------------
+
+	public void addTime(int stage, long t0)
+	// stage started at t0 (from System.nanoTime()) and has just ended
+	{
+		stageTimes[stage].record(System.nanoTime() - t0);
+	}
+
+	public void addDetections(int numDetections) {
+		detections.record(numDetections);
+	}
+
+	public void addThreshold(int threshold, boolean isReused)
+	// the automatic threshold used for a frame
+	{
+		thresholds.record(threshold);
+		lastThreshold = threshold;
+		if (isReused)
+			numThresholdsReused.incrementAndGet();
+	} // end of addThreshold()
+
+	public void markerFound(int mkIdx) {
+		foundCounts.incrementAndGet(mkIdx);
+	}
+
+	public void markerLost(int mkIdx)
+	// marker mkIdx was found in the last frame, but not in this one
+	{
+		if (foundCounts.get(mkIdx) > 0) // not just unseen since a reset
+			lostCounts.incrementAndGet(mkIdx);
+	}
+
+	// ---------------------- reading --------------------------
+
+	public LatencyHistogram getStageTimes(int stage) {
+		return stageTimes[stage];
+	}
+
+	public String[] getStages() {
+		return STAGE_NAMES.clone();
+	}
+
+	public double[] getP50Millis() {
+		return getPercentiles(50);
+	}
+
+	public double[] getP99Millis() {
+		return getPercentiles(99);
+	}
+
+	private double[] getPercentiles(double pc) {
+		double[] times = new double[stageTimes.length];
+		for (int i = 0; i < stageTimes.length; i++)
+			times[i] = stageTimes[i].getPercentile(pc) / 1e6;
+		return times;
+	} // end of getPercentiles()
+
+	public double[] getMaxMillis() {
+		double[] times = new double[stageTimes.length];
+		for (int i = 0; i < stageTimes.length; i++)
+			times[i] = stageTimes[i].getMax() / 1e6;
+		return times;
+	} // end of getMaxMillis()
+
+	public long[] getStageCounts() {
+		long[] counts = new long[stageTimes.length];
+		for (int i = 0; i < stageTimes.length; i++)
+			counts[i] = stageTimes[i].getCount();
+		return counts;
+	} // end of getStageCounts()
+
+	public long getNumFrames() {
+		return stageTimes[FRAME].getCount();
+	}
+
+	public double getDetectionsPerFrameP50() {
+		return detections.getPercentile(50);
+	}
+
+	public double getDetectionsPerFrameP99() {
+		return detections.getPercentile(99);
+	}
+
+	public double getMeanDetectionsPerFrame() {
+		return detections.getMean();
+	}
+
+	public int getLastThreshold()
+	// -1 if the threshold isn't automatic
+	{
+		return lastThreshold;
+	}
+
+	public double getMeanThreshold() {
+		return thresholds.getMean();
+	}
+
+	public long getThresholdP50() {
+		return thresholds.getPercentile(50);
+	}
+
+	public long getMaxThreshold() {
+		return thresholds.getMax();
+	}
+
+	public long getNumThresholdsReused()
+	// frames that kept the previous frame's automatic threshold
+	{
+		return numThresholdsReused.get();
+	}
+
+	public String[] getMarkers() {
+		return markerNames.clone();
+	}
+
+	public long[] getFoundCounts() {
+		return toArray(foundCounts);
+	}
+
+	public long[] getLostCounts() {
+		return toArray(lostCounts);
+	}
+
+	private static long[] toArray(AtomicLongArray counts) {
+		long[] arr = new long[counts.length()];
+		for (int i = 0; i < arr.length; i++)
+			arr[i] = counts.get(i);
+		return arr;
+	} // end of toArray()
+
+	public String[] getSummary()
+	// one line per stage, then one for the detections, and the thresholds
+	{
+		String[] lines = new String[stageTimes.length + 2];
+		for (int i = 0; i < stageTimes.length; i++) {
+			LatencyHistogram h = stageTimes[i];
+			lines[i] = String.format(
+					"%-10s p50 %7.3f ms  p99 %7.3f ms  max %7.3f ms  (%d)",
+					STAGE_NAMES[i], h.getPercentile(50) / 1e6, h
+							.getPercentile(99) / 1e6, h.getMax() / 1e6, h
+							.getCount());
+		}
+		lines[stageTimes.length] = String.format(
+				"detections/frame: mean %.2f  p50 %d  p99 %d", detections
+						.getMean(), detections.getPercentile(50), detections
+						.getPercentile(99));
+		lines[stageTimes.length + 1] = String.format(
+				"threshold: mean %.1f  p50 %d  max %d  last %d  reused %d  (%d)",
+				thresholds.getMean(), thresholds.getPercentile(50), thresholds
+						.getMax(), lastThreshold, numThresholdsReused.get(),
+				thresholds.getCount());
+		return lines;
+	} // end of getSummary()
+
+	public void reset() {
+		for (LatencyHistogram h : stageTimes)
+			h.reset();
+		detections.reset();
+		thresholds.reset();
+		numThresholdsReused.set(0);
+		for (int i = 0; i < markerNames.length; i++) {
+			foundCounts.set(i, 0);
+			lostCounts.set(i, 0);
+		}
+	} // end of reset()
+
+} // end of FrameMetrics class
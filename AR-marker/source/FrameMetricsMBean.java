@@ -0,0 +1,49 @@
+// FrameMetricsMBean.java
+
+/* The JMX management interface of FrameMetrics, as shown by jconsole
+ (under "MultiNyAR", type "FrameMetrics").
+
+ The stage arrays are in the order of getStages(), and the marker
+ arrays in the order of getMarkers(). Times are in millisecs.
+ */
+
+public interface FrameMetricsMBean {
+	public String[] getStages();
+
+	public double[] getP50Millis();
+
+	public double[] getP99Millis();
+
+	public double[] getMaxMillis();
+
+	public long[] getStageCounts();
+
+	public long getNumFrames();
+
+	public double getDetectionsPerFrameP50();
+
+	public double getDetectionsPerFrameP99();
+
+	public double getMeanDetectionsPerFrame();
+
+	public int getLastThreshold();
+
+	public double getMeanThreshold();
+
+	public long getThresholdP50();
+
+	public long getMaxThreshold();
+
+	public long getNumThresholdsReused();
+
+	public String[] getMarkers();
+
+	public long[] getFoundCounts();
+
+	public long[] getLostCounts();
+
+	public String[] getSummary();
+
+	public void reset();
+
+} // end of FrameMetricsMBean interface
@@ -0,0 +1,526 @@
+// GeometryCache.java
+
+/* An on-disk cache of the geometry and appearance made by a model
+ loader, so later runs don't have to parse, triangulate and stripify
+ the model file again (see PropManager.loadFile()).
+
+ A cache file (in models/cache/, named after the model) is keyed by
+ a SHA-1 hash of the model file, any material (.mtl) files it uses,
+ and the name and flags of the loader, so it is remade whenever one of
+ those changes.
+
+ Only the kinds of scene the loaders make for the models here can be
+ cached: a BranchGroup of Shape3Ds, each holding triangle, quad,
+ triangle-strip or triangle-fan arrays of coordinates, normals and
+ colours, with a Material, TransparencyAttributes and
+ PolygonAttributes. Any other scene is simply not cached.
+
+ Cache layout (big-endian):
+   int magic ("J3GC"), int version, 20 byte key, int number of shapes
+   each shape:
+     int appearance flags, then its Material (4 RGB colours, shininess,
+       lighting enable, colour target), TransparencyAttributes (mode,
+       transparency, source and destination blend functions) and
+       PolygonAttributes (polygon mode, cull face, back face normal
+       flip, offset, offset factor), for the ones present
+     int number of geometries
+     each geometry:
+       int type, int vertex format, int vertex count,
+       int number of strips, the strip vertex counts,
+       int number of floats, the interleaved vertex floats
+   long CRC32 of all the bytes before it
+
+ The cache is memory-mapped when loaded, and each geometry's floats
+ are bulk-copied from it into a by-reference interleaved array. Its
+ header and checksum are checked through a stream first, so an
+ out-of-date or damaged cache isn't left mapped (on Windows, a mapped
+ file can't be replaced by save()).
+ */
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+import javax.media.j3d.Appearance;
+import javax.media.j3d.BranchGroup;
+import javax.media.j3d.Geometry;
+import javax.media.j3d.GeometryArray;
+import javax.media.j3d.GeometryStripArray;
+import javax.media.j3d.Material;
+import javax.media.j3d.Node;
+import javax.media.j3d.PolygonAttributes;
+import javax.media.j3d.QuadArray;
+import javax.media.j3d.Shape3D;
+import javax.media.j3d.TransparencyAttributes;
+import javax.media.j3d.TriangleArray;
+import javax.media.j3d.TriangleFanArray;
+import javax.media.j3d.TriangleStripArray;
+import javax.vecmath.Color3f;
+
+public class GeometryCache {
+	private static final String CACHE_DIR = "models/cache/";
+	private static final int MAGIC = 0x4a334743; // "J3GC"
+	private static final int VERSION = 1;
+	private static final int CRC_CHUNK = 65536; // bytes checked at a time
+
+	// geometry types
+	private static final int TRIANGLES = 0;
+	private static final int QUADS = 1;
+	private static final int TRIANGLE_STRIPS = 2;
+	private static final int TRIANGLE_FANS = 3;
+
+	// vertex components that can be cached
+	private static final int COMPONENTS = GeometryArray.COORDINATES
+			| GeometryArray.NORMALS | GeometryArray.COLOR_4;
+
+	// appearance flags
+	private static final int HAS_MATERIAL = 1;
+	private static final int HAS_TRANSPARENCY = 2;
+	private static final int HAS_POLYGON = 4;
+
+	private String modelFnm;
+	private File cacheFile;
+	private byte[] key = null; // null if the model file couldn't be read
+
+	public GeometryCache(String modelFnm, String loaderInfo) {
+		this.modelFnm = modelFnm;
+		cacheFile = new File(CACHE_DIR + new File(modelFnm).getName() + ".geo");
+		try {
+			key = makeKey(modelFnm, loaderInfo);
+		} catch (IOException e) {
+			System.out.println(e);
+		}
+	} // end of GeometryCache()
+
+	private static byte[] makeKey(String modelFnm, String loaderInfo)
+			throws IOException
+	// hash the model file, its material files, and the loader details
+	{
+		MessageDigest md;
+		try {
+			md = MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IOException(e.toString());
+		}
+		md.update((VERSION + " " + loaderInfo).getBytes("UTF-8"));
+		byte[] modelData = readFile(new File(modelFnm));
+		md.update(modelData);
+
+		if (modelFnm.toLowerCase().endsWith(".obj")) {
+			File dir = new File(modelFnm).getParentFile();
+			for (String mtlFnm : mtlFiles(modelData)) {
+				File mtlFile = new File(dir, mtlFnm);
+				if (mtlFile.exists())
+					md.update(readFile(mtlFile));
+			}
+		}
+		return md.digest();
+	} // end of makeKey()
+
+	private static ArrayList<String> mtlFiles(byte[] objData)
+			throws IOException
+	// the names of the material files used by a wavefront model
+	{
+		ArrayList<String> fnms = new ArrayList<String>();
+		for (String line : new String(objData, "ISO-8859-1").split("\n")) {
+			line = line.trim();
+			if (line.startsWith("mtllib"))
+				for (String fnm : line.substring(6).trim().split("\\s+"))
+					if (fnm.length() > 0)
+						fnms.add(fnm);
+		}
+		return fnms;
+	} // end of mtlFiles()
+
+	private static byte[] readFile(File f) throws IOException {
+		byte[] data = new byte[(int) f.length()];
+		FileInputStream in = new FileInputStream(f);
+		try {
+			int n = 0;
+			while (n < data.length) {
+				int len = in.read(data, n, data.length - n);
+				if (len < 0)
+					throw new IOException("Unexpected end of " + f);
+				n += len;
+			}
+		} finally {
+			in.close();
+		}
+		return data;
+	} // end of readFile()
+
+	// ------------------------- loading ---------------------------
+
+	public BranchGroup load()
+	/*
+	 * return the cached scene for the model, or null if there's no up-to-date
+	 * cache of it
+	 */
+	{
+		if ((key == null) || !cacheFile.exists())
+			return null;
+		try {
+			if (!isUpToDate())
+				return null; // an old cache, or the model or loader has changed
+			RandomAccessFile file = new RandomAccessFile(cacheFile, "r");
+			MappedByteBuffer buf;
+			try {
+				FileChannel channel = file.getChannel();
+				buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel
+						.size());
+			} finally {
+				file.close();
+			}
+			buf.position(8 + key.length); // skip the checked header
+
+			BranchGroup sceneGroup = new BranchGroup();
+			int numShapes = buf.getInt();
+			for (int i = 0; i < numShapes; i++)
+				sceneGroup.addChild(readShape(buf));
+			return sceneGroup;
+		} catch (Exception e) {
+			System.out.println("Could not read " + cacheFile + ": " + e);
+			return null;
+		}
+	} // end of load()
+
+	private boolean isUpToDate() throws IOException
+	/*
+	 * is the cache file for this version, and keyed for the current model?
+	 * Its CRC32 is compared with the one at its end as well, all through a
+	 * stream, so a damaged cache is rejected before it's mapped
+	 */
+	{
+		long len = cacheFile.length() - 8; // bytes covered by the sum
+		if (len < 8 + key.length)
+			throw new IOException("too short");
+		CRC32 crc = new CRC32();
+		DataInputStream in = new DataInputStream(new CheckedInputStream(
+				new BufferedInputStream(new FileInputStream(cacheFile)), crc));
+		try {
+			if ((in.readInt() != MAGIC) || (in.readInt() != VERSION))
+				return false;
+			byte[] cacheKey = new byte[key.length];
+			in.readFully(cacheKey);
+			if (!Arrays.equals(cacheKey, key))
+				return false;
+
+			byte[] chunk = new byte[CRC_CHUNK];
+			long numLeft = len - (8 + key.length);
+			while (numLeft > 0) {
+				int n = (int) Math.min(chunk.length, numLeft);
+				in.readFully(chunk, 0, n);
+				numLeft -= n;
+			}
+			long sum = crc.getValue(); // of everything before the sum
+			if (in.readLong() != sum)
+				throw new IOException("bad checksum");
+			return true;
+		} finally {
+			in.close();
+		}
+	} // end of isUpToDate()
+
+	private Shape3D readShape(MappedByteBuffer buf) {
+		Appearance app = new Appearance();
+		int flags = buf.getInt();
+		if ((flags & HAS_MATERIAL) != 0) {
+			Material mat = new Material(readColor(buf), readColor(buf),
+					readColor(buf), readColor(buf), buf.getFloat());
+			mat.setLightingEnable(buf.getInt() != 0);
+			mat.setColorTarget(buf.getInt());
+			app.setMaterial(mat);
+		}
+		if ((flags & HAS_TRANSPARENCY) != 0)
+			app.setTransparencyAttributes(new TransparencyAttributes(buf
+					.getInt(), buf.getFloat(), buf.getInt(), buf.getInt()));
+		if ((flags & HAS_POLYGON) != 0)
+			app.setPolygonAttributes(new PolygonAttributes(buf.getInt(), buf
+					.getInt(), buf.getFloat(), buf.getInt() != 0, buf.getFloat()));
+
+		Shape3D shape = new Shape3D();
+		shape.setAppearance(app);
+		int numGeoms = buf.getInt();
+		for (int i = 0; i < numGeoms; i++) {
+			if (i == 0)
+				shape.setGeometry(readGeometry(buf));
+			else
+				shape.addGeometry(readGeometry(buf));
+		}
+		return shape;
+	} // end of readShape()
+
+	private Color3f readColor(MappedByteBuffer buf) {
+		return new Color3f(buf.getFloat(), buf.getFloat(), buf.getFloat());
+	}
+
+	private GeometryArray readGeometry(MappedByteBuffer buf)
+	// make a by-reference interleaved geometry array from the cached floats
+	{
+		int type = buf.getInt();
+		int format = buf.getInt() | GeometryArray.BY_REFERENCE
+				| GeometryArray.INTERLEAVED;
+		int vertexCount = buf.getInt();
+		int[] stripCounts = new int[buf.getInt()];
+		for (int i = 0; i < stripCounts.length; i++)
+			stripCounts[i] = buf.getInt();
+		float[] vertices = new float[buf.getInt()];
+		buf.asFloatBuffer().get(vertices);
+		buf.position(buf.position() + vertices.length * 4);
+
+		GeometryArray geom;
+		if (type == TRIANGLES)
+			geom = new TriangleArray(vertexCount, format);
+		else if (type == QUADS)
+			geom = new QuadArray(vertexCount, format);
+		else if (type == TRIANGLE_STRIPS)
+			geom = new TriangleStripArray(vertexCount, format, stripCounts);
+		else
+			geom = new TriangleFanArray(vertexCount, format, stripCounts);
+		geom.setInterleavedVertices(vertices);
+		return geom;
+	} // end of readGeometry()
+
+	// ------------------------- saving ---------------------------
+
+	public void save(BranchGroup sceneGroup)
+	// cache sceneGroup for the model, if it can be cached
+	{
+		if (key == null)
+			return;
+		ArrayList<Shape3D> shapes = getShapes(sceneGroup);
+		if (shapes == null) {
+			System.out.println("Cannot cache the geometry of " + modelFnm);
+			return;
+		}
+
+		File tmpFile = new File(cacheFile.getPath() + ".tmp");
+		try {
+			cacheFile.getParentFile().mkdirs();
+			CRC32 crc = new CRC32();
+			DataOutputStream out = new DataOutputStream(new CheckedOutputStream(
+					new BufferedOutputStream(new FileOutputStream(tmpFile)), crc));
+			try {
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				out.write(key);
+				out.writeInt(shapes.size());
+				for (Shape3D shape : shapes)
+					writeShape(out, shape);
+				out.flush();
+				long sum = crc.getValue(); // of everything before the sum
+				out.writeLong(sum);
+			} finally {
+				out.close();
+			}
+			if (cacheFile.exists() && !cacheFile.delete())
+				throw new IOException("Could not replace " + cacheFile);
+			if (!tmpFile.renameTo(cacheFile))
+				throw new IOException("Could not rename " + tmpFile);
+		} catch (IOException e) {
+			System.out.println(e);
+			tmpFile.delete();
+		}
+	} // end of save()
+
+	private ArrayList<Shape3D> getShapes(BranchGroup sceneGroup)
+	// the shapes in sceneGroup, or null if it can't be cached
+	{
+		ArrayList<Shape3D> shapes = new ArrayList<Shape3D>();
+		Enumeration<?> children = sceneGroup.getAllChildren();
+		while (children.hasMoreElements()) {
+			Node child = (Node) children.nextElement();
+			if (!(child instanceof Shape3D))
+				return null;
+			Shape3D shape = (Shape3D) child;
+			if (!canCache(shape.getAppearance()))
+				return null;
+			for (int i = 0; i < shape.numGeometries(); i++)
+				if (!canCache(shape.getGeometry(i)))
+					return null;
+			shapes.add(shape);
+		}
+		return shapes;
+	} // end of getShapes()
+
+	private boolean canCache(Appearance app) {
+		return (app == null)
+				|| ((app.getTexture() == null)
+						&& (app.getTextureAttributes() == null)
+						&& (app.getTexCoordGeneration() == null)
+						&& (app.getTextureUnitCount() == 0)
+						&& (app.getColoringAttributes() == null)
+						&& (app.getRenderingAttributes() == null)
+						&& (app.getLineAttributes() == null) && (app
+						.getPointAttributes() == null));
+	} // end of canCache()
+
+	private boolean canCache(Geometry g) {
+		if (!((g instanceof TriangleArray) || (g instanceof QuadArray)
+				|| (g instanceof TriangleStripArray) || (g instanceof TriangleFanArray)))
+			return false;
+		GeometryArray ga = (GeometryArray) g;
+		int format = ga.getVertexFormat();
+		if ((format & ~(COMPONENTS | GeometryArray.BY_REFERENCE | GeometryArray.INTERLEAVED)) != 0)
+			return false; // texture coordinates, NIO buffers, etc.
+		if ((format & GeometryArray.BY_REFERENCE) == 0)
+			return true;
+		// only interleaved float data, starting at the first vertex
+		return ((format & GeometryArray.INTERLEAVED) != 0)
+				&& (ga.getInterleavedVertices() != null)
+				&& (ga.getInitialVertexIndex() == 0);
+	} // end of canCache()
+
+	private void writeShape(DataOutputStream out, Shape3D shape)
+			throws IOException {
+		Appearance app = shape.getAppearance();
+		Material mat = (app == null) ? null : app.getMaterial();
+		TransparencyAttributes ta = (app == null) ? null : app
+				.getTransparencyAttributes();
+		PolygonAttributes pa = (app == null) ? null : app.getPolygonAttributes();
+
+		int flags = 0;
+		if (mat != null)
+			flags |= HAS_MATERIAL;
+		if (ta != null)
+			flags |= HAS_TRANSPARENCY;
+		if (pa != null)
+			flags |= HAS_POLYGON;
+		out.writeInt(flags);
+
+		if (mat != null) {
+			Color3f c = new Color3f();
+			mat.getAmbientColor(c);
+			writeColor(out, c);
+			mat.getEmissiveColor(c);
+			writeColor(out, c);
+			mat.getDiffuseColor(c);
+			writeColor(out, c);
+			mat.getSpecularColor(c);
+			writeColor(out, c);
+			out.writeFloat(mat.getShininess());
+			out.writeInt(mat.getLightingEnable() ? 1 : 0);
+			out.writeInt(mat.getColorTarget());
+		}
+		if (ta != null) {
+			out.writeInt(ta.getTransparencyMode());
+			out.writeFloat(ta.getTransparency());
+			out.writeInt(ta.getSrcBlendFunction());
+			out.writeInt(ta.getDstBlendFunction());
+		}
+		if (pa != null) {
+			out.writeInt(pa.getPolygonMode());
+			out.writeInt(pa.getCullFace());
+			out.writeFloat(pa.getPolygonOffset());
+			out.writeInt(pa.getBackFaceNormalFlip() ? 1 : 0);
+			out.writeFloat(pa.getPolygonOffsetFactor());
+		}
+
+		out.writeInt(shape.numGeometries());
+		for (int i = 0; i < shape.numGeometries(); i++)
+			writeGeometry(out, (GeometryArray) shape.getGeometry(i));
+	} // end of writeShape()
+
+	private void writeColor(DataOutputStream out, Color3f c) throws IOException {
+		out.writeFloat(c.x);
+		out.writeFloat(c.y);
+		out.writeFloat(c.z);
+	}
+
+	private void writeGeometry(DataOutputStream out, GeometryArray ga)
+			throws IOException {
+		int type = TRIANGLES;
+		if (ga instanceof QuadArray)
+			type = QUADS;
+		else if (ga instanceof TriangleStripArray)
+			type = TRIANGLE_STRIPS;
+		else if (ga instanceof TriangleFanArray)
+			type = TRIANGLE_FANS;
+		out.writeInt(type);
+
+		int format = ga.getVertexFormat() & COMPONENTS;
+		out.writeInt(format);
+
+		int[] stripCounts = new int[0];
+		int vertexCount;
+		if (ga instanceof GeometryStripArray) {
+			GeometryStripArray gsa = (GeometryStripArray) ga;
+			stripCounts = new int[gsa.getNumStrips()];
+			gsa.getStripVertexCounts(stripCounts);
+			vertexCount = 0;
+			for (int count : stripCounts)
+				vertexCount += count;
+		} else
+			vertexCount = ga.getValidVertexCount();
+		out.writeInt(vertexCount);
+		out.writeInt(stripCounts.length);
+		for (int count : stripCounts)
+			out.writeInt(count);
+
+		float[] vertices = interleave(ga, format, vertexCount);
+		out.writeInt(vertices.length);
+		for (float v : vertices)
+			out.writeFloat(v);
+	} // end of writeGeometry()
+
+	private float[] interleave(GeometryArray ga, int format, int vertexCount)
+	/*
+	 * the geometry's vertices as interleaved floats, in Java3D's order:
+	 * colour, normal, coordinates
+	 */
+	{
+		int colorLen = 0;
+		if ((format & GeometryArray.COLOR_4) == GeometryArray.COLOR_4)
+			colorLen = 4;
+		else if ((format & GeometryArray.COLOR_3) != 0)
+			colorLen = 3;
+		int normalLen = ((format & GeometryArray.NORMALS) != 0) ? 3 : 0;
+		int stride = colorLen + normalLen + 3;
+
+		if ((ga.getVertexFormat() & GeometryArray.BY_REFERENCE) != 0) {
+			// already interleaved (checked in canCache())
+			float[] vertices = new float[vertexCount * stride];
+			System.arraycopy(ga.getInterleavedVertices(), 0, vertices, 0,
+					vertices.length);
+			return vertices;
+		}
+
+		float[] colors = new float[vertexCount * colorLen];
+		float[] normals = new float[vertexCount * normalLen];
+		float[] coords = new float[vertexCount * 3];
+		if (colorLen > 0)
+			ga.getColors(0, colors);
+		if (normalLen > 0)
+			ga.getNormals(0, normals);
+		ga.getCoordinates(0, coords);
+
+		float[] vertices = new float[vertexCount * stride];
+		int vi = 0;
+		for (int i = 0; i < vertexCount; i++) {
+			for (int j = 0; j < colorLen; j++)
+				vertices[vi++] = colors[i * colorLen + j];
+			for (int j = 0; j < normalLen; j++)
+				vertices[vi++] = normals[i * normalLen + j];
+			for (int j = 0; j < 3; j++)
+				vertices[vi++] = coords[i * 3 + j];
+		}
+		return vertices;
+	} // end of interleave()
+
+} // end of GeometryCache class
@@ -0,0 +1,92 @@
+// JmfCamera.java
+
+/* Captures frames from one JMF camera into a TripleBuffer of rasters,
+ so the capture thread never blocks while the frames are being used,
+ and the user of the frames always gets the newest complete one.
+
+ The camera is chosen by its index in JMF's list of capture devices,
+ so several cameras can be used at once (see MultiNyAR). A Runnable
+ can be told about each new frame (see setOnFrame()), e.g. to wake up
+ a CameraPipeline.
+
+ Each frame is copied once, from JMF's buffer into a CaptureRaster,
+ whose pixels are used by both the detector and the Background.
+ */
+
+import javax.media.Buffer;
+import javax.media.format.VideoFormat;
+
+import jp.nyatla.nyartoolkit.NyARException;
+import jp.nyatla.nyartoolkit.core.param.NyARParam;
+import jp.nyatla.nyartoolkit.core.types.NyARIntSize;
+import jp.nyatla.nyartoolkit.jmf.utils.JmfCaptureDevice;
+import jp.nyatla.nyartoolkit.jmf.utils.JmfCaptureDeviceList;
+import jp.nyatla.nyartoolkit.jmf.utils.JmfCaptureListener;
+
+public class JmfCamera implements JmfCaptureListener {
+	private static final float CAPTURE_FPS = 15.0f;
+
+	private int deviceIdx;
+	private JmfCaptureDevice captureDev; // captures the camera image
+	private TripleBuffer<CaptureRaster> frames; // the camera images
+
+	private Runnable onFrame = null; // told about each new frame
+	private FrameMetrics metrics = null; // for timing the frame copies
+
+	public JmfCamera(NyARParam params, int deviceIdx) throws NyARException {
+		this.deviceIdx = deviceIdx;
+		NyARIntSize screenSize = params.getScreenSize();
+
+		JmfCaptureDeviceList devlist = new JmfCaptureDeviceList(); // get
+																	// devices
+		if (deviceIdx >= devlist.getCount())
+			throw new NyARException("No camera " + deviceIdx + " (found "
+					+ devlist.getCount() + ")");
+		captureDev = devlist.getDevice(deviceIdx);
+		captureDev.setCaptureFormat(screenSize.w, screenSize.h, CAPTURE_FPS);
+		captureDev.setOnCapture(this);
+
+		// create rasters
+		VideoFormat format = captureDev.getCaptureFormat();
+		frames = new TripleBuffer<CaptureRaster>(new CaptureRaster(screenSize,
+				format), new CaptureRaster(screenSize, format),
+				new CaptureRaster(screenSize, format));
+	} // end of JmfCamera()
+
+	public void setOnFrame(Runnable r) {
+		onFrame = r;
+	}
+
+	public void setMetrics(FrameMetrics m) {
+		metrics = m;
+	}
+
+	public void start() throws NyARException {
+		captureDev.start();
+	}
+
+	public void onUpdateBuffer(Buffer buf)
+	// triggered by JmfCaptureListener event
+	{
+		try {
+			long t0 = System.nanoTime();
+			frames.getBack().setBuffer(buf); // copy into the free raster
+			if (metrics != null)
+				metrics.addTime(FrameMetrics.CAPTURE, t0);
+			frames.publish(); // and make it the newest frame
+			if (onFrame != null)
+				onFrame.run();
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+	} // end of onUpdateBuffer()
+
+	public TripleBuffer<CaptureRaster> getFrames() {
+		return frames;
+	}
+
+	public int getDeviceIndex() {
+		return deviceIdx;
+	}
+
+} // end of JmfCamera class
@@ -0,0 +1,95 @@
+// KalmanPoseFilter.java
+
+/* A constant-velocity Kalman filter for a marker's pose.
+
+ The pose is treated as 7 values (the position's x, y, z, and the
+ rotation quaternion's x, y, z, w), each filtered independently with a
+ state of (value, velocity). The velocity lets the filter predict where
+ a moving marker will be, so it lags less than a plain average for the
+ same amount of smoothing. The quaternion is normalized after each
+ update.
+
+ The process noise (the random acceleration allowed) and the
+ measurement noise are set separately for the position and the
+ rotation.
+ */
+
+import javax.vecmath.Quat4d;
+import javax.vecmath.Vector3d;
+
+public class KalmanPoseFilter extends RigidPoseFilter {
+	private static final int NUM_VALS = 7;
+	private static final int NUM_POS_VALS = 3; // the rest are rotation
+
+	// variances (per second for the process noise)
+	private static final double POS_PROCESS_NOISE = 0.002;
+	private static final double POS_MEASURE_NOISE = 1e-5;
+	private static final double ROT_PROCESS_NOISE = 0.05;
+	private static final double ROT_MEASURE_NOISE = 5e-5;
+	private static final double START_VEL_VAR = 1.0;
+
+	// the state of each value, and its covariance matrix
+	private double[] vals = new double[NUM_VALS];
+	private double[] vels = new double[NUM_VALS];
+	private double[] p00 = new double[NUM_VALS];
+	private double[] p01 = new double[NUM_VALS];
+	private double[] p11 = new double[NUM_VALS];
+
+	private double[] measured = new double[NUM_VALS];
+
+	protected void start() {
+		storeVals(pos, rot, vals);
+		for (int i = 0; i < NUM_VALS; i++) {
+			vels[i] = 0;
+			p00[i] = (i < NUM_POS_VALS) ? POS_MEASURE_NOISE : ROT_MEASURE_NOISE;
+			p01[i] = 0;
+			p11[i] = START_VEL_VAR;
+		}
+	} // end of start()
+
+	protected void update(Vector3d p, Quat4d q, double dt) {
+		storeVals(p, q, measured);
+		for (int i = 0; i < NUM_VALS; i++) {
+			double processNoise, measureNoise;
+			if (i < NUM_POS_VALS) {
+				processNoise = POS_PROCESS_NOISE;
+				measureNoise = POS_MEASURE_NOISE;
+			} else {
+				processNoise = ROT_PROCESS_NOISE;
+				measureNoise = ROT_MEASURE_NOISE;
+			}
+
+			// predict, assuming a random acceleration
+			vals[i] += vels[i] * dt;
+			p00[i] += dt * (2 * p01[i] + dt * p11[i]) + processNoise * dt
+					* dt * dt / 3;
+			p01[i] += dt * p11[i] + processNoise * dt * dt / 2;
+			p11[i] += processNoise * dt;
+
+			// correct with the measurement
+			double s = p00[i] + measureNoise;
+			double k0 = p00[i] / s;
+			double k1 = p01[i] / s;
+			double err = measured[i] - vals[i];
+			vals[i] += k0 * err;
+			vels[i] += k1 * err;
+			p11[i] -= k1 * p01[i];
+			p01[i] -= k0 * p01[i];
+			p00[i] -= k0 * p00[i];
+		}
+
+		pos.set(vals[0], vals[1], vals[2]);
+		rot.set(vals[3], vals[4], vals[5], vals[6]);
+	} // end of update()
+
+	private void storeVals(Vector3d p, Quat4d q, double[] vs) {
+		vs[0] = p.x;
+		vs[1] = p.y;
+		vs[2] = p.z;
+		vs[3] = q.x;
+		vs[4] = q.y;
+		vs[5] = q.z;
+		vs[6] = q.w;
+	} // end of storeVals()
+
+} // end of KalmanPoseFilter class
@@ -0,0 +1,102 @@
+// LatencyHistogram.java
+
+/* A fixed-size histogram of non-negative long values (usually times in
+ nanosecs), cheap enough to record on every frame.
+
+ Values are counted in log-linear buckets: 0 to 15 each have their own
+ bucket, and every power of two above that is split into 8 buckets,
+ so a value is reported to within 1/8 (12.5%) of itself, and all longs
+ fit in 488 buckets. Recording is a few shifts and an atomic increment,
+ with no allocation, so it can be called from several threads at once
+ (e.g. the PoseSolver's). Percentiles are calculated from the counts
+ when they are read (e.g. by FrameMetrics over JMX); reads made while
+ values are being recorded may be off by those values.
+ */
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+public class LatencyHistogram {
+	private static final int SUB_BITS = 3; // 8 buckets per power of two
+	private static final int SUB_COUNT = 1 << SUB_BITS;
+	private static final int LINEAR_MAX = 2 * SUB_COUNT; // values with their
+															// own bucket
+	private static final int NUM_BUCKETS = LINEAR_MAX + (63 - SUB_BITS - 1)
+			* SUB_COUNT;
+
+	private AtomicLongArray counts = new AtomicLongArray(NUM_BUCKETS);
+	private AtomicLong numValues = new AtomicLong();
+	private AtomicLong total = new AtomicLong();
+	private AtomicLong max = new AtomicLong();
+
+	public void record(long value)
+	// count value (negative values count as 0)
+	{
+		if (value < 0)
+			value = 0;
+		counts.incrementAndGet(bucketIndex(value));
+		numValues.incrementAndGet();
+		total.addAndGet(value);
+		long oldMax;
+		while (value > (oldMax = max.get()))
+			if (max.compareAndSet(oldMax, value))
+				break;
+	} // end of record()
+
+	private static int bucketIndex(long value) {
+		if (value < LINEAR_MAX)
+			return (int) value;
+		int topBit = 63 - Long.numberOfLeadingZeros(value);
+		int sub = (int) (value >>> (topBit - SUB_BITS)) & (SUB_COUNT - 1);
+		return LINEAR_MAX + (topBit - SUB_BITS - 1) * SUB_COUNT + sub;
+	} // end of bucketIndex()
+
+	private static long bucketMiddle(int idx)
+	// a value half way through bucket idx
+	{
+		if (idx < LINEAR_MAX)
+			return idx;
+		int topBit = (idx - LINEAR_MAX) / SUB_COUNT + SUB_BITS + 1;
+		int sub = (idx - LINEAR_MAX) % SUB_COUNT;
+		long width = 1L << (topBit - SUB_BITS);
+		return ((SUB_COUNT + sub) * width) + width / 2;
+	} // end of bucketMiddle()
+
+	public long getPercentile(double pc)
+	// the value that pc percent of the values are at or below (0 if none)
+	{
+		long n = numValues.get();
+		if (n == 0)
+			return 0;
+		long rank = Math.max(1, (long) Math.ceil(pc / 100.0 * n));
+		long seen = 0;
+		for (int i = 0; i < NUM_BUCKETS; i++) {
+			seen += counts.get(i);
+			if (seen >= rank)
+				return Math.min(bucketMiddle(i), max.get());
+		}
+		return max.get(); // counts changed while reading
+	} // end of getPercentile()
+
+	public long getCount() {
+		return numValues.get();
+	}
+
+	public double getMean() {
+		long n = numValues.get();
+		return (n == 0) ? 0 : (double) total.get() / n;
+	}
+
+	public long getMax() {
+		return max.get();
+	}
+
+	public void reset() {
+		for (int i = 0; i < NUM_BUCKETS; i++)
+			counts.set(i, 0);
+		numValues.set(0);
+		total.set(0);
+		max.set(0);
+	} // end of reset()
+
+} // end of LatencyHistogram class
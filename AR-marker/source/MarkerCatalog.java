@@ -0,0 +1,131 @@
+// MarkerCatalog.java
+
+/* Reads the list of markers, and the models they show, from a catalog
+ file (Data/markers.txt), so markers can be added without changing
+ the code.
+
+ Each line of the file has the format:
+   <pattern fnm> <model fnm> <scale> [coords]
+ where the pattern file is in Data/ (or in the PatternBundle), the
+ model file is in models/, and "coords" means that the model has a
+ coords file (see PropManager). Blank lines, and lines starting with
+ '#', are skipped.
+
+ A pattern fnm of the form "id:<n>" is the NyARToolkit ID marker whose
+ ID is n (see MarkerModel); it has no pattern file.
+ */
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.StringTokenizer;
+
+public class MarkerCatalog {
+	private ArrayList<Entry> entries = new ArrayList<Entry>();
+
+	public MarkerCatalog(String fnm) {
+		try {
+			BufferedReader br = new BufferedReader(new FileReader(fnm));
+			String line;
+			int lineNo = 0;
+			while ((line = br.readLine()) != null) {
+				lineNo++;
+				line = line.trim();
+				if ((line.length() == 0) || line.startsWith("#"))
+					continue;
+				Entry entry = parseEntry(line);
+				if (entry == null)
+					System.out.println(fnm + " (line " + lineNo
+							+ "): did not recognise line: " + line);
+				else
+					entries.add(entry);
+			}
+			br.close();
+			System.out.println("Read " + entries.size()
+					+ " markers from catalog: " + fnm);
+		} catch (IOException e) {
+			System.out.println("Error reading marker catalog: " + fnm);
+			System.exit(1);
+		}
+	} // end of MarkerCatalog()
+
+	private Entry parseEntry(String line)
+	// <pattern fnm> <model fnm> <scale> [coords]; null if badly formed
+	{
+		StringTokenizer tokens = new StringTokenizer(line);
+		int numTokens = tokens.countTokens();
+		if ((numTokens != 3) && (numTokens != 4))
+			return null;
+
+		String markerFnm = tokens.nextToken();
+		String modelFnm = tokens.nextToken();
+		if (modelFnm.lastIndexOf('.') == -1)
+			return null; // MarkerModel needs the extension
+		double scale;
+		try {
+			scale = Double.parseDouble(tokens.nextToken());
+		} catch (NumberFormatException e) {
+			return null;
+		}
+		boolean hasCoords = false;
+		if (numTokens == 4) {
+			if (!tokens.nextToken().equals("coords"))
+				return null;
+			hasCoords = true;
+		}
+		return new Entry(markerFnm, modelFnm, scale, hasCoords);
+	} // end of parseEntry()
+
+	public ArrayList<Entry> getEntries() {
+		return entries;
+	}
+
+	public ArrayList<String> getMarkerFnms() {
+		ArrayList<String> fnms = new ArrayList<String>();
+		for (Entry entry : entries)
+			if (MarkerModel.parseId(entry.getMarkerFnm()) < 0) // not ID markers
+				fnms.add(entry.getMarkerFnm());
+		return fnms;
+	} // end of getMarkerFnms()
+
+	public int size() {
+		return entries.size();
+	}
+
+	// ------------------------------------------------------------
+
+	public static class Entry
+	// a marker, and the model it shows
+	{
+		private String markerFnm, modelFnm;
+		private double scale;
+		private boolean hasCoords;
+
+		public Entry(String markerFnm, String modelFnm, double scale,
+				boolean hasCoords) {
+			this.markerFnm = markerFnm;
+			this.modelFnm = modelFnm;
+			this.scale = scale;
+			this.hasCoords = hasCoords;
+		}
+
+		public String getMarkerFnm() {
+			return markerFnm;
+		}
+
+		public String getModelFnm() {
+			return modelFnm;
+		}
+
+		public double getScale() {
+			return scale;
+		}
+
+		public boolean hasCoords() {
+			return hasCoords;
+		}
+
+	} // end of Entry class
+
+} // end of MarkerCatalog class
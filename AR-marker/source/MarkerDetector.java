@@ -0,0 +1,545 @@
+// MarkerDetector.java
+
+/* A multiple marker detector, based on NyARToolkit's NyARDetectMarker.
+
+ It works in the same way: the raster is thresholded, squares are
+ found in the binary image, and the pattern inside each square is
+ compared against all the registered NyARCodes to find the best match.
+ Unlike NyARDetectMarker, the detected squares are available to the
+ caller, and a transformation matrix can be calculated with a
+ caller-supplied INyARTransMat. This allows poses to be solved on
+ several threads at once (see PoseSolver), since an INyARTransMat
+ keeps its working data inside itself and so can't be shared.
+
+ With a PatternIndex (see setPatternIndex()), each square's pattern is
+ only fully matched against the index's short list of likely codes.
+
+ detectMarkerLite() can also be limited to a list of regions of the
+ raster (see MarkerTracker). Only those regions are thresholded; the
+ rest of the binary raster is kept white, and the squares are only
+ looked for in the rows spanned by the regions.
+
+ For large frames, the squares can be looked for on a reduced level of
+ an image pyramid (see the constructor's scale): the raster is thresholded
+ into a binary raster scale times smaller in each direction (see
+ RegionThreshold.reduce()), so labelling and contour following cost
+ about the same as for a small frame. Each square's vertices are
+ scaled back up to the full raster, its pattern is picked from the
+ full raster, and its sides are fitted to the full raster's edges by a
+ CornerRefiner, so the pose is as accurate as a full-resolution search.
+ If a side can't be refined, the sides are fitted to the scaled-up
+ contour instead. The camera parameters stay at the full resolution.
+ Only the 24- and 32-bit raster types can be reduced (see
+ RegionThreshold); the full raster is searched for the others.
+
+ Markers can also be NyARToolkit ID markers (see setIdMarker()), whose
+ ID is decoded from the square by NyIdMarkerPickup and looked up in a
+ hash map, so their cost doesn't grow with the number of markers. Each
+ square is tried as an ID marker first, if there are any, and then
+ matched against the codes, so both kinds can be found in a frame.
+ The codes array passed to the constructor has a null for each ID
+ marker; a square's reported index (getARCodeIndex()) is always an
+ index into that array.
+ */
+
+import java.util.HashMap;
+
+import jp.nyatla.nyartoolkit.NyARException;
+import jp.nyatla.nyartoolkit.core.NyARCode;
+import jp.nyatla.nyartoolkit.core.match.NyARMatchPattDeviationColorData;
+import jp.nyatla.nyartoolkit.core.match.NyARMatchPattResult;
+import jp.nyatla.nyartoolkit.core.match.NyARMatchPatt_Color_WITHOUT_PCA;
+import jp.nyatla.nyartoolkit.core.param.NyARParam;
+import jp.nyatla.nyartoolkit.core.pickup.INyARColorPatt;
+import jp.nyatla.nyartoolkit.core.pickup.NyARColorPatt_Perspective_O2;
+import jp.nyatla.nyartoolkit.core.raster.NyARBinRaster;
+import jp.nyatla.nyartoolkit.core.raster.rgb.INyARRgbRaster;
+import jp.nyatla.nyartoolkit.core.rasterfilter.rgb2bin.NyARRasterFilter_ARToolkitThreshold;
+import jp.nyatla.nyartoolkit.core.squaredetect.Coord2Linear;
+import jp.nyatla.nyartoolkit.core.squaredetect.INyARSquareContourDetector;
+import jp.nyatla.nyartoolkit.core.squaredetect.NyARSquare;
+import jp.nyatla.nyartoolkit.core.transmat.INyARTransMat;
+import jp.nyatla.nyartoolkit.core.transmat.NyARTransMat;
+import jp.nyatla.nyartoolkit.core.transmat.NyARTransMatResult;
+import jp.nyatla.nyartoolkit.core.types.NyARIntPoint2d;
+import jp.nyatla.nyartoolkit.core.types.NyARIntSize;
+import jp.nyatla.nyartoolkit.core.types.NyARLinear;
+import jp.nyatla.nyartoolkit.nyidmarker.NyIdMarkerParam;
+import jp.nyatla.nyartoolkit.nyidmarker.NyIdMarkerPattern;
+import jp.nyatla.nyartoolkit.nyidmarker.NyIdMarkerPickup;
+import jp.nyatla.nyartoolkit.nyidmarker.data.NyIdMarkerDataEncoder_RawBit;
+import jp.nyatla.nyartoolkit.nyidmarker.data.NyIdMarkerData_RawBit;
+
+public class MarkerDetector implements
+		INyARSquareContourDetector.DetectMarkerCallback {
+	private static final int MAX_SQUARES = 300; // most squares per frame
+	private static final double ID_CONFIDENCE = 1.0;
+	// for an ID marker, since its ID is decoded exactly
+
+	private NyARParam params;
+	private NyARIntSize scrSize;
+	private double[] markerWidths;
+	private boolean isContinue = false;
+
+	// detection stages
+	private NyARRasterFilter_ARToolkitThreshold toBinFilter;
+	// for the raster types RegionThreshold can't handle
+	private NyARBinRaster binRaster;
+	private RegionSquareDetector squareDetect;
+	private boolean canUseRegions; // can the raster type be thresholded by
+									// RegionThreshold?
+	private INyARTransMat transMat;
+
+	// the pyramid level searched for squares (1 means the full raster)
+	private int scale = 1;
+	private CornerRefiner cornerRefiner = null;
+	private NyARLinear[] sideLines = NyARLinear.createArray(4);
+	private int[] scaledXs, scaledYs;
+	// a contour scaled up to the full raster
+
+	// pattern matching of each square
+	private INyARColorPatt colorPatt;
+	private NyARMatchPattDeviationColorData deviationData;
+	private NyARCode[] codes; // the non-null codes
+	private int[] codeMarkers; // the marker index of each of codes
+	private NyARMatchPatt_Color_WITHOUT_PCA[] matchPatts; // one per code
+	private NyARMatchPattResult matchResult = new NyARMatchPattResult();
+	private Coord2Linear coordLine;
+	private NyARIntPoint2d[] vertex = NyARIntPoint2d.createArray(4);
+	private PatternIndex patternIndex = null; // null means match every code
+
+	// decoding ID markers
+	private HashMap<Long, Integer> idMarkers = new HashMap<Long, Integer>();
+	// ID to marker index
+	private NyIdMarkerPickup idPickup = new NyIdMarkerPickup();
+	private NyIdMarkerPattern idPattern = new NyIdMarkerPattern();
+	private NyIdMarkerParam idParam = new NyIdMarkerParam();
+	private NyIdMarkerDataEncoder_RawBit idEncoder = new NyIdMarkerDataEncoder_RawBit();
+	private NyIdMarkerData_RawBit idData = new NyIdMarkerData_RawBit();
+
+	// the best match found by findBestCode()
+	private int bestCodeIdx, bestDirection;
+	private double bestConfidence;
+
+	// results of the last detectMarkerLite() call
+	private INyARRgbRaster raster;
+	private NyARSquare[] squares;
+	private int[] codeIdxs;
+	private double[] confidences;
+	private int numSquares = 0;
+
+	// the regions thresholded by the last detectMarkerLite(), or 0 regions
+	// if the whole raster was
+	private int[] lastRegions = new int[0];
+	private int numLastRegions = 0;
+	private boolean wasWholeRaster = true;
+	private int[] levelRegions = new int[0]; // see toLevel()
+
+	public MarkerDetector(NyARParam params, NyARCode[] codes,
+			double[] markerWidths, int numCodes, int rasterType)
+			throws NyARException {
+		this(params, codes, markerWidths, numCodes, rasterType, 1);
+	}
+
+	public MarkerDetector(NyARParam params, NyARCode[] codes,
+			double[] markerWidths, int numCodes, int rasterType, int scale)
+			throws NyARException
+	/*
+	 * look for squares in a level of the raster scale times smaller in each
+	 * direction (1 means the full raster)
+	 */
+	{
+		this.params = params;
+		this.markerWidths = markerWidths;
+		scrSize = params.getScreenSize();
+
+		// the codes (not the ID markers' nulls), and the markers they're for
+		int numNonNull = 0;
+		for (int i = 0; i < numCodes; i++)
+			if (codes[i] != null)
+				numNonNull++;
+		this.codes = new NyARCode[numNonNull];
+		codeMarkers = new int[numNonNull];
+		matchPatts = new NyARMatchPatt_Color_WITHOUT_PCA[numNonNull];
+		int cw = 16; // as in MarkerModel, if there are no codes
+		int ch = 16;
+		int j = 0;
+		for (int i = 0; i < numCodes; i++) {
+			if (codes[i] == null)
+				continue;
+			if (j == 0) {
+				cw = codes[i].getWidth();
+				ch = codes[i].getHeight();
+			} else if ((codes[i].getWidth() != cw)
+					|| (codes[i].getHeight() != ch))
+				throw new NyARException(); // all codes must be the same size
+			this.codes[j] = codes[i];
+			codeMarkers[j] = i;
+			matchPatts[j] = new NyARMatchPatt_Color_WITHOUT_PCA(codes[i]);
+			j++;
+		}
+		colorPatt = new NyARColorPatt_Perspective_O2(cw, ch, 4, 25);
+		deviationData = new NyARMatchPattDeviationColorData(cw, ch);
+		coordLine = new Coord2Linear(scrSize, params.getDistortionFactor());
+
+		toBinFilter = new NyARRasterFilter_ARToolkitThreshold(100, rasterType);
+		canUseRegions = RegionThreshold.isSupported(rasterType);
+		if (canUseRegions && (scale > 1)) {
+			this.scale = scale;
+			cornerRefiner = new CornerRefiner(params, scale);
+		}
+		NyARIntSize levelSize = new NyARIntSize(scrSize.w / this.scale,
+				scrSize.h / this.scale);
+		binRaster = new NyARBinRaster(levelSize.w, levelSize.h);
+		squareDetect = new RegionSquareDetector(levelSize);
+		if (this.scale > 1) {
+			int maxCoords = (levelSize.w + levelSize.h) * 2;
+			scaledXs = new int[maxCoords];
+			scaledYs = new int[maxCoords];
+		}
+		transMat = createTransMat();
+
+		squares = new NyARSquare[MAX_SQUARES];
+		for (int i = 0; i < MAX_SQUARES; i++)
+			squares[i] = new NyARSquare();
+		codeIdxs = new int[MAX_SQUARES];
+		confidences = new double[MAX_SQUARES];
+	} // end of MarkerDetector()
+
+	public INyARTransMat createTransMat() throws NyARException
+	// a new transformation matrix calculator for this camera
+	{
+		return new NyARTransMat(params);
+	}
+
+	public void setContinueMode(boolean isContinue)
+	// use transMatContinue() (true) or transMat() (false)
+	{
+		this.isContinue = isContinue;
+	}
+
+	public void setIdMarker(int mkIdx, long id)
+	// marker mkIdx (whose code is null) is the ID marker with this id
+	{
+		idMarkers.put(id, mkIdx);
+	}
+
+	public NyARCode[] getCodes()
+	// the non-null codes, in order, for building a PatternIndex
+	{
+		return codes;
+	}
+
+	public void setPatternIndex(PatternIndex index)
+	/*
+	 * use index (built from getCodes()) to choose which codes are matched
+	 * against each square
+	 */
+	{
+		patternIndex = index;
+	}
+
+	public PatternIndex getPatternIndex() {
+		return patternIndex;
+	}
+
+	public int getPyramidScale()
+	// the reduction of the level searched for squares (1 means none)
+	{
+		return scale;
+	}
+
+	public int detectMarkerLite(INyARRgbRaster raster, int threshold)
+			throws NyARException
+	// find the squares in raster, returning how many were found
+	{
+		if (!scrSize.isEqualSize(raster.getSize()))
+			throw new NyARException();
+
+		if (scale > 1)
+			RegionThreshold.reduce(raster, binRaster, threshold, scale, 0, 0,
+					binRaster.getWidth(), binRaster.getHeight());
+		else if (RegionThreshold.isVectorized(raster.getBufferReader()
+				.getBufferType())) // faster than NyARToolkit's filter
+			RegionThreshold.threshold(raster, binRaster, threshold, 0, 0,
+					binRaster.getWidth(), binRaster.getHeight());
+		else {
+			toBinFilter.setThreshold(threshold);
+			toBinFilter.doFilter(raster, binRaster);
+		}
+		wasWholeRaster = true;
+
+		this.raster = raster;
+		numSquares = 0;
+		squareDetect.detectMarkerCB(binRaster, this); // calls onSquareDetect()
+		return numSquares;
+	} // end of detectMarkerLite()
+
+	public boolean canUseRegions()
+	// can detectMarkerLite() be limited to regions for this raster type?
+	{
+		return canUseRegions;
+	}
+
+	public int detectMarkerLite(INyARRgbRaster raster, int threshold,
+			int[] regions, int numRegions) throws NyARException
+	/*
+	 * find the squares inside the regions of raster, returning how many were
+	 * found; regions holds numRegions (left, top, right, bottom) rectangles,
+	 * which must lie inside the raster
+	 */
+	{
+		if (!canUseRegions)
+			return detectMarkerLite(raster, threshold);
+		if (!scrSize.isEqualSize(raster.getSize()))
+			throw new NyARException();
+		if (scale > 1)
+			regions = toLevel(regions, numRegions);
+
+		// make everything outside the new regions white
+		if (wasWholeRaster)
+			RegionThreshold.clear(binRaster, 0, 0, binRaster.getWidth(),
+					binRaster.getHeight());
+		else {
+			for (int i = 0; i < numLastRegions * 4; i += 4)
+				RegionThreshold.clear(binRaster, lastRegions[i],
+						lastRegions[i + 1], lastRegions[i + 2],
+						lastRegions[i + 3]);
+		}
+
+		int top = binRaster.getHeight();
+		int bottom = 0;
+		for (int i = 0; i < numRegions * 4; i += 4) {
+			if (scale == 1)
+				RegionThreshold.threshold(raster, binRaster, threshold,
+						regions[i], regions[i + 1], regions[i + 2],
+						regions[i + 3]);
+			else
+				RegionThreshold.reduce(raster, binRaster, threshold, scale,
+						regions[i], regions[i + 1], regions[i + 2],
+						regions[i + 3]);
+			top = Math.min(top, regions[i + 1]);
+			bottom = Math.max(bottom, regions[i + 3]);
+		}
+		rememberRegions(regions, numRegions);
+
+		this.raster = raster;
+		numSquares = 0;
+		if (top < bottom) {
+			// start on a white row; see RegionSquareDetector.detectMarkerCB()
+			top = (top < 2) ? 0 : top - 1;
+			squareDetect.detectMarkerCB(binRaster, top, bottom, this);
+		}
+		return numSquares;
+	} // end of detectMarkerLite()
+
+	private int[] toLevel(int[] regions, int numRegions)
+	/*
+	 * the regions in the pyramid level's coordinates, each grown to whole
+	 * level pixels
+	 */
+	{
+		if (levelRegions.length < numRegions * 4)
+			levelRegions = new int[numRegions * 4];
+		int width = binRaster.getWidth();
+		int height = binRaster.getHeight();
+		for (int i = 0; i < numRegions * 4; i += 4) {
+			levelRegions[i] = regions[i] / scale;
+			levelRegions[i + 1] = regions[i + 1] / scale;
+			levelRegions[i + 2] = Math.min(width, (regions[i + 2] + scale - 1)
+					/ scale);
+			levelRegions[i + 3] = Math.min(height, (regions[i + 3] + scale - 1)
+					/ scale);
+		}
+		return levelRegions;
+	} // end of toLevel()
+
+	private void rememberRegions(int[] regions, int numRegions)
+	// so they can be cleared by the next detectMarkerLite()
+	{
+		if (lastRegions.length < numRegions * 4)
+			lastRegions = new int[numRegions * 4];
+		System.arraycopy(regions, 0, lastRegions, 0, numRegions * 4);
+		numLastRegions = numRegions;
+		wasWholeRaster = false;
+	} // end of rememberRegions()
+
+	public void onSquareDetect(INyARSquareContourDetector sender,
+			int[] coordX, int[] coordY, int coordNum, int[] vertexIdxs)
+			throws NyARException
+	/*
+	 * called for each square found in the binary image; decode it as an ID
+	 * marker or match its pattern against the codes, and store the best
+	 * match and the square's vertices, rotated to match its direction
+	 */
+	{
+		if (numSquares == MAX_SQUARES)
+			return;
+
+		if (scale > 1) { // scale the contour up to the full raster
+			for (int i = 0; i < coordNum; i++) {
+				scaledXs[i] = coordX[i] * scale + scale / 2; // block centre
+				scaledYs[i] = coordY[i] * scale + scale / 2;
+			}
+			coordX = scaledXs;
+			coordY = scaledYs;
+		}
+		for (int i = 0; i < 4; i++) {
+			vertex[i].x = coordX[vertexIdxs[i]];
+			vertex[i].y = coordY[vertexIdxs[i]];
+		}
+		if (!findIdMarker() && !findBestCode())
+			return;
+		int direction = bestDirection;
+
+		// fit the sides to the full raster, or else to the contour
+		if ((cornerRefiner == null)
+				|| !cornerRefiner.refine(raster, vertex, sideLines)) {
+			for (int i = 0; i < 4; i++)
+				coordLine.coord2Line(vertexIdxs[i], vertexIdxs[(i + 1) % 4],
+						coordX, coordY, coordNum, sideLines[i]);
+		}
+
+		// store the square, taking account of the direction
+		NyARSquare sq = squares[numSquares];
+		for (int i = 0; i < 4; i++) {
+			int idx = (i + 4 - direction) % 4;
+			sq.imvertex[i].x = vertex[idx].x;
+			sq.imvertex[i].y = vertex[idx].y;
+			sq.line[i].copyFrom(sideLines[idx]);
+		}
+		for (int i = 0; i < 4; i++) {
+			if (!NyARLinear.crossPos(sq.line[i], sq.line[(i + 3) % 4],
+					sq.sqvertex[i]))
+				return; // lines don't cross, so not a usable square
+		}
+		codeIdxs[numSquares] = bestCodeIdx;
+		confidences[numSquares] = bestConfidence;
+		numSquares++;
+	} // end of onSquareDetect()
+
+	private boolean findIdMarker() throws NyARException
+	/*
+	 * decode the square at vertex as an ID marker, and if it's one of the
+	 * ID markers, make it the best match
+	 */
+	{
+		if (idMarkers.isEmpty())
+			return false;
+		if (!idPickup.pickFromRaster(raster, vertex, idPattern, idParam))
+			return false; // not an ID marker
+		if (!idEncoder.encode(idPattern, idData))
+			return false;
+		Integer mkIdx = idMarkers.get(toId(idData));
+		if (mkIdx == null)
+			return false;
+		bestCodeIdx = mkIdx;
+		bestDirection = idParam.direction;
+		bestConfidence = ID_CONFIDENCE;
+		return true;
+	} // end of findIdMarker()
+
+	public static long toId(NyIdMarkerData_RawBit data)
+	/*
+	 * the ID held in data's packets, most significant first (-1 if it's too
+	 * long for a long)
+	 */
+	{
+		if (data.length > 8)
+			return -1;
+		long id = 0;
+		for (int i = 0; i < data.length; i++)
+			id = (id << 8) | (data.packet[i] & 0xff);
+		return id;
+	} // end of toId()
+
+	private boolean findBestCode() throws NyARException
+	/*
+	 * match the pattern of the square at vertex against the codes, making
+	 * the best one (as a marker index) the best match
+	 */
+	{
+		if (matchPatts.length == 0)
+			return false;
+		if (!colorPatt.pickFromRaster(raster, vertex))
+			return false;
+		deviationData.setRaster(colorPatt);
+
+		// find the code that matches best
+		if (patternIndex == null)
+			findBestCode(null, matchPatts.length);
+		else {
+			int[] shortList = patternIndex.getShortList();
+			findBestCode(shortList, patternIndex.lookup(deviationData));
+			if (patternIndex.shouldVerify()) { // check against a full match
+				int codeIdx = bestCodeIdx;
+				int direction = bestDirection;
+				double confidence = bestConfidence;
+				findBestCode(null, matchPatts.length);
+				patternIndex.addVerification(confidence >= bestConfidence);
+				bestCodeIdx = codeIdx; // keep the short list's answer
+				bestDirection = direction;
+				bestConfidence = confidence;
+			}
+		}
+		if (bestCodeIdx == -1)
+			return false;
+		bestCodeIdx = codeMarkers[bestCodeIdx];
+		return true;
+	} // end of findBestCode()
+
+	private void findBestCode(int[] codes, int numCodes)
+			throws NyARException
+	/*
+	 * match the current pattern against the first numCodes codes listed in
+	 * codes (or against codes 0 to numCodes-1 if codes is null)
+	 */
+	{
+		bestCodeIdx = -1;
+		bestDirection = 0;
+		bestConfidence = 0;
+		for (int i = 0; i < numCodes; i++) {
+			int codeIdx = (codes == null) ? i : codes[i];
+			matchPatts[codeIdx].evaluate(deviationData, matchResult);
+			if ((bestCodeIdx != -1) && (bestConfidence > matchResult.confidence))
+				continue;
+			bestCodeIdx = codeIdx;
+			bestDirection = matchResult.direction;
+			bestConfidence = matchResult.confidence;
+		}
+	} // end of findBestCode()
+
+	public void getTransmationMatrix(int idx, NyARTransMatResult result)
+			throws NyARException
+	// calculate the transformation matrix for the idx'th detected square
+	{
+		getTransmationMatrix(idx, transMat, result);
+	}
+
+	public void getTransmationMatrix(int idx, INyARTransMat tm,
+			NyARTransMatResult result) throws NyARException
+	/*
+	 * calculate the transformation matrix for the idx'th detected square
+	 * using tm, which must not be in use by any other thread
+	 */
+	{
+		if (isContinue)
+			tm.transMatContinue(squares[idx], markerWidths[codeIdxs[idx]],
+					result);
+		else
+			tm.transMat(squares[idx], markerWidths[codeIdxs[idx]], result);
+	} // end of getTransmationMatrix()
+
+	public double getConfidence(int idx) {
+		return confidences[idx];
+	}
+
+	public int getARCodeIndex(int idx) {
+		return codeIdxs[idx];
+	}
+
+	public NyARSquare getSquare(int idx) {
+		return squares[idx];
+	}
+
+} // end of MarkerDetector class
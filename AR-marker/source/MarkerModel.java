@@ -6,9 +6,29 @@
 
  The model is loaded using the PropManager class, which is described in Chapter 16
  of "Killer Game Programming in Java" (http://fivedots.coe.psu.ac.th/~ad/jg/ch9/)
+
+ The marker's pattern is taken from a PatternSet if one is supplied
+ and holds it (so the code is shared with the other markers, e.g. on
+ other cameras, using the pattern), otherwise it is parsed from its
+ text file in Data/. A marker named "id:<n>" is instead the NyARToolkit
+ ID marker whose ID is n, and has no pattern (see MarkerDetector).
+
+ The model is shared with any other markers showing the same model
+ file, through a ModelRegistry.
+
+ The model can be loaded later, by calling loadModel() (on any
+ thread); until then a small placeholder cube is shown on the marker.
+ The loaded model only replaces the placeholder once setLive() has
+ been called, since the scene graph can't safely be changed by two
+ threads before it is live. unloadModel() puts the placeholder back
+ and releases the model (see ModelManager).
+
+ The model's poses are smoothed by a PoseFilter, chosen by the
+ "pose.filter" system property (e.g. -Dpose.filter=oneeuro), or by
+ setPoseFilter().
  */
 
-import javax.media.j3d.BoundingBox;
+import javax.media.j3d.BranchGroup;
 import javax.media.j3d.Switch;
 import javax.media.j3d.Transform3D;
 import javax.media.j3d.TransformGroup;
@@ -20,21 +40,41 @@ import jp.nyatla.nyartoolkit.NyARException;
 import jp.nyatla.nyartoolkit.core.NyARCode;
 import jp.nyatla.nyartoolkit.core.transmat.NyARTransMatResult;
 
+import com.sun.j3d.utils.geometry.ColorCube;
+
 public class MarkerModel {
 	private final String MARKER_DIR = "Data/";
+	public final static String ID_PREFIX = "id:"; // starts ID marker names
+	private static ModelRegistry modelRegistry = new ModelRegistry();
+	// the models, shared by all the markers that show them
+	private final static String DEFAULT_FILTER = "oneeuro";
+
 	private final double MARKER_SIZE = 0.095; // 95 cm width and height in Java
 												// 3D world units
 
 	private String markerName, modelName;
+	private String modelFnm; // for loading the model later
+	private double scale;
+	private boolean hasCoords;
+	private BranchGroup modelBG = null; // the loaded model
+	private ModelRegistry.SharedModel sharedModel = null; // what it links to
+	private boolean canAttach; // can modelBG be put in the switch now?
+	private boolean isLoading = false; // is loadModel() running?
 	private NyARCode markerInfo = null; // NYArToolkit marker details
+	private long markerId; // ID marker's ID, or -1 if it's a pattern
 
 	private TransformGroup moveTg; // for moving the marker model
 
 	private Switch visSwitch; // for changing the model's visibility
 	private boolean isVisible;
 
-	private SmoothMatrix sMat; // for smoothing the transforms applied to the
-								// model
+	private PoseFilter poseFilter; // for smoothing the transforms applied to
+									// the model
+
+	// for predicting poses when detection is skipped (see DetectionScheduler)
+	private PoseExtrapolator extrapolator = new PoseExtrapolator();
+	private Matrix4d predictedMat = new Matrix4d();
+	private boolean isExtrapolated = false;
 
 	// details about a model's position and orientation (in degrees)
 	private Point3d posInfo = null;
@@ -45,20 +85,38 @@ public class MarkerModel {
 
 	public MarkerModel(String markerFnm, String modelFnm, double scale,
 			boolean hasCoords) {
+		this(markerFnm, null, modelFnm, scale, hasCoords);
+	}
+
+	public MarkerModel(String markerFnm, PatternSet patterns,
+			String modelFnm, double scale, boolean hasCoords) {
+		this(markerFnm, patterns, modelFnm, scale, hasCoords, false);
+	}
+
+	public MarkerModel(String markerFnm, PatternSet patterns,
+			String modelFnm, double scale, boolean hasCoords, boolean loadLater)
+	// if loadLater is true, show a placeholder until loadModel() is called
+	{
 		markerName = markerFnm;
 		modelName = modelFnm.substring(0, modelFnm.lastIndexOf('.')); // remove
 																		// filename
 																		// extension
+		this.modelFnm = modelFnm;
+		this.scale = scale;
+		this.hasCoords = hasCoords;
 
-		// build a branch for the model: TG --> Switch --> TG --> model
-
-		// load the model, with scale and coords info
-		TransformGroup modelTG = loadModel(modelFnm, scale, hasCoords);
+		// build a branch for the model: TG --> Switch --> BG --> TG --> model
 
 		// create switch for model visibility
 		visSwitch = new Switch();
 		visSwitch.setCapability(Switch.ALLOW_SWITCH_WRITE);
-		visSwitch.addChild(modelTG);
+		visSwitch.setCapability(Switch.ALLOW_CHILDREN_READ); // for loadModel()
+		visSwitch.setCapability(Switch.ALLOW_CHILDREN_WRITE);
+		canAttach = !loadLater;
+		if (loadLater)
+			visSwitch.addChild(makePlaceholder());
+		else
+			loadModel(); // load the model, with scale and coords info
 		visSwitch.setWhichChild(Switch.CHILD_NONE); // make invisible
 		isVisible = false;
 
@@ -69,66 +127,192 @@ public class MarkerModel {
 																	// change
 		moveTg.addChild(visSwitch);
 
-		// load marker info
+		// load marker info, unless it's an ID marker
+		markerId = parseId(markerName);
+		if (markerId < 0)
+			loadMarkerInfo(patterns);
+
+		poseFilter = createPoseFilter(System.getProperty("pose.filter",
+				DEFAULT_FILTER));
+	} // end of MarkerModel()
+
+	private void loadMarkerInfo(PatternSet patterns) {
 		try {
-			markerInfo = new NyARCode(16, 16); // default integer width, height
-			markerInfo.loadARPattFromFile(MARKER_DIR + markerName); // load
-																	// marker
-																	// image
+			if ((patterns != null) && patterns.hasPattern(markerName))
+				markerInfo = patterns.getCode(markerName); // already loaded
+			else {
+				markerInfo = new NyARCode(16, 16); // default integer width, height
+				markerInfo.loadARPattFromFile(MARKER_DIR + markerName); // load
+																		// marker
+																		// image
+			}
 		} catch (NyARException e) {
 			System.out.println(e);
 			markerInfo = null;
 		}
+	} // end of loadMarkerInfo()
 
-		sMat = new SmoothMatrix();
-	} // end of MarkerModel()
+	public static long parseId(String markerName)
+	// the ID in an "id:<n>" marker name, or -1 if it isn't one
+	{
+		if (!markerName.startsWith(ID_PREFIX))
+			return -1;
+		try {
+			long id = Long.parseLong(markerName.substring(ID_PREFIX.length()));
+			if (id >= 0)
+				return id;
+		} catch (NumberFormatException e) {
+		}
+		System.out.println("Bad ID marker name: " + markerName);
+		return -1;
+	} // end of parseId()
 
-	private TransformGroup loadModel(String modelFnm, double scale,
-			boolean hasCoords)
-	// load the model, rotating and scaling it
+	public static PoseFilter createPoseFilter(String name)
+	// make the named pose filter (see PoseFilter for the names)
 	{
-		PropManager propMan = new PropManager(modelFnm, hasCoords);
+		if (name.equals("none"))
+			return new SmoothMatrix(1); // an average of one pose
+		else if (name.equals("average"))
+			return new SmoothMatrix();
+		else if (name.equals("slerp"))
+			return new SlerpPoseFilter();
+		else if (name.equals("oneeuro"))
+			return new OneEuroPoseFilter();
+		else if (name.equals("kalman"))
+			return new KalmanPoseFilter();
+
+		System.out.println("Unknown pose filter \"" + name + "\"; using "
+				+ DEFAULT_FILTER);
+		return createPoseFilter(DEFAULT_FILTER);
+	} // end of createPoseFilter()
+
+	public void setPoseFilter(String name) {
+		poseFilter = createPoseFilter(name);
+	}
+
+	private BranchGroup makePlaceholder()
+	// a small cube to show on the marker until the model is loaded
+	{
+		BranchGroup placeholderBG = new BranchGroup();
+		placeholderBG.setCapability(BranchGroup.ALLOW_DETACH);
+		placeholderBG.addChild(new ColorCube(scale / 4));
+		return placeholderBG;
+	} // end of makePlaceholder()
+
+	public void loadModel()
+	/*
+	 * load the model, and put it in the switch if that's allowed yet (see
+	 * setLive()); can be called from any thread, and returns at once if
+	 * another thread is already loading it
+	 */
+	{
+		synchronized (visSwitch) {
+			if ((modelBG != null) || isLoading)
+				return; // already loaded, or being loaded by another thread
+			isLoading = true;
+		}
+		ModelRegistry.SharedModel model = null;
+		boolean isLoaded = false;
+		try {
+			model = modelRegistry.acquire(modelFnm, hasCoords);
+			BranchGroup bg = new BranchGroup();
+			bg.setCapability(BranchGroup.ALLOW_DETACH); // for unloadModel()
+			bg.addChild(makeModelTG(model, scale));
+			bg.compile();
+			synchronized (visSwitch) {
+				modelBG = bg;
+				sharedModel = model;
+				if (canAttach)
+					attachModel();
+			}
+			isLoaded = true;
+		} finally {
+			synchronized (visSwitch) {
+				isLoading = false;
+			}
+			if (!isLoaded && (model != null))
+				modelRegistry.release(model); // don't leak its reference
+		}
+	} // end of loadModel()
+
+	public void unloadModel()
+	/*
+	 * put the placeholder back in place of the model, and release the model so
+	 * its memory can be reclaimed if no other marker uses it; the marker's
+	 * code is kept, so the model can be loaded again when the marker is next
+	 * seen
+	 */
+	{
+		ModelRegistry.SharedModel oldModel;
+		synchronized (visSwitch) {
+			if ((modelBG == null) || !canAttach)
+				return;
+			visSwitch.setChild(makePlaceholder(), 0);
+			modelBG = null;
+			oldModel = sharedModel;
+			sharedModel = null;
+		}
+		modelRegistry.release(oldModel);
+	} // end of unloadModel()
+
+	public void setLive()
+	/*
+	 * called once the scene graph holding the model is live, so a model loaded
+	 * on another thread can replace the placeholder
+	 */
+	{
+		synchronized (visSwitch) {
+			canAttach = true;
+			if (modelBG != null)
+				attachModel();
+		}
+	} // end of setLive()
+
+	private void attachModel()
+	// put the loaded model in the switch, replacing the placeholder
+	{
+		if (visSwitch.numChildren() == 0)
+			visSwitch.addChild(modelBG);
+		else if (visSwitch.getChild(0) != modelBG)
+			visSwitch.setChild(modelBG, 0);
+	} // end of attachModel()
+
+	public static ModelRegistry getModelRegistry() {
+		return modelRegistry;
+	}
+
+	public String getModelFnm() {
+		return modelFnm;
+	}
 
-		// get the TG for the prop (model)
-		TransformGroup propTG = propMan.getTG();
+	public boolean isModelLoaded() {
+		synchronized (visSwitch) {
+			return canAttach && (modelBG != null);
+		}
+	}
 
+	private TransformGroup makeModelTG(ModelRegistry.SharedModel model,
+			double scale)
+	// rotate and scale this marker's link to the model
+	{
 		// rotate and scale the prop
 		Transform3D modelT3d = new Transform3D();
 		modelT3d.rotX(Math.PI / 2.0);
 		// the prop lies flat on the marker; rotate forwards 90 degrees so it is
 		// standing
-		Vector3d scaleVec = calcScaleFactor(propTG, scale); // scale the prop
+		// scale the prop
+		Vector3d scaleVec = calcScaleFactor(model.getMaxDimension(), scale);
 		modelT3d.setScale(scaleVec);
 
 		TransformGroup modelTG = new TransformGroup(modelT3d);
-		modelTG.addChild(propTG);
+		modelTG.addChild(model.makeLink());
 
 		return modelTG;
-	} // end of loadModel()
+	} // end of makeModelTG()
 
-	private Vector3d calcScaleFactor(TransformGroup modelTG, double scale)
-	// Scale the prop based on its original bounding box size
+	private Vector3d calcScaleFactor(double max, double scale)
+	// Scale the prop based on its largest original X, Y, or Z dimension
 	{
-		BoundingBox boundbox = new BoundingBox(modelTG.getBounds());
-		System.out.println(boundbox);
-
-		// obtain the upper and lower coordinates of the box
-		Point3d lower = new Point3d();
-		boundbox.getLower(lower);
-		Point3d upper = new Point3d();
-		boundbox.getUpper(upper);
-
-		// store the largest X, Y, or Z dimension and calculate a scale factor
-		double max = 0.0;
-		if (Math.abs(upper.x - lower.x) > max)
-			max = Math.abs(upper.x - lower.x);
-
-		if (Math.abs(upper.y - lower.y) > max)
-			max = Math.abs(upper.y - lower.y);
-
-		if (Math.abs(upper.z - lower.z) > max)
-			max = Math.abs(upper.z - lower.z);
-
 		double scaleFactor = scale / max;
 		System.out.printf("max dimension: %.3f;  scale factor: %.3f\n", max,
 				scaleFactor);
@@ -148,6 +332,22 @@ public class MarkerModel {
 		return markerInfo;
 	}
 
+	public boolean isIdMarker() {
+		return (markerId >= 0);
+	}
+
+	public long getMarkerId()
+	// the ID marker's ID, or -1 if the marker is a pattern
+	{
+		return markerId;
+	}
+
+	public boolean isUsable()
+	// has the marker's pattern loaded, or is it an ID marker?
+	{
+		return (markerInfo != null) || isIdMarker();
+	}
+
 	public double getMarkerWidth() { // System.out.println("Width: " +
 										// markerInfo.getWidth());
 		return MARKER_SIZE; // markerInfo.getWidth() not valid since requires
@@ -160,27 +360,98 @@ public class MarkerModel {
 
 	public void moveModel(NyARTransMatResult transMat)
 	// detected marker so update model's moveTG
+	{
+		applyPose(smoothPose(transMat));
+	} // end of moveModel()
+
+	public Matrix4d smoothPose(NyARTransMatResult transMat)
+	/*
+	 * add the marker's latest transform to the pose filter and return the
+	 * smoothed result; the scene graph isn't touched, so this can be called
+	 * from a PoseSolver thread
+	 */
+	{
+		poseFilter.add(transMat, System.nanoTime() / 1e9);
+		return poseFilter.get();
+	} // end of smoothPose()
+
+	public void applyPose(Matrix4d mat)
+	// move the model to the smoothed pose, mat, calculated by smoothPose()
 	{
 		visSwitch.setWhichChild(Switch.CHILD_ALL); // make visible
 		isVisible = true;
 
-		sMat.add(transMat);
+		if (mat == null) // nothing stored yet
+			return;
+		if (setPose(mat)) {
+			extrapolator.add(mat, System.nanoTime() / 1e9);
+			isExtrapolated = false;
+		}
+	} // end of applyPose()
+
+	public void extrapolatePose(double time)
+	/*
+	 * move a visible model to where its recent motion predicts it will be at
+	 * time (in secs, from System.nanoTime()); used when detection is skipped
+	 */
+	{
+		if (isVisible && extrapolator.predict(time, predictedMat)) {
+			setPose(predictedMat);
+			isExtrapolated = true;
+		}
+	} // end of extrapolatePose()
+
+	public boolean isExtrapolated()
+	// is the model at an extrapolated pose rather than a detected one?
+	{
+		return isExtrapolated;
+	}
 
-		Matrix4d mat = sMat.get();
+	public void extrapolationError(Matrix4d mat, double time, double[] errs)
+	/*
+	 * store the distance and angle (in radians) between the detected pose
+	 * mat and the pose extrapolated for time in errs[0] and errs[1]
+	 */
+	{
+		if (!extrapolator.predict(time, predictedMat)) {
+			errs[0] = errs[1] = 0;
+			return;
+		}
+		errs[0] = Math.sqrt(sq(mat.m03 - predictedMat.m03)
+				+ sq(mat.m13 - predictedMat.m13) + sq(mat.m23 - predictedMat.m23));
+
+		// cos of the angle between the rotations, from the trace of
+		// predicted^T * mat
+		double trace = 0;
+		for (int i = 0; i < 3; i++)
+			for (int j = 0; j < 3; j++)
+				trace += predictedMat.getElement(j, i) * mat.getElement(j, i);
+		double c = (trace - 1) / 2;
+		errs[1] = Math.acos(Math.max(-1, Math.min(1, c)));
+	} // end of extrapolationError()
+
+	private double sq(double d) {
+		return d * d;
+	}
+
+	private boolean setPose(Matrix4d mat)
+	// move the model to mat, returning false if mat isn't usable
+	{
 		Transform3D t3d = new Transform3D(mat);
 
 		int flags = t3d.getType();
-		if ((flags & Transform3D.AFFINE) == 0)
+		if ((flags & Transform3D.AFFINE) == 0) {
 			System.out.println("Ignoring non-affine transformation");
-		else {
-			if (moveTg != null)
-				moveTg.setTransform(t3d);
-
-			// System.out.println("transformation matrix: " + mat);
-			calcPosition(mat);
-			calcEulerRots(mat);
+			return false;
 		}
-	} // end of moveModel()
+		if (moveTg != null)
+			moveTg.setTransform(t3d);
+
+		// System.out.println("transformation matrix: " + mat);
+		calcPosition(mat);
+		calcEulerRots(mat);
+		return true;
+	} // end of setPose()
 
 	private void calcPosition(Matrix4d mat)
 	// extract the (x,y,z) position vals stored in the matrix
@@ -276,6 +547,7 @@ public class MarkerModel {
 	public void hideModel() {
 		visSwitch.setWhichChild(Switch.CHILD_NONE); // make model invisible
 		isVisible = false;
+		extrapolator.reset(); // its old motion is no guide when next found
 	}
 
 	public boolean isVisible() {
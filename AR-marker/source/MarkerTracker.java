@@ -0,0 +1,156 @@
+// MarkerTracker.java
+
+/* Decides which parts of each frame DetectMarkers should search.
+
+ After each frame, the screen-space box around every marker found is
+ grown by a margin, made up of a fraction of the box's size plus the
+ distance its centre moved since the last frame. The next frame is
+ then only searched inside those regions (see
+ MarkerDetector.detectMarkerLite()), which is much cheaper than
+ searching the whole frame when the markers are small.
+
+ The whole frame is still searched:
+   - every fullScanInterval frames, so new markers are found,
+   - when no markers were found in the last frame,
+   - when a marker found in the last frame is missing from its region
+     (DetectMarkers then searches the same frame again, in full).
+ */
+
+import jp.nyatla.nyartoolkit.core.squaredetect.NyARSquare;
+import jp.nyatla.nyartoolkit.core.types.NyARDoublePoint2d;
+
+public class MarkerTracker {
+	private static final double MARGIN_FRACTION = 0.25; // of the box's size
+	private static final int MIN_MARGIN = 8; // pixels
+
+	private int width, height; // of the frames
+	private int fullScanInterval;
+	private int numFramesSinceFull = 0;
+
+	// the regions to search next, as (left, top, right, bottom) in pixels
+	private int[] regions;
+	private int numRegions = 0;
+
+	// each marker's centre in the last frame, if it was found
+	private boolean[] isTracked;
+	private double[] lastXs, lastYs;
+
+	private boolean wasRegionScan = false;
+
+	private long numFullScans = 0;
+	private long numRegionScans = 0;
+	private long numRescans = 0;
+
+	public MarkerTracker(int width, int height, int numMarkers,
+			int fullScanInterval) {
+		this.width = width;
+		this.height = height;
+		this.fullScanInterval = fullScanInterval;
+		regions = new int[numMarkers * 4];
+		isTracked = new boolean[numMarkers];
+		lastXs = new double[numMarkers];
+		lastYs = new double[numMarkers];
+	} // end of MarkerTracker()
+
+	public boolean useRegions()
+	// should the next frame be searched inside the regions only?
+	{
+		return (numRegions > 0) && (numFramesSinceFull < fullScanInterval);
+	}
+
+	public int[] getRegions() {
+		return regions;
+	}
+
+	public int getNumRegions() {
+		return numRegions;
+	}
+
+	public void scanned(boolean isRegionScan)
+	// record the kind of search just made
+	{
+		if (isRegionScan) {
+			numRegionScans++;
+			numFramesSinceFull++;
+		} else {
+			if (wasRegionScan)
+				numRescans++; // the same frame's regions were searched first
+			numFullScans++;
+			numFramesSinceFull = 0;
+		}
+		wasRegionScan = isRegionScan;
+	} // end of scanned()
+
+	public boolean wasRegionScan() {
+		return wasRegionScan;
+	}
+
+	public boolean hasLostMarker(double[] confidences, double minConf)
+	// is a marker found in the last frame missing from this one?
+	{
+		for (int mkIdx = 0; mkIdx < isTracked.length; mkIdx++)
+			if (isTracked[mkIdx] && (confidences[mkIdx] < minConf))
+				return true;
+		return false;
+	} // end of hasLostMarker()
+
+	public void update(MarkerDetector detector, int[] bestDetectedIdxs,
+			double[] confidences, double minConf)
+	// make the regions for the next frame from the markers found in this one
+	{
+		wasRegionScan = false;
+		numRegions = 0;
+		for (int mkIdx = 0; mkIdx < isTracked.length; mkIdx++) {
+			if ((bestDetectedIdxs[mkIdx] == -1)
+					|| (confidences[mkIdx] < minConf)) {
+				isTracked[mkIdx] = false;
+				continue;
+			}
+			NyARSquare sq = detector.getSquare(bestDetectedIdxs[mkIdx]);
+			double left = Double.MAX_VALUE, right = -Double.MAX_VALUE;
+			double top = Double.MAX_VALUE, bottom = -Double.MAX_VALUE;
+			for (int v = 0; v < 4; v++) {
+				NyARDoublePoint2d p = sq.sqvertex[v];
+				left = Math.min(left, p.x);
+				right = Math.max(right, p.x);
+				top = Math.min(top, p.y);
+				bottom = Math.max(bottom, p.y);
+			}
+			double x = (left + right) / 2;
+			double y = (top + bottom) / 2;
+
+			double xMargin = MIN_MARGIN + MARGIN_FRACTION * (right - left);
+			double yMargin = MIN_MARGIN + MARGIN_FRACTION * (bottom - top);
+			if (isTracked[mkIdx]) { // allow for the same movement again
+				xMargin += Math.abs(x - lastXs[mkIdx]);
+				yMargin += Math.abs(y - lastYs[mkIdx]);
+			}
+			isTracked[mkIdx] = true;
+			lastXs[mkIdx] = x;
+			lastYs[mkIdx] = y;
+
+			int i = numRegions * 4;
+			regions[i] = Math.max(0, (int) (left - xMargin));
+			regions[i + 1] = Math.max(0, (int) (top - yMargin));
+			regions[i + 2] = Math.min(width, (int) Math.ceil(right + xMargin));
+			regions[i + 3] = Math.min(height, (int) Math.ceil(bottom + yMargin));
+			if ((regions[i] < regions[i + 2]) && (regions[i + 1] < regions[i + 3]))
+				numRegions++;
+		}
+	} // end of update()
+
+	public long getNumFullScans() {
+		return numFullScans;
+	}
+
+	public long getNumRegionScans() {
+		return numRegionScans;
+	}
+
+	public long getNumRescans()
+	// full searches made because a marker went missing from its region
+	{
+		return numRescans;
+	}
+
+} // end of MarkerTracker class
@@ -0,0 +1,123 @@
+// ModelManager.java
+
+/* Loads the markers' models only when they are needed, and unloads
+ the ones that haven't been needed for a while.
+
+ DetectMarkers calls markerFound() for every marker found in a frame.
+ The first time a marker is found, its model is loaded on a background
+ thread (the marker shows its placeholder meanwhile, see MarkerModel).
+
+ The markers with loaded models are kept in least-recently-found
+ order. Once a second or so, if the models' geometry (as estimated by
+ the ModelRegistry) is over the memory budget, the models of the
+ markers that haven't been found for at least the eviction age are
+ unloaded, oldest first, until it is back under the budget. A marker's
+ NyARCode stays registered with the detector, so finding it again
+ brings its model back.
+
+ The budget and age default to the "models.budget" (in MB) and
+ "models.evictAfter" (in secs) system properties.
+ */
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+public class ModelManager {
+	private static final double DEFAULT_BUDGET = 64; // MB
+	private static final double DEFAULT_EVICT_AGE = 30; // secs
+	private static final double CHECK_PERIOD = 1.0; // secs between evictions
+
+	private long budget; // bytes
+	private double evictAge; // secs
+
+	// the markers with loaded (or loading) models, and when each was last
+	// found (in secs), least recently found first
+	private LinkedHashMap<MarkerModel, Double> lastFound = new LinkedHashMap<MarkerModel, Double>(
+			16, 0.75f, true);
+
+	private ExecutorService loaderThread; // loads the models
+	private double lastCheck = 0;
+
+	private long numLoads = 0;
+	private long numEvictions = 0;
+
+	public ModelManager() {
+		this((long) (Double.parseDouble(System.getProperty("models.budget", ""
+				+ DEFAULT_BUDGET)) * 1024 * 1024), Double.parseDouble(System
+				.getProperty("models.evictAfter", "" + DEFAULT_EVICT_AGE)));
+	}
+
+	public ModelManager(long budget, double evictAge) {
+		this.budget = budget;
+		this.evictAge = evictAge;
+		loaderThread = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "ModelManager");
+				t.setDaemon(true); // don't stop the JVM from exiting
+				return t;
+			}
+		});
+	} // end of ModelManager()
+
+	public void markerFound(final MarkerModel mm, double time)
+	// the marker was found at time (in secs); load its model if necessary
+	{
+		if ((lastFound.put(mm, time) != null) || mm.isModelLoaded())
+			return; // its model is loaded or loading
+		numLoads++;
+		loaderThread.execute(new Runnable() {
+			public void run() {
+				long t0 = System.nanoTime();
+				mm.loadModel();
+				System.out.printf("Loaded %s in %.0f ms\n", mm.getModelFnm(),
+						(System.nanoTime() - t0) / 1e6);
+			}
+		});
+	} // end of markerFound()
+
+	public void update(double time)
+	/*
+	 * unload the models of markers not found recently, if the models are over
+	 * budget; called after every frame, but only checks every CHECK_PERIOD
+	 */
+	{
+		if (time - lastCheck < CHECK_PERIOD)
+			return;
+		lastCheck = time;
+
+		ModelRegistry registry = MarkerModel.getModelRegistry();
+		Iterator<Map.Entry<MarkerModel, Double>> it = lastFound.entrySet()
+				.iterator();
+		while (it.hasNext() && (registry.getTotalBytes() > budget)) {
+			Map.Entry<MarkerModel, Double> entry = it.next();
+			if (time - entry.getValue() < evictAge)
+				break; // the rest were found more recently
+			MarkerModel mm = entry.getKey();
+			if (!mm.isModelLoaded())
+				continue; // still loading
+			mm.unloadModel();
+			System.out.println("Unloaded " + mm.getModelFnm());
+			it.remove();
+			numEvictions++;
+		}
+	} // end of update()
+
+	public int getNumLoaded()
+	// markers with loaded (or loading) models
+	{
+		return lastFound.size();
+	}
+
+	public long getNumLoads() {
+		return numLoads;
+	}
+
+	public long getNumEvictions() {
+		return numEvictions;
+	}
+
+} // end of ModelManager class
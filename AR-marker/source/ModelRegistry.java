@@ -0,0 +1,217 @@
+// ModelRegistry.java
+
+/* Loads each model file once, however many markers show it.
+
+ The model (loaded by a PropManager) is put in a Java3D SharedGroup,
+ and each marker using it gets its own Link to the group, so the
+ geometry is only held once; each marker still has its own transform
+ and scale above its Link (see MarkerModel.makeModelTG()).
+
+ A model is identified by its filename and whether its coords file is
+ used. If several threads ask for the same model at once (as at
+ startup, see StartupLoader), it is loaded by the first, and the
+ others wait for it.
+
+ Each user of a model acquire()s it, and release()s it when it no
+ longer shows it; a model with no users is dropped from the registry,
+ so its memory can be reclaimed (see ModelManager). The size of each
+ model's geometry is estimated, so the registry's total can be kept
+ under a budget.
+ */
+
+import java.util.Enumeration;
+import java.util.HashMap;
+
+import javax.media.j3d.BoundingBox;
+import javax.media.j3d.Geometry;
+import javax.media.j3d.GeometryArray;
+import javax.media.j3d.GeometryStripArray;
+import javax.media.j3d.Group;
+import javax.media.j3d.IndexedGeometryArray;
+import javax.media.j3d.Link;
+import javax.media.j3d.Node;
+import javax.media.j3d.Shape3D;
+import javax.media.j3d.SharedGroup;
+import javax.media.j3d.TransformGroup;
+import javax.vecmath.Point3d;
+
+public class ModelRegistry {
+	private HashMap<String, SharedModel> models = new HashMap<String, SharedModel>();
+	private long totalBytes = 0; // estimated size of the loaded models' geometry
+
+	public SharedModel acquire(String modelFnm, boolean hasCoords)
+	// get the shared model for a new user, loading it if necessary
+	{
+		String key = modelFnm + (hasCoords ? " (with coords)" : "");
+		SharedModel model;
+		synchronized (models) {
+			model = models.get(key);
+			if (model == null) {
+				model = new SharedModel(key, modelFnm, hasCoords);
+				models.put(key, model);
+			}
+			model.numUsers++; // so it can't be dropped while loading
+		}
+
+		if (model.load()) { // this thread loaded it
+			synchronized (models) {
+				totalBytes += model.numBytes;
+			}
+		}
+		return model;
+	} // end of acquire()
+
+	public void release(SharedModel model)
+	// a user no longer shows the model; drop the model if it was the last
+	{
+		synchronized (models) {
+			model.numUsers--;
+			if (model.numUsers == 0) {
+				models.remove(model.key);
+				totalBytes -= model.numBytes;
+			}
+		}
+	} // end of release()
+
+	public int getNumModels() {
+		synchronized (models) {
+			return models.size();
+		}
+	}
+
+	public long getTotalBytes()
+	// the estimated size of the geometry of the models in use
+	{
+		synchronized (models) {
+			return totalBytes;
+		}
+	}
+
+	// ------------------------------------------------------------
+
+	public static class SharedModel
+	// a loaded model, and the size used to scale it
+	{
+		private String key; // in the registry
+		private String modelFnm;
+		private boolean hasCoords;
+		private int numUsers = 0; // guarded by the registry's models map
+
+		private SharedGroup sharedGroup = null; // null until loaded
+		private double maxDimension; // largest X, Y, or Z size
+		private long numBytes = 0; // estimated size of its geometry
+
+		private SharedModel(String key, String modelFnm, boolean hasCoords) {
+			this.key = key;
+			this.modelFnm = modelFnm;
+			this.hasCoords = hasCoords;
+		} // end of SharedModel()
+
+		private synchronized boolean load()
+		/*
+		 * load the model, unless that's been done already (other threads wait
+		 * here until it is); return true if it was loaded by this call
+		 */
+		{
+			if (sharedGroup != null)
+				return false;
+			PropManager propMan = new PropManager(modelFnm, hasCoords);
+			TransformGroup propTG = propMan.getTG(); // the prop's TG
+			maxDimension = calcMaxDimension(propTG);
+			numBytes = calcBytes(propTG);
+
+			SharedGroup sg = new SharedGroup();
+			sg.addChild(propTG);
+			sg.compile();
+			sharedGroup = sg;
+			return true;
+		} // end of load()
+
+		private double calcMaxDimension(TransformGroup propTG)
+		// the largest X, Y, or Z dimension of the prop's bounding box
+		{
+			BoundingBox boundbox = new BoundingBox(propTG.getBounds());
+			System.out.println(boundbox);
+
+			// obtain the upper and lower coordinates of the box
+			Point3d lower = new Point3d();
+			boundbox.getLower(lower);
+			Point3d upper = new Point3d();
+			boundbox.getUpper(upper);
+
+			double max = 0.0;
+			if (Math.abs(upper.x - lower.x) > max)
+				max = Math.abs(upper.x - lower.x);
+
+			if (Math.abs(upper.y - lower.y) > max)
+				max = Math.abs(upper.y - lower.y);
+
+			if (Math.abs(upper.z - lower.z) > max)
+				max = Math.abs(upper.z - lower.z);
+
+			return max;
+		} // end of calcMaxDimension()
+
+		private long calcBytes(Node node)
+		// estimate the memory used by the geometry below node
+		{
+			long bytes = 0;
+			if (node instanceof Shape3D) {
+				Shape3D shape = (Shape3D) node;
+				for (int i = 0; i < shape.numGeometries(); i++)
+					bytes += calcBytes(shape.getGeometry(i));
+			} else if (node instanceof Group) {
+				Enumeration<?> children = ((Group) node).getAllChildren();
+				while (children.hasMoreElements())
+					bytes += calcBytes((Node) children.nextElement());
+			}
+			return bytes;
+		} // end of calcBytes()
+
+		private long calcBytes(Geometry geom)
+		// 4 bytes per float of vertex data, and per index and strip count
+		{
+			if (!(geom instanceof GeometryArray))
+				return 0;
+			GeometryArray ga = (GeometryArray) geom;
+			int format = ga.getVertexFormat();
+			int floatsPerVertex = 3; // coordinates
+			if ((format & GeometryArray.NORMALS) != 0)
+				floatsPerVertex += 3;
+			if ((format & GeometryArray.COLOR_4) == GeometryArray.COLOR_4)
+				floatsPerVertex += 4;
+			else if ((format & GeometryArray.COLOR_3) != 0)
+				floatsPerVertex += 3;
+			int texSets = ga.getTexCoordSetCount();
+			if ((format & GeometryArray.TEXTURE_COORDINATE_4) == GeometryArray.TEXTURE_COORDINATE_4)
+				floatsPerVertex += 4 * texSets;
+			else if ((format & GeometryArray.TEXTURE_COORDINATE_3) != 0)
+				floatsPerVertex += 3 * texSets;
+			else if ((format & GeometryArray.TEXTURE_COORDINATE_2) != 0)
+				floatsPerVertex += 2 * texSets;
+
+			long bytes = 4L * floatsPerVertex * ga.getVertexCount();
+			if (ga instanceof IndexedGeometryArray)
+				bytes += 4L * ((IndexedGeometryArray) ga).getIndexCount();
+			if (ga instanceof GeometryStripArray)
+				bytes += 4L * ((GeometryStripArray) ga).getNumStrips();
+			return bytes;
+		} // end of calcBytes()
+
+		public Link makeLink()
+		// a new node showing the model, for one user
+		{
+			return new Link(sharedGroup);
+		}
+
+		public double getMaxDimension() {
+			return maxDimension;
+		}
+
+		public long getNumBytes() {
+			return numBytes;
+		}
+
+	} // end of SharedModel class
+
+} // end of ModelRegistry class
@@ -12,6 +12,44 @@
  NCSA Portfolio is used to load the models. It is available at:
  http://fivedots.coe.psu.ac.th/~ad/jg/ch9/
 
+ The markers, and the models they show, are listed in the
+ Data/markers.txt catalog (see MarkerCatalog). The camera parameters
+ and marker patterns are loaded in parallel by a StartupLoader, and
+ each startup phase's time is logged. A model is only loaded when its
+ marker is first found, and is unloaded again if the marker isn't seen
+ for a while and the models are over their memory budget (see
+ ModelManager); a placeholder is shown on the marker meanwhile.
+
+ If the "pose.record" system property names a directory, the found
+ poses are recorded there (see PoseRecorder), e.g.
+ > run -Dpose.record=poses MultiNyAR
+
+ The "cameras" system property sets how many cameras are used (default
+ 1), e.g.
+ > run -Dcameras=2 MultiNyAR
+ Each camera is shown in its own canvas, with its own status area, and
+ has its own camera parameters (Data/camera_para<n>.dat for camera n,
+ if that exists, otherwise Data/camera_para.dat), detector and
+ markers. All the cameras share the marker patterns (a PatternSet)
+ and the models (MarkerModel's ModelRegistry). One camera is detected
+ by a NyARMarkersBehavior; with more, each camera is detected on its
+ own thread by a CameraPipeline. The cameras' scenes are in the same
+ universe, CAMERA_SPACING apart, so each view only sees its own.
+
+ The "camera.size" system property sets the capture size (default
+ 320x240), and the camera parameters are scaled to match, e.g.
+ > run -Dcamera.size=1280x720 MultiNyAR
+ Frames larger than DETECT_WIDTH pixels across are searched for
+ markers on a reduced level of an image pyramid, about DETECT_WIDTH
+ wide, and the markers found are refined at full size (see
+ MarkerDetector). The "pyramid.scale" property overrides the
+ reduction, e.g. -Dpyramid.scale=1 searches the full-size frames.
+
+ The "threshold" property sets the brightness at which the frames are
+ thresholded (default 100), or "auto" chooses it for each frame from
+ the frame's histogram (see AutoThreshold), e.g.
+ > run -Dthreshold=auto MultiNyAR
+
  --------------------
  Usage:
  > compile *.java
@@ -22,6 +60,11 @@ import java.awt.BorderLayout;
 import java.awt.Container;
 import java.awt.Dimension;
 import java.awt.GraphicsConfiguration;
+import java.awt.GridLayout;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
 
 import javax.media.j3d.AmbientLight;
 import javax.media.j3d.Background;
@@ -29,6 +72,7 @@ import javax.media.j3d.BoundingSphere;
 import javax.media.j3d.BranchGroup;
 import javax.media.j3d.Canvas3D;
 import javax.media.j3d.DirectionalLight;
+import javax.media.j3d.Group;
 import javax.media.j3d.Locale;
 import javax.media.j3d.PhysicalBody;
 import javax.media.j3d.PhysicalEnvironment;
@@ -57,51 +101,180 @@ public class MultiNyAR extends JFrame {
 
 	private final String PARAMS_FNM = "Data" + FILE_SEPARATOR
 			+ "camera_para.dat";
+	private final String BUNDLE_FNM = "Data" + FILE_SEPARATOR
+			+ "patterns.bin"; // compiled from the Data/patt.* files
+	private final String CATALOG_FNM = "Data" + FILE_SEPARATOR
+			+ "markers.txt";
 
 	private static final int PWIDTH = 320; // size of panel
 	private static final int PHEIGHT = 240;
 
+	private static final int DETECT_WIDTH = 320;
+	// widest frame searched for markers without a pyramid
+
+	private static final int DEFAULT_THRESHOLD = 100; // brightness
+
 	private static final double SHAPE_SIZE = 0.02;
 
 	private static final int BOUNDSIZE = 100; // larger than world
 
-	private J3dNyARParam cameraParams;
-	private JTextArea statusTA;
+	private static final double CAMERA_SPACING = 10 * BOUNDSIZE;
+	// distance between the cameras' scenes
+	private static final double DETECT_FPS = 30.0; // for CameraPipeline
+
+	private int numCameras;
+	private int captureWidth, captureHeight;
+	private int pyramidScale;
+	private int threshold; // or DetectMarkers.AUTO_THRESHOLD
+	private ArrayList<J3dNyARParam> cameraParams;
+	private ArrayList<StatusPublisher> statusPublishers; // update the status
+															// areas on the EDT
+
+	private StartupLoader loader; // loads the assets in parallel
+	// each camera's markers
+	private ArrayList<Future<ArrayList<MarkerModel>>> markerSets;
 
 	public MultiNyAR() {
 		super("Multiple markers NyARToolkit Example");
 
-		cameraParams = readCameraParams(PARAMS_FNM);
+		long startTime = System.nanoTime();
+		numCameras = Math.max(1, Integer.getInteger("cameras", 1));
+		readCaptureSize(System.getProperty("camera.size", PWIDTH + "x"
+				+ PHEIGHT));
+		pyramidScale = Math.max(1, Integer.getInteger("pyramid.scale",
+				captureWidth / DETECT_WIDTH));
+		String th = System.getProperty("threshold", "" + DEFAULT_THRESHOLD);
+		threshold = th.equals("auto") ? DetectMarkers.AUTO_THRESHOLD
+				: Integer.parseInt(th);
+		loader = new StartupLoader();
+		ArrayList<Future<J3dNyARParam>> paramsFutures = new ArrayList<Future<J3dNyARParam>>();
+		for (int i = 0; i < numCameras; i++) {
+			final String paramsFnm = getParamsFnm(i);
+			paramsFutures.add(loader.submit("camera " + i + " parameters",
+					new Callable<J3dNyARParam>() {
+						public J3dNyARParam call() {
+							return readCameraParams(paramsFnm);
+						}
+					}));
+		}
+		loadMarkers();
+
+		cameraParams = new ArrayList<J3dNyARParam>();
+		for (Future<J3dNyARParam> paramsFuture : paramsFutures)
+			cameraParams.add(StartupLoader.get(paramsFuture));
 
 		Container cp = getContentPane();
 
+		// create the status fields first, since DetectMarkers reports to them
+		JPanel statusPanel = new JPanel(new GridLayout(1, numCameras));
+		statusPublishers = new ArrayList<StatusPublisher>();
+		for (int i = 0; i < numCameras; i++) {
+			JTextArea statusTA = new JTextArea(7, 10); // updated by
+														// DetectMarkers object
+														// (see
+														// createSceneGraph())
+			statusTA.setEditable(false);
+			statusPublishers.add(new StatusPublisher(statusTA));
+			statusPanel.add(statusTA);
+		}
+
 		// create a JPanel in the center of JFrame
 		JPanel p = new JPanel();
-		p.setLayout(new BorderLayout());
-		p.setPreferredSize(new Dimension(PWIDTH, PHEIGHT));
+		p.setLayout(new GridLayout(1, numCameras));
+		p.setPreferredSize(new Dimension(PWIDTH * numCameras, PHEIGHT));
 		cp.add(p, BorderLayout.CENTER);
 
-		// put the 3D canvas inside the JPanel
-		p.add(createCanvas3D(), BorderLayout.CENTER);
+		// put the 3D canvases inside the JPanel
+		for (Canvas3D c3d : createCanvases())
+			p.add(c3d);
 
-		// add status field to bottom of JFrame
-		statusTA = new JTextArea(7, 10); // updated by DetectMarkers object (see
-											// createSceneGraph())
-		statusTA.setEditable(false);
-		cp.add(statusTA, BorderLayout.SOUTH);
+		// add status fields to bottom of JFrame
+		cp.add(statusPanel, BorderLayout.SOUTH);
 
 		// configure the JFrame
 		setDefaultCloseOperation(WindowConstants.EXIT_ON_CLOSE);
 		pack();
 		setVisible(true);
+		loader.logPhase("window", startTime);
+		loader.shutdown(); // once the markers are loaded
 	} // end of MultiNyAR()
 
+	private void loadMarkers()
+	/*
+	 * start loading the marker patterns, then each camera's markers from the
+	 * catalog; the markers' models are loaded when they are first found (see
+	 * ModelManager)
+	 */
+	{
+		long t0 = System.nanoTime();
+		final MarkerCatalog catalog = new MarkerCatalog(CATALOG_FNM);
+		loader.logPhase("marker catalog", t0);
+
+		// the marker patterns, loaded once for all the cameras, from a
+		// compiled bundle (or from their text files if that fails)
+		final Future<PatternSet> patternsFuture = loader.submit(
+				"marker patterns", new Callable<PatternSet>() {
+					public PatternSet call() {
+						return new PatternSet("Data", PatternBundle
+								.openOrCompile("Data", BUNDLE_FNM), catalog
+								.getMarkerFnms());
+					}
+				});
+
+		markerSets = new ArrayList<Future<ArrayList<MarkerModel>>>();
+		for (int i = 0; i < numCameras; i++)
+			markerSets.add(loader.submit("camera " + i + " markers",
+					new Callable<ArrayList<MarkerModel>>() {
+						public ArrayList<MarkerModel> call() {
+							PatternSet patterns = StartupLoader
+									.get(patternsFuture);
+							ArrayList<MarkerModel> mms = new ArrayList<MarkerModel>();
+							for (MarkerCatalog.Entry entry : catalog
+									.getEntries())
+								mms.add(new MarkerModel(entry.getMarkerFnm(),
+										patterns, entry.getModelFnm(), entry
+												.getScale(), entry.hasCoords(),
+										true));
+							return mms;
+						}
+					}));
+	} // end of loadMarkers()
+
+	private void readCaptureSize(String size)
+	// "<width>x<height>", or the panel size if it's badly formed
+	{
+		captureWidth = PWIDTH;
+		captureHeight = PHEIGHT;
+		String[] dims = size.split("x");
+		if (dims.length == 2) {
+			try {
+				captureWidth = Integer.parseInt(dims[0].trim());
+				captureHeight = Integer.parseInt(dims[1].trim());
+				return;
+			} catch (NumberFormatException e) {
+				captureWidth = PWIDTH;
+			}
+		}
+		System.out.println("Bad camera.size \"" + size + "\"; using "
+				+ PWIDTH + "x" + PHEIGHT);
+	} // end of readCaptureSize()
+
+	private String getParamsFnm(int cameraIdx)
+	// Data/camera_para<n>.dat for camera n, if it exists
+	{
+		String fnm = "Data" + FILE_SEPARATOR + "camera_para" + cameraIdx
+				+ ".dat";
+		if ((cameraIdx > 0) && new File(fnm).exists())
+			return fnm;
+		return PARAMS_FNM;
+	} // end of getParamsFnm()
+
 	private J3dNyARParam readCameraParams(String fnm) {
 		J3dNyARParam cameraParams = null;
 		try {
 			cameraParams = new J3dNyARParam();
 			cameraParams.loadARParamFromFile(fnm);
-			cameraParams.changeScreenSize(PWIDTH, PHEIGHT);
+			cameraParams.changeScreenSize(captureWidth, captureHeight);
 		} catch (NyARException e) {
 			System.out.println("Could not read camera parameters from " + fnm);
 			System.exit(1);
@@ -109,66 +282,127 @@ public class MultiNyAR extends JFrame {
 		return cameraParams;
 	} // end of readCameraParams()
 
-	private Canvas3D createCanvas3D()
+	private ArrayList<Canvas3D> createCanvases()
 	/*
-	 * Build a 3D canvas for a Universe which contains the 3D scene and view
-	 * univ --> locale --> scene BG | ---> view BG --> Canvas3D (set up using
-	 * camera cameraParams)
+	 * Build a 3D canvas for each camera in a Universe which contains the
+	 * cameras' 3D scenes and views univ --> locale --> scene BG | ---> view BG
+	 * --> Canvas3D (set up using the camera's cameraParams)
 	 */
 	{
 		Locale locale = new Locale(new VirtualUniverse());
-		locale.addBranchGraph(createSceneGraph()); // add the scene
 
 		// get the preferred graphics configuration for the default screen
 		GraphicsConfiguration config = SimpleUniverse
 				.getPreferredConfiguration();
 
-		Canvas3D c3d = new Canvas3D(config);
-		locale.addBranchGraph(createView(c3d)); // add view branch
+		ArrayList<CameraPipeline> pipelines = new ArrayList<CameraPipeline>();
+		ArrayList<Canvas3D> canvases = new ArrayList<Canvas3D>();
+		for (int i = 0; i < numCameras; i++) {
+			locale.addBranchGraph(createSceneGraph(i, pipelines)); // add the
+																	// scene
+			for (MarkerModel mm : StartupLoader.get(markerSets.get(i)))
+				mm.setLive(); // models can be attached now
+
+			Canvas3D c3d = new Canvas3D(config);
+			locale.addBranchGraph(createView(c3d, i)); // add view branch
+			canvases.add(c3d);
+		}
 
-		return c3d;
-	} // end of createCanvas3D()
+		for (CameraPipeline pipeline : pipelines)
+			pipeline.start(); // now the scenes are live
+		return canvases;
+	} // end of createCanvases()
 
-	private BranchGroup createSceneGraph()
+	private BranchGroup createSceneGraph(int cameraIdx,
+			ArrayList<CameraPipeline> pipelines)
 	/*
-	 * The scene graph: sceneBG ---> lights | ---> bg | -----> tg1 ---> model1
-	 * -----> tg2 ---> model2 | ---> behavior (controls the bg and the tg's of
-	 * the models)
+	 * The scene graph for a camera: sceneBG ---> cameraTG ---> lights | --->
+	 * bg | -----> tg1 ---> model1 -----> tg2 ---> model2 | ---> behavior
+	 * (controls the bg and the tg's of the models); with several cameras, a
+	 * CameraPipeline is added to pipelines instead of the behavior
 	 */
 	{
 		BranchGroup sceneBG = new BranchGroup();
-		lightScene(sceneBG); // add lights
+		TransformGroup cameraTG = new TransformGroup(getCameraOffset(cameraIdx));
+		sceneBG.addChild(cameraTG); // the camera's part of the universe
+		lightScene(cameraTG); // add lights
 
 		Background bg = makeBackground();
-		sceneBG.addChild(bg); // add background
-
-		DetectMarkers detectMarkers = new DetectMarkers(this);
-
-		// the "hiro" marker uses a robot model, scaled by 0.15 units, with no
-		// coords file
-		MarkerModel mm1 = new MarkerModel("patt.hiro", "robot.3ds", 0.15, false);
-		if (mm1.getMarkerInfo() != null) { // creation was successful
-			sceneBG.addChild(mm1.getMoveTg());
-			detectMarkers.addMarker(mm1);
+		cameraTG.addChild(bg); // add background
+
+		DetectMarkers detectMarkers = new DetectMarkers(statusPublishers
+				.get(cameraIdx));
+		detectMarkers.setModelManager(new ModelManager()); // lazy loading
+		detectMarkers.setPyramidScale(pyramidScale);
+		detectMarkers.setThreshold(threshold);
+
+		// add the markers (their models are loaded when they're found)
+		for (MarkerModel mm : StartupLoader.get(markerSets.get(cameraIdx))) {
+			if (mm.isUsable()) { // creation was successful
+				cameraTG.addChild(mm.getMoveTg());
+				detectMarkers.addMarker(mm);
+			}
 		}
 
-		// the "kanji" marker uses a cow model, scaled by 0.12 units, with
-		// coords file
-		MarkerModel mm2 = new MarkerModel("patt.kanji", "cow.obj", 0.12, true);
-		if (mm2.getMarkerInfo() != null) {
-			sceneBG.addChild(mm2.getMoveTg());
-			detectMarkers.addMarker(mm2);
+		// create a NyAR multiple marker behaviour, or a pipeline
+		long t0 = System.nanoTime();
+		J3dNyARParam params = cameraParams.get(cameraIdx);
+		if (numCameras == 1) {
+			sceneBG.addChild(new NyARMarkersBehavior(params, bg, detectMarkers));
+			detectMarkers.getMetrics().register(null); // so jconsole can
+														// show them
+		} else {
+			pipelines.add(createPipeline(cameraIdx, params, bg, detectMarkers));
+			detectMarkers.getMetrics().register("camera" + cameraIdx);
 		}
-
-		// create a NyAR multiple marker behaviour
-		sceneBG.addChild(new NyARMarkersBehavior(cameraParams, bg,
-				detectMarkers));
+		String recordDir = System.getProperty("pose.record");
+		if (recordDir != null) {
+			if (numCameras > 1)
+				recordDir += FILE_SEPARATOR + "camera" + cameraIdx;
+			new PoseRecorder(detectMarkers.getPoseEvents(), recordDir);
+		}
+		loader.logPhase("camera " + cameraIdx + " detector", t0);
 
 		sceneBG.compile(); // optimize the sceneBG graph
 		return sceneBG;
 	} // end of createSceneGraph()
 
-	private void lightScene(BranchGroup sceneBG)
+	private CameraPipeline createPipeline(int cameraIdx, J3dNyARParam params,
+			Background bg, DetectMarkers detectMarkers)
+	// capture from the camera, and detect in its frames on their own thread
+	{
+		CameraPipeline pipeline = null;
+		try {
+			JmfCamera camera = new JmfCamera(params, cameraIdx);
+			detectMarkers.createDetector(params, camera.getFrames().getFront());
+			camera.setMetrics(detectMarkers.getMetrics());
+
+			pipeline = new CameraPipeline("camera " + cameraIdx, detectMarkers,
+					camera.getFrames(), 1.0 / DETECT_FPS);
+			pipeline.setBackground(bg);
+			final CameraPipeline p = pipeline;
+			camera.setOnFrame(new Runnable() {
+				public void run() {
+					p.frameReady();
+				}
+			});
+			camera.start();
+		} catch (NyARException e) {
+			System.out.println(e);
+			System.exit(1);
+		}
+		return pipeline;
+	} // end of createPipeline()
+
+	private Transform3D getCameraOffset(int cameraIdx)
+	// where the camera's scene is in the universe
+	{
+		Transform3D t3d = new Transform3D();
+		t3d.setTranslation(new Vector3d(cameraIdx * CAMERA_SPACING, 0, 0));
+		return t3d;
+	} // end of getCameraOffset()
+
+	private void lightScene(Group sceneBG)
 	/* One ambient light, 2 directional lights */
 	{
 		Color3f white = new Color3f(1.0f, 1.0f, 1.0f);
@@ -208,8 +442,8 @@ public class MultiNyAR extends JFrame {
 		return bg;
 	} // end of makeBackground()
 
-	private BranchGroup createView(Canvas3D c3d)
-	// create a view graph using the camera parameters
+	private BranchGroup createView(Canvas3D c3d, int cameraIdx)
+	// create a view graph using the camera's parameters
 	{
 		View view = new View();
 		ViewPlatform viewPlatform = new ViewPlatform();
@@ -221,14 +455,14 @@ public class MultiNyAR extends JFrame {
 
 		view.setCompatibilityModeEnable(true);
 		view.setProjectionPolicy(View.PERSPECTIVE_PROJECTION);
-		view.setLeftProjection(cameraParams.getCameraTransform()); // camera
-																	// projection
+		view.setLeftProjection(cameraParams.get(cameraIdx)
+				.getCameraTransform()); // camera projection
 
 		TransformGroup viewGroup = new TransformGroup();
 		Transform3D viewTransform = new Transform3D();
 		viewTransform.rotY(Math.PI); // rotate 180 degrees
-		viewTransform.setTranslation(new Vector3d(0.0, 0.0, 0.0)); // start at
-																	// origin
+		viewTransform.setTranslation(new Vector3d(cameraIdx * CAMERA_SPACING,
+				0.0, 0.0)); // start at the camera's origin
 		viewGroup.setTransform(viewTransform);
 		viewGroup.addChild(viewPlatform);
 
@@ -238,12 +472,6 @@ public class MultiNyAR extends JFrame {
 		return viewBG;
 	} // end of createView()
 
-	public void setStatus(String msg)
-	// called from DetectMarkers
-	{
-		statusTA.setText(msg);
-	} // end of setStatus()
-
 	// ------------------------------------------------------------
 
 	public static void main(String args[]) {
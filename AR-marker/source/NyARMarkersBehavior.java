@@ -1 +1 @@
-// NyARMarkersBehavior.java// Andrew Davison, ad@fivedots.coe.psu.ac.th, April 2010/* A time-based triggered behaviour which uses a detector to update the position of model drawn above markers. */import java.util.Enumeration;import javax.media.Buffer;import javax.media.j3d.Background;import javax.media.j3d.Behavior;import javax.media.j3d.BoundingSphere;import javax.media.j3d.WakeupCondition;import javax.media.j3d.WakeupOnElapsedTime;import javax.vecmath.Point3d;import jp.nyatla.nyartoolkit.NyARException;import jp.nyatla.nyartoolkit.core.param.NyARParam;import jp.nyatla.nyartoolkit.core.types.NyARIntSize;import jp.nyatla.nyartoolkit.java3d.utils.J3dNyARRaster_RGB;import jp.nyatla.nyartoolkit.jmf.utils.JmfCaptureDevice;import jp.nyatla.nyartoolkit.jmf.utils.JmfCaptureDeviceList;import jp.nyatla.nyartoolkit.jmf.utils.JmfCaptureListener;public class NyARMarkersBehavior extends Behavior implements JmfCaptureListener {	private final double FPS = 30.0; // so executes about 30 times/sec	private Background bg = null;	private DetectMarkers detectMarkers; // the detector for the markers	private WakeupCondition wakeup;	private JmfCaptureDevice captureDev; // captures the camera image	private J3dNyARRaster_RGB rasterRGB; // the camera image	public NyARMarkersBehavior(NyARParam params, Background bg, DetectMarkers ms) {		super();		this.bg = bg;		detectMarkers = ms;		wakeup = new WakeupOnElapsedTime((int) (1000.0 / FPS));		setSchedulingBounds(new BoundingSphere(new Point3d(), 100.0));		/*		 * try { quicktime.QTSession.open(); } catch (quicktime.QTException qte)		 * { qte.printStackTrace(); }		 */		initCaptureDevice(params);	} // end of NyARMarkersBehavior()	private void initCaptureDevice(NyARParam params) {		NyARIntSize screenSize = params.getScreenSize();		try {			JmfCaptureDeviceList devlist = new JmfCaptureDeviceList(); // get																		// devices			captureDev = devlist.getDevice(0); // use the first			captureDev.setCaptureFormat(screenSize.w, screenSize.h, 15.0f);			captureDev.setOnCapture(this);			rasterRGB = new J3dNyARRaster_RGB(params,					captureDev.getCaptureFormat()); // create raster			detectMarkers.createDetector(params, rasterRGB); // initialise																// detector			captureDev.start();		} catch (NyARException e) {			System.out.println(e);			System.exit(1);		}	} // end of initCaptureDevice()	public void initialize() {		wakeupOn(wakeup);	}	public void processStimulus(Enumeration criteria)	/* use the detector to update the models on the markers */	{		try {			synchronized (rasterRGB) {				if (bg != null) {					rasterRGB.renewImageComponent2D();					bg.setImage(rasterRGB.getImageComponent2D()); // refresh																	// background				}			}			detectMarkers.updateModels(rasterRGB);			wakeupOn(wakeup);		} catch (Exception e) {			e.printStackTrace();		}	} // end of processStimulus()	public void onUpdateBuffer(Buffer buf)	// triggered by JmfCaptureListener event	{		try {			synchronized (rasterRGB) {				rasterRGB.setBuffer(buf);			}		} catch (Exception e) {			e.printStackTrace();		}	} // end of onUpdateBuffer()	/*	 * public void stop() { captureDev.stop(); }	 */} // end of NyARMarkersBehavior class
\ No newline at end of file
+// NyARMarkersBehavior.java// Andrew Davison, ad@fivedots.coe.psu.ac.th, April 2010/* A time-based triggered behaviour which uses a detector to update the position of model drawn above markers. Captured frames are passed to the behaviour by a JmfCamera, through a TripleBuffer of rasters, so the capture thread never blocks while the detector is running, and the detector always works on the newest complete frame. Detection is run through a DetectionScheduler with a budget of one wakeup period, so if it can't keep up, only some frames are detected, and the models' poses are extrapolated in the others. Each frame is copied once, from the camera into a CaptureRaster, whose by-reference image is then shown in the background. The time taken by the copy, and to set the background, is added to the detector's FrameMetrics. */import java.util.Enumeration;import javax.media.j3d.Background;import javax.media.j3d.Behavior;import javax.media.j3d.BoundingSphere;import javax.media.j3d.WakeupCondition;import javax.media.j3d.WakeupOnElapsedTime;import javax.vecmath.Point3d;import jp.nyatla.nyartoolkit.NyARException;import jp.nyatla.nyartoolkit.core.param.NyARParam;public class NyARMarkersBehavior extends Behavior {	private final double FPS = 30.0; // so executes about 30 times/sec	private Background bg = null;	private DetectMarkers detectMarkers; // the detector for the markers	private DetectionScheduler scheduler; // which frames to detect in	private WakeupCondition wakeup;	private JmfCamera camera; // captures the camera images	private TripleBuffer<CaptureRaster> frames; // the camera images	private FrameMetrics metrics; // the detector's stage timings	public NyARMarkersBehavior(NyARParam params, Background bg, DetectMarkers ms) {		super();		this.bg = bg;		detectMarkers = ms;		scheduler = new DetectionScheduler(ms, 1.0 / FPS);		wakeup = new WakeupOnElapsedTime((int) (1000.0 / FPS));		setSchedulingBounds(new BoundingSphere(new Point3d(), 100.0));		/*		 * try { quicktime.QTSession.open(); } catch (quicktime.QTException qte)		 * { qte.printStackTrace(); }		 */		initCaptureDevice(params);	} // end of NyARMarkersBehavior()	private void initCaptureDevice(NyARParam params) {		try {			camera = new JmfCamera(params, 0); // use the first camera			frames = camera.getFrames();			// initialise detector			detectMarkers.createDetector(params, frames.getFront());			metrics = detectMarkers.getMetrics();			camera.setMetrics(metrics);			camera.start();		} catch (NyARException e) {			System.out.println(e);			System.exit(1);		}	} // end of initCaptureDevice()	public void initialize() {		wakeupOn(wakeup);	}	public void processStimulus(Enumeration criteria)	/* use the detector to update the models on the markers */	{		try {			CaptureRaster rasterRGB = frames.acquire(); // newest frame			if (rasterRGB != null) { // otherwise no new frame since last time				if (bg != null) {					long t0 = System.nanoTime();					bg.setImage(rasterRGB.getImageComponent2D()); // refresh																	// background					metrics.addTime(FrameMetrics.BACKGROUND, t0);				}				scheduler.update(rasterRGB); // detect or extrapolate			}			wakeupOn(wakeup);		} catch (Exception e) {			e.printStackTrace();		}	} // end of processStimulus()	public DetectionScheduler getScheduler() {		return scheduler;	}	public long getNumDroppedFrames()	// captured frames that were replaced before the detector saw them	{		return frames.getNumDropped();	}	public long getNumSkippedFrames()	// behaviour wakeups that found no new frame to detect in	{		return frames.getNumSkipped();	}	/*	 * public void stop() { captureDev.stop(); }	 */} // end of NyARMarkersBehavior class
\ No newline at end of file
@@ -0,0 +1,54 @@
+// OneEuroPoseFilter.java
+
+/* A One Euro filter (Casiez, Roussel and Vogel, CHI 2012) for a
+ marker's pose.
+
+ It's an exponential smoothing filter whose cutoff frequency rises with
+ the (smoothed) speed of the marker: a still marker is smoothed heavily,
+ which removes the jitter, while a moving one is hardly smoothed at all,
+ which keeps the lag down.
+
+ The position and the rotation are filtered separately, each with its
+ own speed: metres/sec for the position, radians/sec for the rotation
+ (which is slerped like in SlerpPoseFilter).
+ */
+
+import javax.vecmath.Quat4d;
+import javax.vecmath.Vector3d;
+
+public class OneEuroPoseFilter extends RigidPoseFilter {
+	private static final double MIN_CUTOFF = 0.5; // Hz, when still
+	private static final double SPEED_CUTOFF = 1.0; // Hz, for the speeds
+
+	// how fast the cutoff rises with the speed
+	private static final double POS_BETA = 20.0; // Hz per metre/sec
+	private static final double ROT_BETA = 2.0; // Hz per radian/sec
+
+	private Vector3d vel = new Vector3d(); // smoothed velocity
+	private double angSpeed = 0; // smoothed angular speed
+
+	private Vector3d newVel = new Vector3d();
+
+	protected void start() {
+		vel.set(0, 0, 0);
+		angSpeed = 0;
+	}
+
+	protected void update(Vector3d p, Quat4d q, double dt) {
+		double speedAlpha = smoothingFactor(SPEED_CUTOFF, dt);
+
+		// position
+		newVel.sub(p, pos);
+		newVel.scale(1.0 / dt);
+		vel.interpolate(newVel, speedAlpha);
+		double cutoff = MIN_CUTOFF + POS_BETA * vel.length();
+		pos.interpolate(p, smoothingFactor(cutoff, dt));
+
+		// rotation
+		double angle = 2 * Math.acos(Math.min(1.0, dot(rot, q)));
+		angSpeed += speedAlpha * (angle / dt - angSpeed);
+		cutoff = MIN_CUTOFF + ROT_BETA * angSpeed;
+		rot.interpolate(q, smoothingFactor(cutoff, dt));
+	} // end of update()
+
+} // end of OneEuroPoseFilter class
@@ -0,0 +1,390 @@
+// PatternBundle.java
+
+/* A binary bundle of ARToolKit marker patterns, so the patterns don't
+ have to be parsed from their text files (about 12 KB of numbers each)
+ every time the application starts.
+
+ compile() (or main(), as a command line tool) reads every pattern file
+ in a directory (named patt.* or *.patt) into one bundle file. open()
+ memory-maps a bundle, and getCode() builds the NyARCode for a pattern
+ straight from the mapped pixels.
+
+ Bundle layout (big-endian):
+   int magic ("NYPB"), int version, int width, int height, int count
+   count entries of:
+     short name length, UTF-8 name bytes,
+     long source file length, long source file last-modified time,
+     4 directions * width * height ints of XRGB pixels
+   long CRC32 of all the bytes before it
+
+ open() rejects a bundle with the wrong magic, version, pattern size or
+ checksum, and isUpToDate() also reports whether the pattern files have
+ changed since the bundle was compiled. openOrCompile() recompiles the
+ bundle if it is missing, damaged or stale. isUpToDate() reads the
+ bundle through a stream rather than mapping it, since a mapped file
+ can't be replaced on Windows until the mapping is garbage collected;
+ a bundle it has passed is then mapped without checking its sum again.
+
+ Usage:
+   java PatternBundle <pattern dir> <bundle file>
+ */
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.io.StreamTokenizer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+import jp.nyatla.nyartoolkit.NyARException;
+import jp.nyatla.nyartoolkit.core.NyARCode;
+import jp.nyatla.nyartoolkit.core.raster.NyARRaster;
+import jp.nyatla.nyartoolkit.core.rasterreader.INyARBufferReader;
+import jp.nyatla.nyartoolkit.core.types.NyARIntSize;
+
+public class PatternBundle {
+	private static final int MAGIC = 0x4e595042; // "NYPB"
+	public static final int VERSION = 1;
+
+	private static final int PATT_WIDTH = 16; // as in MarkerModel
+	private static final int PATT_HEIGHT = 16;
+	private static final int HEADER_LEN = 20; // bytes before the entries
+	private static final int CRC_CHUNK = 65536; // bytes checked at a time
+
+	private String fnm;
+	private MappedByteBuffer buf;
+	private int width, height;
+
+	// each pattern's name, source file details, and pixels' position in buf
+	private String[] names;
+	private long[] srcLengths, srcTimes;
+	private int[] pixelPositions;
+	private HashMap<String, Integer> nameIdxs = new HashMap<String, Integer>();
+
+	// for building codes, made when first needed
+	private NyARRaster raster = null;
+
+	private PatternBundle(String fnm, MappedByteBuffer buf, boolean isChecked)
+			throws IOException
+	// isChecked is true if the bundle's checksum has already been verified
+	{
+		this.fnm = fnm;
+		this.buf = buf;
+		if (buf.capacity() < HEADER_LEN + 8)
+			throw new IOException(fnm + " is too short to be a pattern bundle");
+		if (!isChecked)
+			checkSum();
+
+		buf.position(0);
+		if (buf.getInt() != MAGIC)
+			throw new IOException(fnm + " is not a pattern bundle");
+		int version = buf.getInt();
+		if (version != VERSION)
+			throw new IOException(fnm + " is bundle version " + version
+					+ ", not " + VERSION);
+		width = buf.getInt();
+		height = buf.getInt();
+		int count = buf.getInt();
+		if (!isValidSize(width, height, count, buf.capacity()))
+			throw new IOException(fnm + " has a damaged header");
+
+		names = new String[count];
+		srcLengths = new long[count];
+		srcTimes = new long[count];
+		pixelPositions = new int[count];
+		int pixelsLen = 4 * width * height * 4;
+		for (int i = 0; i < count; i++) {
+			byte[] nameBytes = new byte[buf.getShort() & 0xffff];
+			buf.get(nameBytes);
+			names[i] = new String(nameBytes, "UTF-8");
+			srcLengths[i] = buf.getLong();
+			srcTimes[i] = buf.getLong();
+			pixelPositions[i] = buf.position();
+			buf.position(buf.position() + pixelsLen);
+			nameIdxs.put(names[i], i);
+		}
+	} // end of PatternBundle()
+
+	private static boolean isValidSize(int width, int height, int count,
+			long fileLen)
+	/*
+	 * are the header's pattern size and count the ones compile() writes, and
+	 * would that many entries fit in a file of fileLen bytes? Checked before
+	 * anything is allocated from them
+	 */
+	{
+		if ((width != PATT_WIDTH) || (height != PATT_HEIGHT) || (count < 0))
+			return false;
+		long minEntryLen = 2 + 8 + 8 + 4L * width * height * 4; // empty name
+		return (HEADER_LEN + count * minEntryLen + 8 <= fileLen);
+	} // end of isValidSize()
+
+	private void checkSum() throws IOException
+	// compare the CRC32 of the bundle's contents with the one at its end
+	{
+		int len = buf.capacity() - 8;
+		CRC32 crc = new CRC32();
+		byte[] chunk = new byte[CRC_CHUNK];
+		buf.position(0);
+		while (buf.position() < len) {
+			int n = Math.min(chunk.length, len - buf.position());
+			buf.get(chunk, 0, n);
+			crc.update(chunk, 0, n);
+		}
+		if (buf.getLong() != crc.getValue())
+			throw new IOException(fnm + " has a bad checksum");
+	} // end of checkSum()
+
+	public static PatternBundle open(String bundleFnm) throws IOException
+	// memory-map and check the bundle in bundleFnm
+	{
+		return open(bundleFnm, false);
+	}
+
+	private static PatternBundle open(String bundleFnm, boolean isChecked)
+			throws IOException
+	// memory-map the bundle; isChecked is true if isUpToDate() has checked it
+	{
+		RandomAccessFile file = new RandomAccessFile(bundleFnm, "r");
+		try {
+			FileChannel channel = file.getChannel();
+			MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+					channel.size()); // stays valid after the file is closed
+			return new PatternBundle(bundleFnm, buf, isChecked);
+		} finally {
+			file.close();
+		}
+	} // end of open()
+
+	public static PatternBundle openOrCompile(String dirName, String bundleFnm)
+	/*
+	 * open the bundle for the patterns in dirName, first (re)compiling it if
+	 * it's missing, damaged or out of date; return null if there's no usable
+	 * bundle
+	 */
+	{
+		File dir = new File(dirName);
+		File bundleFile = new File(bundleFnm);
+		try {
+			if (bundleFile.exists()) {
+				if (isUpToDate(bundleFile, dir)) // checked before mapping it
+					return open(bundleFnm, true); // so skip a second checksum
+				System.out.println(bundleFnm + " is out of date or damaged");
+			}
+		} catch (IOException e) {
+			System.out.println(e);
+		}
+
+		try {
+			System.out.println("Compiling pattern bundle " + bundleFnm);
+			compile(dir, new File(bundleFnm));
+			return open(bundleFnm);
+		} catch (IOException e) {
+			System.out.println(e);
+			return null;
+		}
+	} // end of openOrCompile()
+
+	public static boolean isUpToDate(File bundleFile, File dir)
+			throws IOException
+	/*
+	 * is bundleFile a complete bundle of the current pattern files in dir
+	 * (none added, removed or modified since it was compiled)? The file is
+	 * read through a stream, so it isn't left mapped
+	 */
+	{
+		File[] files = listPatterns(dir);
+		CRC32 crc = new CRC32();
+		DataInputStream in = new DataInputStream(new CheckedInputStream(
+				new BufferedInputStream(new FileInputStream(bundleFile)), crc));
+		try {
+			if ((in.readInt() != MAGIC) || (in.readInt() != VERSION))
+				return false;
+			int width = in.readInt();
+			int height = in.readInt();
+			int count = in.readInt();
+			if (!isValidSize(width, height, count, bundleFile.length()))
+				return false; // damaged
+			boolean isStale = (count != files.length);
+
+			byte[] pixels = new byte[4 * width * height * 4];
+			for (int i = 0; i < count; i++) {
+				byte[] nameBytes = new byte[in.readUnsignedShort()];
+				in.readFully(nameBytes);
+				String name = new String(nameBytes, "UTF-8");
+				long srcLength = in.readLong();
+				long srcTime = in.readLong();
+				in.readFully(pixels); // for the checksum
+				if (!isStale) // both are sorted by name
+					isStale = !files[i].getName().equals(name)
+							|| (files[i].length() != srcLength)
+							|| (files[i].lastModified() != srcTime);
+			}
+			long sum = crc.getValue(); // of everything before the sum
+			if (in.readLong() != sum)
+				return false; // damaged
+			return !isStale;
+		} catch (EOFException e) { // cut short
+			return false;
+		} finally {
+			in.close();
+		}
+	} // end of isUpToDate()
+
+	public int getNumPatterns() {
+		return names.length;
+	}
+
+	public String[] getNames() {
+		return names.clone();
+	}
+
+	public boolean hasPattern(String name) {
+		return nameIdxs.containsKey(name);
+	}
+
+	public synchronized NyARCode getCode(String name) throws NyARException
+	// build the code for the named pattern, or return null if it isn't here
+	{
+		Integer idx = nameIdxs.get(name);
+		if (idx == null)
+			return null;
+
+		if (raster == null)
+			raster = new NyARRaster(new NyARIntSize(width, height),
+					new int[width * height],
+					INyARBufferReader.BUFFERFORMAT_INT1D_X8R8G8B8_32);
+		int[] pixels = (int[]) raster.getBufferReader().getBuffer();
+
+		NyARCode code = new NyARCode(width, height);
+		buf.position(pixelPositions[idx]);
+		IntBuffer ib = buf.asIntBuffer();
+		for (int dir = 0; dir < 4; dir++) {
+			ib.get(pixels);
+			code.getColorData(dir).setRaster(raster);
+			code.getBlackWhiteData(dir).setRaster(raster);
+		}
+		return code;
+	} // end of getCode()
+
+	// ------------------------- compiling ---------------------------
+
+	private static File[] listPatterns(File dir)
+	// the pattern files in dir, sorted by name
+	{
+		File[] files = dir.listFiles();
+		if (files == null)
+			return new File[0];
+		ArrayList<File> patts = new ArrayList<File>();
+		for (File f : files) {
+			String name = f.getName();
+			if (f.isFile() && (name.startsWith("patt.") || name.endsWith(".patt")))
+				patts.add(f);
+		}
+		File[] pattArr = patts.toArray(new File[patts.size()]);
+		Arrays.sort(pattArr);
+		return pattArr;
+	} // end of listPatterns()
+
+	public static void compile(File dir, File bundleFile) throws IOException
+	// write all the pattern files in dir into bundleFile
+	{
+		File[] files = listPatterns(dir);
+
+		// write to a temporary file, so a failed compile leaves no bundle
+		File tmpFile = new File(bundleFile.getPath() + ".tmp");
+		CRC32 crc = new CRC32();
+		DataOutputStream out = new DataOutputStream(new CheckedOutputStream(
+				new BufferedOutputStream(new FileOutputStream(tmpFile)), crc));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(PATT_WIDTH);
+			out.writeInt(PATT_HEIGHT);
+			out.writeInt(files.length);
+
+			int[] pixels = new int[PATT_WIDTH * PATT_HEIGHT];
+			for (File f : files) {
+				byte[] nameBytes = f.getName().getBytes("UTF-8");
+				out.writeShort(nameBytes.length);
+				out.write(nameBytes);
+				out.writeLong(f.length());
+				out.writeLong(f.lastModified());
+
+				FileInputStream in = new FileInputStream(f);
+				try {
+					StreamTokenizer st = new StreamTokenizer(new InputStreamReader(
+							new BufferedInputStream(in)));
+					for (int d = 0; d < 4; d++) {
+						readDirection(st, f, pixels);
+						for (int p : pixels)
+							out.writeInt(p);
+					}
+				} finally {
+					in.close();
+				}
+			}
+			out.flush();
+			long sum = crc.getValue(); // of everything before the sum
+			out.writeLong(sum);
+		} finally {
+			out.close();
+		}
+
+		if (bundleFile.exists() && !bundleFile.delete())
+			throw new IOException("Could not replace " + bundleFile);
+		if (!tmpFile.renameTo(bundleFile))
+			throw new IOException("Could not rename " + tmpFile + " to "
+					+ bundleFile);
+	} // end of compile()
+
+	private static void readDirection(StreamTokenizer st, File f, int[] pixels)
+			throws IOException
+	/*
+	 * read one direction of a pattern file into XRGB pixels; the file holds
+	 * its blue, green and red planes in that order, as in NyARToolkit's
+	 * NyARCodeFileReader
+	 */
+	{
+		Arrays.fill(pixels, 0);
+		for (int plane = 0; plane < 3; plane++)
+			for (int i = 0; i < pixels.length; i++) {
+				if (st.nextToken() != StreamTokenizer.TT_NUMBER)
+					throw new IOException(f + " is not a pattern file");
+				pixels[i] |= ((int) st.nval & 0xff) << (plane * 8);
+			}
+	} // end of readDirection()
+
+	public static void main(String[] args) {
+		if (args.length != 2) {
+			System.out.println("Usage: java PatternBundle <pattern dir> "
+					+ "<bundle file>");
+			System.exit(1);
+		}
+		try {
+			compile(new File(args[0]), new File(args[1]));
+			PatternBundle bundle = open(args[1]);
+			System.out.println("Wrote " + bundle.getNumPatterns()
+					+ " patterns to " + args[1]);
+		} catch (IOException e) {
+			System.out.println(e);
+			System.exit(1);
+		}
+	} // end of main()
+
+} // end of PatternBundle class
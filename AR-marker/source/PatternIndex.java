@@ -0,0 +1,165 @@
+// PatternIndex.java
+
+/* A coarse index of marker patterns, used by MarkerDetector so that a
+ square's pattern only needs to be fully matched against a short list
+ of likely codes, rather than against every registered code.
+
+ Each code's 16x16 colour pattern (in all four directions) is reduced
+ to a 4x4 luminance signature, normalized to unit length. The pattern
+ picked from a square is reduced in the same way, and the codes whose
+ signatures correlate best with it (in any direction) make up the
+ short list. Matching a 4x4 signature costs about 1/50th of a full
+ 16x16 colour match.
+
+ Every VERIFY_INTERVAL'th lookup is checked by also fully matching all
+ the codes; the hit rate is the fraction of those checks where the
+ short list contained a best match.
+ */
+
+import jp.nyatla.nyartoolkit.core.NyARCode;
+import jp.nyatla.nyartoolkit.core.match.NyARMatchPattDeviationColorData;
+
+public class PatternIndex {
+	private static final int SIG_SIZE = 4; // signatures are 4x4
+	private static final int SIG_LEN = SIG_SIZE * SIG_SIZE;
+	private static final int VERIFY_INTERVAL = 64;
+
+	private int pattWidth, pattHeight;
+	private int numCodes;
+	private double[] codeSigs; // numCodes x 4 directions x SIG_LEN
+
+	private double[] querySig = new double[SIG_LEN];
+	private int[] shortList; // code indices, best first
+	private double[] shortScores;
+	private int shortLen = 0;
+
+	private long numLookups = 0;
+	private long numVerified = 0;
+	private long numHits = 0;
+
+	public PatternIndex(NyARCode[] codes, int numCodes, int shortListSize) {
+		this.numCodes = numCodes;
+		pattWidth = codes[0].getWidth();
+		pattHeight = codes[0].getHeight();
+
+		codeSigs = new double[numCodes * 4 * SIG_LEN];
+		double[] sig = new double[SIG_LEN];
+		for (int i = 0; i < numCodes; i++)
+			for (int dir = 0; dir < 4; dir++) {
+				makeSignature(codes[i].getColorData(dir), sig);
+				System.arraycopy(sig, 0, codeSigs, (i * 4 + dir) * SIG_LEN,
+						SIG_LEN);
+			}
+
+		shortList = new int[shortListSize];
+		shortScores = new double[shortListSize];
+	} // end of PatternIndex()
+
+	private void makeSignature(NyARMatchPattDeviationColorData patt,
+			double[] sig)
+	/*
+	 * sum the (R+G+B) deviations of the pattern over a grid of SIG_SIZE x
+	 * SIG_SIZE blocks, and normalize the result
+	 */
+	{
+		int[] data = patt.refData(); // R,G,B for each pixel
+		for (int i = 0; i < SIG_LEN; i++)
+			sig[i] = 0;
+
+		int p = 0;
+		for (int y = 0; y < pattHeight; y++) {
+			int row = (y * SIG_SIZE / pattHeight) * SIG_SIZE;
+			for (int x = 0; x < pattWidth; x++) {
+				sig[row + x * SIG_SIZE / pattWidth] += data[p] + data[p + 1]
+						+ data[p + 2];
+				p += 3;
+			}
+		}
+
+		double len = 0;
+		for (int i = 0; i < SIG_LEN; i++)
+			len += sig[i] * sig[i];
+		len = Math.sqrt(len);
+		if (len > 0)
+			for (int i = 0; i < SIG_LEN; i++)
+				sig[i] /= len;
+	} // end of makeSignature()
+
+	public int lookup(NyARMatchPattDeviationColorData patt)
+	/*
+	 * fill the short list with the codes whose signatures match patt best,
+	 * returning the length of the list
+	 */
+	{
+		makeSignature(patt, querySig);
+		shortLen = 0;
+
+		int sigIdx = 0;
+		for (int i = 0; i < numCodes; i++) {
+			double score = -Double.MAX_VALUE; // best over the 4 directions
+			for (int dir = 0; dir < 4; dir++) {
+				double dot = 0;
+				for (int k = 0; k < SIG_LEN; k++)
+					dot += querySig[k] * codeSigs[sigIdx + k];
+				if (dot > score)
+					score = dot;
+				sigIdx += SIG_LEN;
+			}
+			addToShortList(i, score);
+		}
+		numLookups++;
+		return shortLen;
+	} // end of lookup()
+
+	private void addToShortList(int codeIdx, double score)
+	// insert the code into the (sorted) short list if it scores highly enough
+	{
+		if ((shortLen == shortList.length)
+				&& (score <= shortScores[shortLen - 1]))
+			return;
+		int j = (shortLen < shortList.length) ? shortLen++ : shortLen - 1;
+		while ((j > 0) && (shortScores[j - 1] < score)) {
+			shortList[j] = shortList[j - 1];
+			shortScores[j] = shortScores[j - 1];
+			j--;
+		}
+		shortList[j] = codeIdx;
+		shortScores[j] = score;
+	} // end of addToShortList()
+
+	public int[] getShortList()
+	// the codes found by the last lookup(), best first
+	{
+		return shortList;
+	}
+
+	public boolean shouldVerify()
+	// should the last lookup() be checked against a full match?
+	{
+		return (numLookups % VERIFY_INTERVAL) == 1;
+	}
+
+	public void addVerification(boolean isHit)
+	/*
+	 * record whether the short list's best match was as good as the best
+	 * match over all the codes
+	 */
+	{
+		numVerified++;
+		if (isHit)
+			numHits++;
+	} // end of addVerification()
+
+	public long getNumLookups() {
+		return numLookups;
+	}
+
+	public double getHitRate()
+	// fraction of verified lookups whose short list contained a best match
+	{
+		if (numVerified == 0)
+			return 1.0;
+		return ((double) numHits) / numVerified;
+	}
+
+} // end of PatternIndex class
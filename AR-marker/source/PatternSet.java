@@ -0,0 +1,65 @@
+// PatternSet.java
+
+/* The NyARCodes of a set of marker patterns, each loaded once, so they
+ can be shared by every MarkerModel and detector that uses them (e.g.
+ one per camera, see MultiNyAR).
+
+ A code is taken from a PatternBundle if there is one and it holds the
+ pattern, otherwise it is parsed from its text file. The set can't be
+ changed once it has been loaded, and NyARToolkit only reads a code
+ while matching, so a set can be used by several detection threads at
+ once.
+ */
+
+import java.util.Collection;
+import java.util.HashMap;
+
+import jp.nyatla.nyartoolkit.NyARException;
+import jp.nyatla.nyartoolkit.core.NyARCode;
+
+public class PatternSet {
+	private static final int PATT_WIDTH = 16; // as in MarkerModel
+	private static final int PATT_HEIGHT = 16;
+
+	private final HashMap<String, NyARCode> codes = new HashMap<String, NyARCode>();
+
+	public PatternSet(String dirName, PatternBundle bundle,
+			Collection<String> names)
+	/*
+	 * load the named patterns from the bundle (which may be null), or from
+	 * their files in dirName; a pattern that can't be loaded is left out
+	 */
+	{
+		for (String name : names) {
+			if (codes.containsKey(name))
+				continue; // used by more than one marker
+			try {
+				NyARCode code;
+				if ((bundle != null) && bundle.hasPattern(name))
+					code = bundle.getCode(name); // no text parsing
+				else {
+					code = new NyARCode(PATT_WIDTH, PATT_HEIGHT);
+					code.loadARPattFromFile(dirName + "/" + name);
+				}
+				codes.put(name, code);
+			} catch (NyARException e) {
+				System.out.println("Could not load pattern " + name + ": " + e);
+			}
+		}
+	} // end of PatternSet()
+
+	public boolean hasPattern(String name) {
+		return codes.containsKey(name);
+	}
+
+	public NyARCode getCode(String name)
+	// the shared code for the named pattern, or null
+	{
+		return codes.get(name);
+	}
+
+	public int size() {
+		return codes.size();
+	}
+
+} // end of PatternSet class
@@ -0,0 +1,52 @@
+// PoseEvent.java
+
+/* A marker's pose in one frame, as read from a PoseEventRing by a
+ PoseSubscriber. The subscriber reuses the same PoseEvent for every
+ event, so it should be copied if it's needed after the next poll().
+
+ The pose is the smoothed transformation from the marker to the camera
+ (the same matrix that moves the marker's model), unrounded, with
+ positions in Java3D world units.
+ */
+
+import javax.vecmath.Matrix4d;
+
+public class PoseEvent {
+	int markerIndex; // in the order the markers were added to DetectMarkers
+	long time; // when the frame was detected (System.nanoTime())
+	double confidence;
+	final double[] pose = new double[16]; // row by row
+
+	public int getMarkerIndex() {
+		return markerIndex;
+	}
+
+	public long getTime()
+	// in nanosecs, from System.nanoTime()
+	{
+		return time;
+	}
+
+	public double getConfidence() {
+		return confidence;
+	}
+
+	public double getPose(int row, int col) {
+		return pose[row * 4 + col];
+	}
+
+	public void getPose(Matrix4d mat)
+	// copy the pose into mat
+	{
+		mat.set(pose);
+	}
+
+	public void getPosition(double[] pos)
+	// the translation part of the pose, as x, y, z
+	{
+		pos[0] = pose[3];
+		pos[1] = pose[7];
+		pos[2] = pose[11];
+	} // end of getPosition()
+
+} // end of PoseEvent class
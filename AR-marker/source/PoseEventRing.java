@@ -0,0 +1,136 @@
+// PoseEventRing.java
+
+/* Publishes the pose of every marker found in a frame to subscribers
+ on other threads, as (marker index, frame time, confidence, 4x4 pose)
+ events, without locks or allocation on either side.
+
+ The events go into a preallocated ring of slots, written only by the
+ detection thread (see DetectMarkers.updateModels()), and each
+ subscriber reads them at its own pace through a PoseSubscriber. The
+ detection thread never waits: if a subscriber falls more than a ring's
+ worth of events behind, the oldest events are overwritten, the
+ subscriber counts the ones it missed, and the lag is reported once
+ (see endFrame()).
+
+ All the slots are stored in one AtomicLongArray (the doubles as their
+ raw long bits), SLOT_SIZE longs per slot. The first long of a slot is
+ its event's sequence number; while the slot is being written it is -1.
+ The writes are ordered with lazySet(), so a reader that sees the same
+ sequence number before and after copying a slot knows that its copy
+ wasn't torn by a newer event.
+ */
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.vecmath.Matrix4d;
+
+public class PoseEventRing {
+	// the longs in each slot
+	static final int SEQ = 0;
+	static final int MARKER = 1;
+	static final int TIME = 2;
+	static final int CONFIDENCE = 3;
+	static final int POSE = 4; // 16 values, row by row
+	static final int SLOT_SIZE = POSE + 16;
+
+	private static final long WRITING = -1; // sequence of a slot being
+											// written
+
+	private final int capacity; // a power of two
+	private final int mask;
+	final AtomicLongArray slots;
+	final AtomicLong cursor = new AtomicLong(0); // events published so far
+
+	private volatile PoseSubscriber[] subscribers = new PoseSubscriber[0];
+
+	public PoseEventRing(int minCapacity) {
+		int cap = 1;
+		while (cap < minCapacity)
+			cap <<= 1;
+		capacity = cap;
+		mask = cap - 1;
+		slots = new AtomicLongArray(capacity * SLOT_SIZE);
+		for (int i = 0; i < capacity; i++)
+			slots.set(i * SLOT_SIZE + SEQ, WRITING); // nothing there yet
+	} // end of PoseEventRing()
+
+	public synchronized PoseSubscriber subscribe(String name)
+	// a new subscriber, which will see the events published from now on
+	{
+		PoseSubscriber sub = new PoseSubscriber(this, name, cursor.get());
+		PoseSubscriber[] subs = new PoseSubscriber[subscribers.length + 1];
+		System.arraycopy(subscribers, 0, subs, 0, subscribers.length);
+		subs[subscribers.length] = sub;
+		subscribers = subs;
+		return sub;
+	} // end of subscribe()
+
+	public synchronized void unsubscribe(PoseSubscriber sub) {
+		int n = 0;
+		PoseSubscriber[] subs = new PoseSubscriber[subscribers.length];
+		for (PoseSubscriber s : subscribers)
+			if (s != sub)
+				subs[n++] = s;
+		PoseSubscriber[] newSubs = new PoseSubscriber[n];
+		System.arraycopy(subs, 0, newSubs, 0, n);
+		subscribers = newSubs;
+	} // end of unsubscribe()
+
+	public boolean hasSubscribers() {
+		return (subscribers.length > 0);
+	}
+
+	// ------------------- detection thread --------------------
+
+	public void publish(int mkIdx, long time, double confidence, Matrix4d pose)
+	// add an event for marker mkIdx, found in the frame at time (in nanosecs)
+	{
+		long seq = cursor.get();
+		int base = (int) (seq & mask) * SLOT_SIZE;
+		slots.lazySet(base + SEQ, WRITING);
+		slots.lazySet(base + MARKER, mkIdx);
+		slots.lazySet(base + TIME, time);
+		slots.lazySet(base + CONFIDENCE, Double
+				.doubleToRawLongBits(confidence));
+		for (int row = 0; row < 4; row++)
+			for (int col = 0; col < 4; col++)
+				slots.lazySet(base + POSE + row * 4 + col, Double
+						.doubleToRawLongBits(pose.getElement(row, col)));
+		slots.lazySet(base + SEQ, seq);
+		cursor.lazySet(seq + 1);
+	} // end of publish()
+
+	public void endFrame()
+	// report any subscriber that has just fallen too far behind
+	{
+		long published = cursor.get();
+		for (PoseSubscriber sub : subscribers) {
+			long lag = published - sub.getNextSeq();
+			if (lag > capacity) {
+				if (!sub.isLagging) {
+					sub.isLagging = true;
+					System.out.println("Pose subscriber " + sub.getName()
+							+ " is " + lag + " events behind; "
+							+ "older events are being overwritten");
+				}
+			} else if (lag <= capacity / 2)
+				sub.isLagging = false; // has caught up
+		}
+	} // end of endFrame()
+
+	// ------------------------------------------------------------
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	int getMask() {
+		return mask;
+	}
+
+	public long getNumPublished() {
+		return cursor.get();
+	}
+
+} // end of PoseEventRing class
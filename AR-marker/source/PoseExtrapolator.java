@@ -0,0 +1,89 @@
+// PoseExtrapolator.java
+
+/* Predicts a model's pose from its last two detected poses, assuming
+ it keeps moving and turning at the same rate. DetectionScheduler uses
+ the predictions to move the models in the frames where detection is
+ skipped.
+
+ The position is extrapolated linearly. The rotation between the last
+ two poses is found as a quaternion, its angle scaled by the time
+ ahead, and applied to the last rotation.
+
+ Poses are never predicted more than MAX_AHEAD secs past the last one,
+ and the last pose is held (with no motion) if the two before it were
+ more than MAX_GAP secs apart.
+ */
+
+import javax.vecmath.AxisAngle4d;
+import javax.vecmath.Matrix4d;
+import javax.vecmath.Quat4d;
+import javax.vecmath.Vector3d;
+
+public class PoseExtrapolator {
+	private static final double MAX_AHEAD = 0.25; // secs
+	private static final double MAX_GAP = 0.5; // secs
+
+	private int numPoses = 0; // 0, 1 or 2
+	private Vector3d prevPos = new Vector3d(), lastPos = new Vector3d();
+	private Quat4d prevRot = new Quat4d(), lastRot = new Quat4d();
+	private double prevTime, lastTime;
+
+	// reused by predict()
+	private Vector3d pos = new Vector3d();
+	private Quat4d rot = new Quat4d();
+	private Quat4d turn = new Quat4d();
+	private AxisAngle4d turnAA = new AxisAngle4d();
+
+	public void add(Matrix4d mat, double time)
+	// store the pose in mat, detected at time (in secs)
+	{
+		prevPos.set(lastPos);
+		prevRot.set(lastRot);
+		prevTime = lastTime;
+
+		mat.get(lastPos);
+		lastRot.set(mat);
+		lastRot.normalize(); // an averaged matrix may not be a pure rotation
+		lastTime = time;
+		if (numPoses < 2)
+			numPoses++;
+	} // end of add()
+
+	public void reset() {
+		numPoses = 0;
+	}
+
+	public boolean predict(double time, Matrix4d mat)
+	/*
+	 * store the predicted pose for time in mat, returning false if there's no
+	 * pose to predict from
+	 */
+	{
+		if (numPoses == 0)
+			return false;
+
+		double dt = lastTime - prevTime;
+		if ((numPoses < 2) || (dt <= 0) || (dt > MAX_GAP)) {
+			mat.set(lastRot, lastPos, 1.0); // no motion known
+			return true;
+		}
+		double k = Math.min(time - lastTime, MAX_AHEAD) / dt;
+
+		// position
+		pos.sub(lastPos, prevPos);
+		pos.scaleAdd(k, lastPos);
+
+		// rotation: turn = lastRot * prevRot^-1, scaled by k
+		turn.mulInverse(lastRot, prevRot);
+		if (turn.w < 0)
+			turn.negate(); // take the shorter way round
+		turnAA.set(turn);
+		turnAA.angle *= k;
+		turn.set(turnAA);
+		rot.mul(turn, lastRot);
+
+		mat.set(rot, pos, 1.0);
+		return true;
+	} // end of predict()
+
+} // end of PoseExtrapolator class
@@ -0,0 +1,41 @@
+// PoseFilter.java
+
+/* Smooths the poses of a marker's model, to reduce the shaking caused
+ by slight variations in each frame's transformation matrix.
+
+ Each MarkerModel has its own filter, made by
+ MarkerModel.createPoseFilter(). The available filters are:
+   - "none": no smoothing
+   - "average": SmoothMatrix, a moving average of the last 10 matrices
+   - "slerp": SlerpPoseFilter, exponential smoothing, with the rotation
+     interpolated as a quaternion
+   - "oneeuro": OneEuroPoseFilter, which smooths heavily when the
+     marker is still and lightly when it moves
+   - "kalman": KalmanPoseFilter, a constant-velocity Kalman filter
+
+ A filter is only called by one thread at a time, but that may be a
+ PoseSolver thread, so it mustn't touch the scene graph.
+ */
+
+import javax.vecmath.Matrix4d;
+
+import jp.nyatla.nyartoolkit.core.transmat.NyARTransMatResult;
+
+public interface PoseFilter {
+
+	public boolean add(NyARTransMatResult transMat, double time);
+	/*
+	 * add the marker's transform detected at time (in seconds), returning
+	 * false if it was unusable
+	 */
+
+	public Matrix4d get();
+	/*
+	 * the filtered pose, or null if nothing has been added; the matrix may be
+	 * reused by the filter, so is only valid until the next add()
+	 */
+
+	public void reset();
+	// forget all the previous poses
+
+} // end of PoseFilter interface
@@ -0,0 +1,188 @@
+// PoseRecorder.java
+
+/* Records the poses found by DetectMarkers into a binary log, for
+ offline analysis and for replaying later (see PoseReplayer).
+
+ The recorder subscribes to the detector's PoseEventRing, and copies
+ the events into the log on its own thread, so the only cost to the
+ detection thread is publishing the events. If the recorder falls too
+ far behind, the events it missed are counted (see getNumMissed()).
+
+ The log is a directory of segment files (poses-000000.seg, ...), each
+ SEGMENT_SIZE bytes, memory-mapped while being written. A new segment
+ is started when the current one is full. A directory that already
+ holds a log isn't recorded into, so an old log is never overwritten.
+
+ Segment layout (big-endian):
+   int magic ("NYPS"), int version, int record size, int 0,
+   long number of records, long 0
+   fixed-size records of:
+     long frame time (nanosecs, from System.nanoTime()),
+     int marker index, int 0, double confidence,
+     12 doubles: the top three rows of the 4x4 pose
+
+ The segment's record count is updated in its header after every batch
+ of records, so a log is readable up to the last batch even if the
+ application is killed. close() is called automatically when the JVM
+ exits.
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.locks.LockSupport;
+
+public class PoseRecorder implements Runnable {
+	static final int MAGIC = 0x4e595053; // "NYPS"
+	static final int VERSION = 1;
+	static final int HEADER_SIZE = 32;
+	static final int COUNT_POS = 16; // of the record count in the header
+	static final int RECORD_SIZE = 8 + 4 + 4 + 8 + 12 * 8;
+
+	private static final int SEGMENT_SIZE = 64 * 1024 * 1024; // bytes
+	private static final long POLL_PERIOD = 1000000; // nanosecs between
+														// polls when idle
+
+	private File dir;
+	private int segmentSize;
+	private PoseSubscriber subscriber = null;
+	private PoseEvent event = new PoseEvent();
+
+	private MappedByteBuffer segment = null; // being written
+	private int numSegments = 0;
+	private long numInSegment = 0;
+	private volatile long numRecorded = 0;
+
+	private Thread recorderThread;
+	private volatile boolean isRunning = false;
+
+	public PoseRecorder(PoseEventRing ring, String dirName) {
+		this(ring, dirName, SEGMENT_SIZE);
+	}
+
+	public PoseRecorder(PoseEventRing ring, String dirName, int segmentSize) {
+		dir = new File(dirName);
+		this.segmentSize = Math.max(segmentSize, HEADER_SIZE + RECORD_SIZE);
+		if (new File(dir, segmentName(0)).exists()) {
+			System.out.println(dir + " already holds a pose log; not recording");
+			return;
+		}
+		dir.mkdirs();
+		subscriber = ring.subscribe("PoseRecorder " + dirName);
+
+		isRunning = true;
+		recorderThread = new Thread(this, "PoseRecorder");
+		recorderThread.setDaemon(true); // don't stop the JVM from exiting
+		recorderThread.start();
+
+		Runtime.getRuntime().addShutdownHook(new Thread() {
+			public void run() {
+				close(); // save the last records
+			}
+		});
+		System.out.println("Recording poses to " + dir);
+	} // end of PoseRecorder()
+
+	public void run()
+	// copy the events into the log until close() is called
+	{
+		try {
+			while (isRunning) {
+				if (record() == 0)
+					LockSupport.parkNanos(POLL_PERIOD); // nothing new
+			}
+			record(); // the last events
+		} catch (IOException e) {
+			System.out.println("Stopped recording poses: " + e);
+		}
+	} // end of run()
+
+	private int record() throws IOException
+	// write all the waiting events; return how many there were
+	{
+		int n = 0;
+		while (subscriber.poll(event)) {
+			if ((segment == null) || (segment.remaining() < RECORD_SIZE))
+				startSegment();
+			segment.putLong(event.time);
+			segment.putInt(event.markerIndex);
+			segment.putInt(0);
+			segment.putDouble(event.confidence);
+			for (int i = 0; i < 12; i++) // skip the bottom row (0, 0, 0, 1)
+				segment.putDouble(event.pose[i]);
+			numInSegment++;
+			n++;
+		}
+		if (n > 0) {
+			segment.putLong(COUNT_POS, numInSegment); // commit the batch
+			numRecorded += n;
+		}
+		return n;
+	} // end of record()
+
+	private void startSegment() throws IOException
+	// finish the current segment, and map a new one
+	{
+		if (segment != null) {
+			segment.putLong(COUNT_POS, numInSegment);
+			segment.force();
+		}
+
+		File f = new File(dir, segmentName(numSegments));
+		RandomAccessFile file = new RandomAccessFile(f, "rw");
+		try {
+			file.setLength(segmentSize);
+			segment = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0,
+					segmentSize); // stays valid after the file is closed
+		} finally {
+			file.close();
+		}
+		numSegments++;
+		numInSegment = 0;
+
+		segment.putInt(MAGIC);
+		segment.putInt(VERSION);
+		segment.putInt(RECORD_SIZE);
+		segment.putInt(0);
+		segment.putLong(0); // no records yet
+		segment.putLong(0);
+	} // end of startSegment()
+
+	static String segmentName(int i) {
+		return String.format("poses-%06d.seg", i);
+	}
+
+	public synchronized void close()
+	// stop recording, and write the last records to disk
+	{
+		if (!isRunning)
+			return;
+		isRunning = false;
+		LockSupport.unpark(recorderThread);
+		try {
+			recorderThread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		subscriber.close();
+		if (segment != null)
+			segment.force();
+	} // end of close()
+
+	public long getNumRecorded() {
+		return numRecorded;
+	}
+
+	public long getNumMissed()
+	// events overwritten in the ring before they could be recorded
+	{
+		return (subscriber == null) ? 0 : subscriber.getNumMissed();
+	}
+
+	public int getNumSegments() {
+		return numSegments;
+	}
+
+} // end of PoseRecorder class
@@ -0,0 +1,230 @@
+// PoseReplayer.java
+
+/* Reads a pose log written by a PoseRecorder, either record by record
+ (next()) for offline analysis, or by replaying it into the markers'
+ models (replay()), at the recorded timing, faster, or as fast as
+ possible, for load testing.
+
+ The segments are memory-mapped one at a time, in order, and only
+ their committed records (see PoseRecorder) are read. A record's marker
+ index is the marker's position in DetectMarkers (the order of the
+ marker catalog in MultiNyAR).
+
+ --------------------
+ Usage (from the source directory):
+ > run PoseReplayer [-speed <n>] <log dir>
+
+ replays the log into the catalog's markers (see MarkerCatalog), and
+ reports the number of poses per marker and how late they were applied.
+ The markers are loaded as in MultiNyAR (from the same pattern bundle,
+ leaving out the ones that can't be loaded), so the recorded marker
+ indices refer to the same markers.
+ -speed n replays n times faster than recorded (default 1); 0 replays
+ as fast as possible.
+ */
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+import javax.vecmath.Matrix4d;
+
+public class PoseReplayer {
+	private static final String CATALOG_FNM = "Data/markers.txt";
+	private static final String BUNDLE_FNM = "Data/patterns.bin";
+
+	private File[] segmentFiles;
+	private int segIdx = -1; // of the mapped segment
+	private MappedByteBuffer segment = null;
+	private long numLeft = 0; // records left in the mapped segment
+
+	private long maxLateness = 0; // nanosecs, in the last replay()
+
+	public PoseReplayer(String dirName) throws IOException {
+		File dir = new File(dirName);
+		segmentFiles = dir.listFiles(new FilenameFilter() {
+			public boolean accept(File d, String name) {
+				return name.startsWith("poses-") && name.endsWith(".seg");
+			}
+		});
+		if ((segmentFiles == null) || (segmentFiles.length == 0))
+			throw new IOException("No pose log in " + dirName);
+		Arrays.sort(segmentFiles); // names are numbered in order
+	} // end of PoseReplayer()
+
+	public boolean next(PoseEvent event) throws IOException
+	// read the next record into event; return false at the end of the log
+	{
+		while (numLeft == 0) {
+			if (segIdx + 1 >= segmentFiles.length)
+				return false;
+			openSegment(++segIdx);
+		}
+		event.time = segment.getLong();
+		event.markerIndex = segment.getInt();
+		segment.getInt();
+		event.confidence = segment.getDouble();
+		for (int i = 0; i < 12; i++)
+			event.pose[i] = segment.getDouble();
+		event.pose[12] = event.pose[13] = event.pose[14] = 0;
+		event.pose[15] = 1;
+		numLeft--;
+		return true;
+	} // end of next()
+
+	private void openSegment(int i) throws IOException
+	// memory-map segment i, and check its header
+	{
+		File f = segmentFiles[i];
+		RandomAccessFile file = new RandomAccessFile(f, "r");
+		try {
+			FileChannel channel = file.getChannel();
+			segment = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel
+					.size()); // stays valid after the file is closed
+		} finally {
+			file.close();
+		}
+
+		if ((segment.capacity() < PoseRecorder.HEADER_SIZE)
+				|| (segment.getInt() != PoseRecorder.MAGIC))
+			throw new IOException(f + " is not a pose log segment");
+		int version = segment.getInt();
+		if (version != PoseRecorder.VERSION)
+			throw new IOException(f + " is version " + version + ", not "
+					+ PoseRecorder.VERSION);
+		if (segment.getInt() != PoseRecorder.RECORD_SIZE)
+			throw new IOException(f + " has the wrong record size");
+		numLeft = segment.getLong(PoseRecorder.COUNT_POS);
+		long maxRecords = (segment.capacity() - PoseRecorder.HEADER_SIZE)
+				/ PoseRecorder.RECORD_SIZE;
+		if ((numLeft < 0) || (numLeft > maxRecords))
+			throw new IOException(f + " has a bad record count");
+		segment.position(PoseRecorder.HEADER_SIZE);
+	} // end of openSegment()
+
+	public long replay(DetectMarkers detectMarkers, double speed)
+			throws IOException
+	/*
+	 * apply each recorded pose to its marker's model, waiting between them as
+	 * when they were recorded, divided by speed (0 means don't wait); return
+	 * the number of poses applied
+	 */
+	{
+		PoseEvent event = new PoseEvent();
+		Matrix4d mat = new Matrix4d();
+		long numApplied = 0;
+		long startTime = System.nanoTime();
+		long firstTime = 0;
+		maxLateness = 0;
+
+		while (next(event)) {
+			if (numApplied == 0)
+				firstTime = event.time;
+			if (speed > 0) {
+				long due = startTime + (long) ((event.time - firstTime) / speed);
+				long wait = due - System.nanoTime();
+				if (wait > 0)
+					sleepNanos(wait);
+				else
+					maxLateness = Math.max(maxLateness, -wait);
+			}
+
+			MarkerModel mm = detectMarkers.getMarker(event.markerIndex);
+			if (mm != null) {
+				event.getPose(mat);
+				mm.applyPose(mat);
+				mm.resetNumTimesLost();
+			}
+			numApplied++;
+		}
+		return numApplied;
+	} // end of replay()
+
+	private void sleepNanos(long nanos) {
+		try {
+			Thread.sleep(nanos / 1000000, (int) (nanos % 1000000));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	} // end of sleepNanos()
+
+	public long getMaxLateness()
+	// the latest a pose was applied in the last replay (in nanosecs)
+	{
+		return maxLateness;
+	}
+
+	public int getNumSegments() {
+		return segmentFiles.length;
+	}
+
+	// ------------------------------------------------------------
+
+	public static void main(String args[]) {
+		double speed = 1;
+		String dirName = null;
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-speed") && (i + 1 < args.length))
+				speed = Double.parseDouble(args[++i]);
+			else
+				dirName = args[i];
+		}
+		if (dirName == null) {
+			System.out.println("Usage: run PoseReplayer [-speed <n>] <log dir>");
+			System.exit(1);
+		}
+
+		try {
+			// the markers, with placeholders instead of their models; only
+			// the usable ones are added, as in MultiNyAR, so the indices match
+			MarkerCatalog catalog = new MarkerCatalog(CATALOG_FNM);
+			PatternSet patterns = new PatternSet("Data", PatternBundle
+					.openOrCompile("Data", BUNDLE_FNM), catalog.getMarkerFnms());
+			DetectMarkers detectMarkers = new DetectMarkers(null);
+			for (MarkerCatalog.Entry e : catalog.getEntries()) {
+				MarkerModel mm = new MarkerModel(e.getMarkerFnm(), patterns, e
+						.getModelFnm(), e.getScale(), e.hasCoords(), true);
+				if (mm.isUsable())
+					detectMarkers.addMarker(mm);
+			}
+
+			PoseReplayer replayer = new PoseReplayer(dirName);
+			long t0 = System.nanoTime();
+			long n = replayer.replay(detectMarkers, speed);
+			double secs = (System.nanoTime() - t0) / 1e9;
+			System.out.printf("Replayed %d poses from %d segments in %.2f s"
+					+ " (%.0f poses/sec); max lateness %.2f ms\n", n, replayer
+					.getNumSegments(), secs, n / secs, replayer
+					.getMaxLateness() / 1e6);
+
+			PoseEvent event = new PoseEvent(); // count each marker's poses
+			int numMarkers = detectMarkers.getNumMarkers();
+			long[] counts = new long[numMarkers];
+			long numUnknown = 0;
+			replayer = new PoseReplayer(dirName);
+			while (replayer.next(event)) {
+				if ((event.markerIndex >= 0)
+						&& (event.markerIndex < numMarkers))
+					counts[event.markerIndex]++;
+				else
+					numUnknown++;
+			}
+			for (int i = 0; i < numMarkers; i++)
+				System.out.println("  " + i + ". "
+						+ detectMarkers.getMarker(i).getNameInfo() + ": "
+						+ counts[i] + " poses");
+			if (numUnknown > 0)
+				System.out.println("  " + numUnknown
+						+ " poses for markers not in the catalog");
+		} catch (IOException e) {
+			System.out.println(e);
+			System.exit(1);
+		}
+		System.exit(0);
+	} // end of main()
+
+} // end of PoseReplayer class
@@ -0,0 +1,155 @@
+// PoseSolver.java
+
+/* Solves and smooths the poses of the markers found in a frame.
+
+ For each found marker a PoseTask calculates the marker's
+ transformation matrix, adds it to the model's SmoothMatrix, and stores
+ the smoothed result. Nothing in the scene graph is changed, so the
+ tasks can run in parallel; the results are applied to the models
+ afterwards, on the caller's thread (see DetectMarkers.updateModels()).
+
+ With more than one thread, the tasks are run on a pool of daemon
+ threads, each using its own INyARTransMat. With one thread, they are
+ run one after another on the caller's thread.
+
+ The time taken to calculate and to smooth each matrix is recorded in
+ the FrameMetrics.
+ */
+
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import javax.vecmath.Matrix4d;
+
+import jp.nyatla.nyartoolkit.NyARException;
+import jp.nyatla.nyartoolkit.core.transmat.INyARTransMat;
+import jp.nyatla.nyartoolkit.core.transmat.NyARTransMatResult;
+
+public class PoseSolver {
+	private MarkerDetector detector;
+	private FrameMetrics metrics;
+	private ExecutorService pool = null; // null when solving serially
+
+	// one calculator per pool thread, since they can't be shared
+	private ThreadLocal<INyARTransMat> transMats = new ThreadLocal<INyARTransMat>();
+
+	private ArrayList<PoseTask> tasks; // one for each marker, reused
+	private ArrayList<PoseTask> found; // tasks for the current frame
+
+	public PoseSolver(MarkerDetector detector, int numMarkers,
+			int numThreads, FrameMetrics metrics) {
+		this.detector = detector;
+		this.metrics = metrics;
+		tasks = new ArrayList<PoseTask>(numMarkers);
+		for (int i = 0; i < numMarkers; i++)
+			tasks.add(new PoseTask());
+		found = new ArrayList<PoseTask>(numMarkers);
+
+		if (numThreads > 1)
+			pool = Executors.newFixedThreadPool(numThreads, new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "PoseSolver");
+					t.setDaemon(true); // don't stop the JVM from exiting
+					return t;
+				}
+			});
+	} // end of PoseSolver()
+
+	public void clear()
+	// start a new frame
+	{
+		for (PoseTask task : found)
+			task.mat = null; // forget the last frame's poses
+		found.clear();
+	} // end of clear()
+
+	public void add(int mkIdx, MarkerModel mm, int detectedIdx)
+	// solve the pose of mm's marker, detected at detectedIdx
+	{
+		PoseTask task = tasks.get(mkIdx);
+		task.mm = mm;
+		task.detectedIdx = detectedIdx;
+		task.mat = null;
+		found.add(task);
+	} // end of add()
+
+	public void solve() throws NyARException
+	// run all the tasks added since clear()
+	{
+		if ((pool == null) || (found.size() < 2)) {
+			for (PoseTask task : found)
+				task.solve(null); // use the detector's own calculator
+			return;
+		}
+
+		try {
+			for (Future<Void> f : pool.invokeAll(found))
+				f.get(); // rethrows any task exception
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof NyARException)
+				throw (NyARException) e.getCause();
+			throw new RuntimeException(e.getCause());
+		}
+	} // end of solve()
+
+	public Matrix4d getPose(int mkIdx)
+	/*
+	 * the smoothed pose solved for marker mkIdx in this frame, or null if it
+	 * wasn't solved or had no valid transformation matrix
+	 */
+	{
+		return tasks.get(mkIdx).mat;
+	}
+
+	public void shutdown() {
+		if (pool != null)
+			pool.shutdown();
+	}
+
+	// ------------------------------------------------------------
+
+	private class PoseTask implements Callable<Void>
+	// the per-marker work and results for one frame
+	{
+		private NyARTransMatResult transMat = new NyARTransMatResult();
+		private MarkerModel mm;
+		private int detectedIdx;
+		private Matrix4d mat; // the result
+
+		public Void call() throws NyARException
+		// run on a pool thread
+		{
+			INyARTransMat tm = transMats.get();
+			if (tm == null) {
+				tm = detector.createTransMat();
+				transMats.set(tm);
+			}
+			solve(tm);
+			return null;
+		} // end of call()
+
+		private void solve(INyARTransMat tm) throws NyARException {
+			long t0 = System.nanoTime();
+			if (tm == null)
+				detector.getTransmationMatrix(detectedIdx, transMat);
+			else
+				detector.getTransmationMatrix(detectedIdx, tm, transMat);
+			metrics.addTime(FrameMetrics.TRANSFORM, t0);
+
+			if (transMat.has_value) {
+				t0 = System.nanoTime();
+				mat = mm.smoothPose(transMat);
+				metrics.addTime(FrameMetrics.FILTER, t0);
+			} else
+				System.out.println("Problem with transformation matrix");
+		} // end of solve()
+	} // end of PoseTask class
+
+} // end of PoseSolver class
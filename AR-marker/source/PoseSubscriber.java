@@ -0,0 +1,104 @@
+// PoseSubscriber.java
+
+/* One reader of a PoseEventRing, made by PoseEventRing.subscribe(). It
+ should only be polled by one thread.
+
+ poll() copies the next event into a PoseEvent supplied by the caller,
+ so reading allocates nothing. If the subscriber has fallen so far
+ behind that events it hadn't read were overwritten, it skips to the
+ oldest event still in the ring, and counts the ones it missed.
+ */
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+public class PoseSubscriber {
+	private PoseEventRing ring;
+	private String name;
+
+	private volatile long nextSeq; // of the next event to read
+	private volatile long numRead = 0;
+	private volatile long numMissed = 0;
+
+	volatile boolean isLagging = false; // reported as lagging by the ring?
+
+	PoseSubscriber(PoseEventRing ring, String name, long nextSeq) {
+		this.ring = ring;
+		this.name = name;
+		this.nextSeq = nextSeq;
+	} // end of PoseSubscriber()
+
+	public boolean poll(PoseEvent event)
+	// copy the next event into event; return false if there isn't one yet
+	{
+		AtomicLongArray slots = ring.slots;
+		long seq = nextSeq;
+		long missed = 0;
+		boolean found = false;
+		while (!found) {
+			long published = ring.cursor.get();
+			if (seq >= published)
+				break; // nothing new
+			if (published - seq > ring.getCapacity()) { // overwritten
+				missed += published - ring.getCapacity() - seq;
+				seq = published - ring.getCapacity();
+			}
+
+			int base = (int) (seq & ring.getMask()) * PoseEventRing.SLOT_SIZE;
+			if (slots.get(base + PoseEventRing.SEQ) == seq) {
+				event.markerIndex = (int) slots.get(base + PoseEventRing.MARKER);
+				event.time = slots.get(base + PoseEventRing.TIME);
+				event.confidence = Double.longBitsToDouble(slots.get(base
+						+ PoseEventRing.CONFIDENCE));
+				for (int i = 0; i < 16; i++)
+					event.pose[i] = Double.longBitsToDouble(slots.get(base
+							+ PoseEventRing.POSE + i));
+				found = (slots.get(base + PoseEventRing.SEQ) == seq);
+				// otherwise it was overwritten while being copied
+			}
+			if (!found) {
+				missed++;
+				seq++;
+			}
+		}
+
+		if (missed > 0)
+			numMissed += missed;
+		if (found) {
+			seq++;
+			numRead++;
+		}
+		nextSeq = seq;
+		return found;
+	} // end of poll()
+
+	public void close()
+	// stop receiving events
+	{
+		ring.unsubscribe(this);
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	long getNextSeq() {
+		return nextSeq;
+	}
+
+	public long getBacklog()
+	// events published but not read yet
+	{
+		return Math.max(0, ring.cursor.get() - nextSeq);
+	}
+
+	public long getNumRead() {
+		return numRead;
+	}
+
+	public long getNumMissed()
+	// events overwritten before this subscriber read them
+	{
+		return numMissed;
+	}
+
+} // end of PoseSubscriber class
@@ -43,6 +43,9 @@
  April 2010
  - fixed rotInfo generic typing
  - used Java3D's ObjectFile to load wavefront files so material is correct
+
+ - the loaded geometry is kept in a GeometryCache, so later runs don't
+   need to parse (and triangulate and stripify) the model file again
  */
 
 import java.io.BufferedReader;
@@ -126,30 +129,39 @@ public class PropManager {
 	 * object. moveTG-->rotTG-->scaleTG-->objBoundsTG-->object
 	 */
 	{
-		System.out.println("Loading model file: models/" + fnm);
-
 		String ext = getExtension(fnm);
-		Scene s = null;
-		try {
-			if (ext.equals("obj")) { // the file is a wavefront model
-				// System.out.println("Loading obj file");
-				ObjectFile of = new ObjectFile();
-				of.setFlags(ObjectFile.RESIZE | ObjectFile.TRIANGULATE
-						| ObjectFile.STRIPIFY);
-				s = of.load("models/" + fnm);
-			} else { // use Portfolio loader for other models
-				ModelLoader modelLoader = new ModelLoader();
-				s = modelLoader.load("models/" + fnm); // handles many types of
-														// file
+		int objFlags = ObjectFile.RESIZE | ObjectFile.TRIANGULATE
+				| ObjectFile.STRIPIFY;
+		GeometryCache cache = new GeometryCache("models/" + fnm, ext
+				.equals("obj") ? "ObjectFile " + objFlags : "ModelLoader");
+
+		// get the branch group for the object, from the cache if possible
+		BranchGroup sceneGroup = cache.load();
+		if (sceneGroup != null)
+			System.out.println("Loaded model file: models/" + fnm
+					+ " from the cache");
+		else {
+			System.out.println("Loading model file: models/" + fnm);
+			Scene s = null;
+			try {
+				if (ext.equals("obj")) { // the file is a wavefront model
+					// System.out.println("Loading obj file");
+					ObjectFile of = new ObjectFile();
+					of.setFlags(objFlags);
+					s = of.load("models/" + fnm);
+				} else { // use Portfolio loader for other models
+					ModelLoader modelLoader = new ModelLoader();
+					s = modelLoader.load("models/" + fnm); // handles many types
+															// of file
+				}
+			} catch (Exception e) {
+				System.err.println(e);
+				System.exit(1);
 			}
-		} catch (Exception e) {
-			System.err.println(e);
-			System.exit(1);
+			sceneGroup = s.getSceneGroup();
+			cache.save(sceneGroup); // for next time
 		}
 
-		// get the branch group for the loaded object
-		BranchGroup sceneGroup = s.getSceneGroup();
-
 		// create a transform group for the object's bounding sphere
 		TransformGroup objBoundsTG = new TransformGroup();
 		objBoundsTG.addChild(sceneGroup);
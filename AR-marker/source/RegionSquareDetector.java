@@ -0,0 +1,108 @@
+// RegionSquareDetector.java
+
+/* A square detector, based on NyARToolkit's
+ NyARSquareContourDetector_Rle, which can be limited to a band of rows
+ of the binary raster.
+
+ MarkerDetector uses the band when tracking: only the parts of the
+ raster near the markers found in the last frame are thresholded, and
+ the rest of the raster is left white, so there's nothing to be found
+ outside the rows those parts cover.
+
+ The dark regions are labelled (with NyARLabeling_Rle), and the contour
+ of each region of a suitable size is checked for four vertices. Regions
+ touching the edge of the raster are ignored, as are regions inside
+ a square already found.
+ */
+
+import jp.nyatla.nyartoolkit.NyARException;
+import jp.nyatla.nyartoolkit.core.labeling.LabelOverlapChecker;
+import jp.nyatla.nyartoolkit.core.labeling.rlelabeling.NyARLabeling_Rle;
+import jp.nyatla.nyartoolkit.core.labeling.rlelabeling.RleLabelFragmentInfoStack;
+import jp.nyatla.nyartoolkit.core.labeling.rlelabeling.RleLabelFragmentInfoStack.RleLabelFragmentInfo;
+import jp.nyatla.nyartoolkit.core.raster.NyARBinRaster;
+import jp.nyatla.nyartoolkit.core.squaredetect.ContourPickup;
+import jp.nyatla.nyartoolkit.core.squaredetect.Coord2SquareVertexIndexes;
+import jp.nyatla.nyartoolkit.core.squaredetect.INyARSquareContourDetector;
+import jp.nyatla.nyartoolkit.core.types.NyARIntSize;
+
+public class RegionSquareDetector implements INyARSquareContourDetector {
+	// limits on a region's area in pixels, as in ARToolKit
+	private static final int AREA_MAX = 100000;
+	private static final int AREA_MIN = 70;
+
+	private int width, height;
+
+	private NyARLabeling_Rle labeling;
+	private RleLabelFragmentInfoStack labels;
+	private LabelOverlapChecker<RleLabelFragmentInfo> overlapChecker;
+	private ContourPickup contourPickup = new ContourPickup();
+	private Coord2SquareVertexIndexes coord2vertex = new Coord2SquareVertexIndexes();
+
+	// the contour of the current region, and its vertices
+	private int maxCoords;
+	private int[] xCoords, yCoords;
+	private int[] vertexIdxs = new int[4];
+
+	public RegionSquareDetector(NyARIntSize size) throws NyARException {
+		width = size.w;
+		height = size.h;
+		labeling = new NyARLabeling_Rle(width, height);
+		labeling.setAreaRange(AREA_MAX, AREA_MIN);
+		// the most labels that can be found, as in NyARToolkit
+		labels = new RleLabelFragmentInfoStack((int) ((long) width * height
+				* 2048 / (320 * 240)) + 32);
+		overlapChecker = new LabelOverlapChecker<RleLabelFragmentInfo>(32,
+				RleLabelFragmentInfo.class);
+
+		maxCoords = (width + height) * 2;
+		xCoords = new int[maxCoords];
+		yCoords = new int[maxCoords];
+	} // end of RegionSquareDetector()
+
+	public void detectMarkerCB(NyARBinRaster binRaster,
+			DetectMarkerCallback callback) throws NyARException
+	// look for squares in the whole raster
+	{
+		detectMarkerCB(binRaster, 0, height, callback);
+	}
+
+	public void detectMarkerCB(NyARBinRaster binRaster, int top, int bottom,
+			DetectMarkerCallback callback) throws NyARException
+	/*
+	 * look for squares in the rows from top to bottom-1, calling
+	 * callback.onSquareDetect() for each one; the rows above top must be
+	 * white (NyARLabeling_Rle reads the first row from the wrong place, which
+	 * is harmless only if that place is white)
+	 */
+	{
+		int numLabels = labeling.labeling(binRaster, top, bottom, labels);
+		if (numLabels < 1)
+			return;
+		labels.sortByArea(); // biggest first
+		RleLabelFragmentInfo[] labelArr = labels.getArray();
+
+		overlapChecker.setMaxLabels(numLabels);
+		for (int i = 0; i < numLabels; i++) {
+			RleLabelFragmentInfo label = labelArr[i];
+			if ((label.clip_l == 0) || (label.clip_r == width - 1)
+					|| (label.clip_t == 0) || (label.clip_b == height - 1))
+				continue; // touches the edge of the raster
+			if (!overlapChecker.check(label))
+				continue; // inside a region already used
+
+			int numCoords = contourPickup.getContour(binRaster, label.entry_x,
+					label.clip_t, maxCoords, xCoords, yCoords);
+			if (numCoords == maxCoords)
+				continue; // contour too long
+			if (!coord2vertex.getVertexIndexes(xCoords, yCoords, numCoords,
+					label.area, vertexIdxs))
+				continue; // not a square
+
+			callback.onSquareDetect(this, xCoords, yCoords, numCoords,
+					vertexIdxs);
+			overlapChecker.push(label);
+		}
+	} // end of detectMarkerCB()
+
+} // end of RegionSquareDetector class
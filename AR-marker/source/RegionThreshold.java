@@ -0,0 +1,217 @@
+// RegionThreshold.java
+
+/* Thresholds rectangular parts of an RGB raster into a binary raster,
+ in the same way as NyARToolkit's NyARRasterFilter_ARToolkitThreshold
+ (a pixel is black (0) if R+G+B <= 3*threshold, otherwise white (1)),
+ which only works on whole rasters.
+
+ The rectangles are given as (left, top, right, bottom), with right
+ and bottom exclusive.
+
+ reduce() thresholds a raster into a binary raster scale times smaller
+ in each direction (a level of an image pyramid), using the average of
+ each scale x scale block of pixels, so small squares can be found
+ quickly in large frames (see MarkerDetector).
+
+ Only the 24- and 32-bit buffer formats are handled; isSupported()
+ reports whether a raster's format is one of them.
+
+ threshold() reads the raster's buffer directly, in one loop per row.
+ For the 32-bit formats, the loop is done by VectorThreshold if it
+ can be loaded (see the vector directory), which uses the JDK's Vector
+ API; otherwise, or if the "threshold.vector" property is "false"
+ (e.g. -Dthreshold.vector=false), the loops here are used.
+ */
+
+import java.util.Arrays;
+
+import jp.nyatla.nyartoolkit.core.raster.NyARBinRaster;
+import jp.nyatla.nyartoolkit.core.raster.rgb.INyARRgbRaster;
+import jp.nyatla.nyartoolkit.core.rasterreader.INyARBufferReader;
+
+public class RegionThreshold {
+	private static final String VECTOR_KERNEL = "VectorThreshold";
+
+	private static ThresholdKernel vectorKernel = loadVectorKernel();
+	// null if the Vector API can't be used
+	private static boolean isVectorized = (vectorKernel != null);
+
+	private static ThresholdKernel loadVectorKernel()
+	// the Vector API kernel, or null if it isn't available
+	{
+		if (System.getProperty("threshold.vector", "true").equals("false"))
+			return null;
+		try {
+			return (ThresholdKernel) Class.forName(VECTOR_KERNEL)
+					.getDeclaredConstructor().newInstance();
+		} catch (ClassNotFoundException e) { // not on the classpath
+		} catch (LinkageError e) { // the module wasn't added
+		} catch (ReflectiveOperationException e) { // couldn't be made
+			System.out.println("Could not make " + VECTOR_KERNEL + ": " + e);
+		} catch (Exception e) {
+			System.out.println("Could not load " + VECTOR_KERNEL + ": " + e);
+		}
+		return null;
+	} // end of loadVectorKernel()
+
+	public static void setVectorized(boolean b)
+	// use the Vector API kernel (if it was loaded), or the loops here
+	{
+		isVectorized = b && (vectorKernel != null);
+	}
+
+	public static boolean isVectorized() {
+		return isVectorized;
+	}
+
+	public static boolean isVectorized(int bufferType)
+	// will threshold() use the Vector API kernel for this buffer format?
+	{
+		if (!isVectorized)
+			return false;
+		return (bufferType == INyARBufferReader.BUFFERFORMAT_BYTE1D_B8G8R8X8_32)
+				|| (bufferType == INyARBufferReader.BUFFERFORMAT_BYTE1D_X8R8G8B8_32)
+				|| (bufferType == INyARBufferReader.BUFFERFORMAT_INT1D_X8R8G8B8_32);
+	} // end of isVectorized()
+
+	public static boolean isSupported(int bufferType) {
+		return (bufferType == INyARBufferReader.BUFFERFORMAT_BYTE1D_R8G8B8_24)
+				|| (bufferType == INyARBufferReader.BUFFERFORMAT_BYTE1D_B8G8R8_24)
+				|| (bufferType == INyARBufferReader.BUFFERFORMAT_BYTE1D_B8G8R8X8_32)
+				|| (bufferType == INyARBufferReader.BUFFERFORMAT_BYTE1D_X8R8G8B8_32)
+				|| (bufferType == INyARBufferReader.BUFFERFORMAT_INT1D_X8R8G8B8_32);
+	} // end of isSupported()
+
+	public static void threshold(INyARRgbRaster raster, NyARBinRaster binRaster,
+			int threshold, int left, int top, int right, int bottom)
+	// threshold the rectangle of raster into the same place in binRaster
+	{
+		INyARBufferReader reader = raster.getBufferReader();
+		int[] outBuf = (int[]) binRaster.getBufferReader().getBuffer();
+		int width = binRaster.getWidth();
+		int th = threshold * 3;
+
+		int bufferType = reader.getBufferType();
+		ThresholdKernel kernel = isVectorized ? vectorKernel : null;
+		if (bufferType == INyARBufferReader.BUFFERFORMAT_INT1D_X8R8G8B8_32) {
+			int[] inBuf = (int[]) reader.getBuffer();
+			for (int y = top; y < bottom; y++) {
+				if (kernel != null) {
+					int i = y * width + left;
+					kernel.thresholdInts(inBuf, i, outBuf, i, right - left, th);
+					continue;
+				}
+				int end = y * width + right;
+				for (int i = y * width + left; i < end; i++) {
+					int pix = inBuf[i];
+					int sum = ((pix >> 16) & 0xff) + ((pix >> 8) & 0xff)
+							+ (pix & 0xff);
+					outBuf[i] = (sum <= th) ? 0 : 1;
+				}
+			}
+			return;
+		}
+
+		// byte buffers: find the bytes per pixel, and where R,G,B start
+		int pixLen = 4;
+		int offset = 0;
+		if ((bufferType == INyARBufferReader.BUFFERFORMAT_BYTE1D_R8G8B8_24)
+				|| (bufferType == INyARBufferReader.BUFFERFORMAT_BYTE1D_B8G8R8_24))
+			pixLen = 3;
+		else if (bufferType == INyARBufferReader.BUFFERFORMAT_BYTE1D_X8R8G8B8_32)
+			offset = 1;
+
+		byte[] inBuf = (byte[]) reader.getBuffer();
+		if (pixLen == 3)
+			kernel = null; // pixels don't fit the kernel's int lanes
+		// (see isVectorized())
+		for (int y = top; y < bottom; y++) {
+			if (kernel != null) {
+				int i = y * width + left;
+				kernel.thresholdBytes(inBuf, i * 4, offset, outBuf, i, right
+						- left, th);
+				continue;
+			}
+			int end = y * width + right;
+			int bp = (y * width + left) * pixLen + offset;
+			for (int i = y * width + left; i < end; i++) {
+				int sum = (inBuf[bp] & 0xff) + (inBuf[bp + 1] & 0xff)
+						+ (inBuf[bp + 2] & 0xff);
+				outBuf[i] = (sum <= th) ? 0 : 1;
+				bp += pixLen;
+			}
+		}
+	} // end of threshold()
+
+	public static void reduce(INyARRgbRaster raster, NyARBinRaster binRaster,
+			int threshold, int scale, int left, int top, int right, int bottom)
+	/*
+	 * threshold the averages of the scale x scale blocks of raster into
+	 * binRaster, which is scale times smaller; the rectangle is in binRaster's
+	 * coordinates
+	 */
+	{
+		INyARBufferReader reader = raster.getBufferReader();
+		int[] outBuf = (int[]) binRaster.getBufferReader().getBuffer();
+		int width = binRaster.getWidth();
+		int inWidth = raster.getWidth();
+		int th = threshold * 3 * scale * scale; // for the sum of a block
+
+		int bufferType = reader.getBufferType();
+		if (bufferType == INyARBufferReader.BUFFERFORMAT_INT1D_X8R8G8B8_32) {
+			int[] inBuf = (int[]) reader.getBuffer();
+			for (int y = top; y < bottom; y++) {
+				for (int x = left; x < right; x++) {
+					int sum = 0;
+					for (int by = 0; by < scale; by++) {
+						int ip = (y * scale + by) * inWidth + x * scale;
+						for (int bx = 0; bx < scale; bx++) {
+							int pix = inBuf[ip++];
+							sum += ((pix >> 16) & 0xff) + ((pix >> 8) & 0xff)
+									+ (pix & 0xff);
+						}
+					}
+					outBuf[y * width + x] = (sum <= th) ? 0 : 1;
+				}
+			}
+			return;
+		}
+
+		// byte buffers: find the bytes per pixel, and where R,G,B start
+		int pixLen = 4;
+		int offset = 0;
+		if ((bufferType == INyARBufferReader.BUFFERFORMAT_BYTE1D_R8G8B8_24)
+				|| (bufferType == INyARBufferReader.BUFFERFORMAT_BYTE1D_B8G8R8_24))
+			pixLen = 3;
+		else if (bufferType == INyARBufferReader.BUFFERFORMAT_BYTE1D_X8R8G8B8_32)
+			offset = 1;
+
+		byte[] inBuf = (byte[]) reader.getBuffer();
+		int blockLen = scale * pixLen;
+		for (int y = top; y < bottom; y++) {
+			for (int x = left; x < right; x++) {
+				int sum = 0;
+				for (int by = 0; by < scale; by++) {
+					int bp = ((y * scale + by) * inWidth + x * scale) * pixLen
+							+ offset;
+					int end = bp + blockLen;
+					for (; bp < end; bp += pixLen)
+						sum += (inBuf[bp] & 0xff) + (inBuf[bp + 1] & 0xff)
+								+ (inBuf[bp + 2] & 0xff);
+				}
+				outBuf[y * width + x] = (sum <= th) ? 0 : 1;
+			}
+		}
+	} // end of reduce()
+
+	public static void clear(NyARBinRaster binRaster, int left, int top,
+			int right, int bottom)
+	// make the rectangle of binRaster white
+	{
+		int[] outBuf = (int[]) binRaster.getBufferReader().getBuffer();
+		int width = binRaster.getWidth();
+		for (int y = top; y < bottom; y++)
+			Arrays.fill(outBuf, y * width + left, y * width + right, 1);
+	} // end of clear()
+
+} // end of RegionThreshold class
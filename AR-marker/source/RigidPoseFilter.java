@@ -0,0 +1,108 @@
+// RigidPoseFilter.java
+
+/* The base of the pose filters that smooth a marker's position and
+ rotation separately, rather than averaging matrices element by
+ element (as SmoothMatrix does). The rotation is held as a unit
+ quaternion, so it stays a proper rotation however it's smoothed.
+
+ Each added transform is split into a position and a quaternion, which
+ is flipped if necessary to lie in the same hemisphere as the current
+ rotation (q and -q are the same rotation). A subclass then updates
+ the filtered pose (pos and rot) from them.
+
+ The filter restarts from the new pose if the marker hasn't been seen
+ for more than MAX_GAP seconds.
+ */
+
+import javax.vecmath.Matrix3d;
+import javax.vecmath.Matrix4d;
+import javax.vecmath.Quat4d;
+import javax.vecmath.Vector3d;
+
+import jp.nyatla.nyartoolkit.core.transmat.NyARTransMatResult;
+
+public abstract class RigidPoseFilter implements PoseFilter {
+	private static final double MAX_GAP = 0.5; // secs
+	private static final double MIN_DT = 0.001; // secs, for repeated times
+
+	// the filtered pose
+	protected Vector3d pos = new Vector3d();
+	protected Quat4d rot = new Quat4d();
+
+	private boolean hasPose = false;
+	private double lastTime;
+
+	// reused for each added transform, and by get()
+	private Matrix3d rotMat = new Matrix3d();
+	private Vector3d newPos = new Vector3d();
+	private Quat4d newRot = new Quat4d();
+	private Matrix4d mat = new Matrix4d();
+
+	public boolean add(NyARTransMatResult transMat, double time) {
+		if (!SmoothMatrix.isAffine(transMat)) {
+			System.out.println("Not adding a non-affine matrix");
+			return false;
+		}
+
+		// flip the x- and y- axes, as in SmoothMatrix
+		rotMat.m00 = -transMat.m00;
+		rotMat.m01 = -transMat.m01;
+		rotMat.m02 = -transMat.m02;
+		rotMat.m10 = -transMat.m10;
+		rotMat.m11 = -transMat.m11;
+		rotMat.m12 = -transMat.m12;
+		rotMat.m20 = transMat.m20;
+		rotMat.m21 = transMat.m21;
+		rotMat.m22 = transMat.m22;
+		newRot.set(rotMat);
+		newRot.normalize();
+		newPos.set(-transMat.m03, -transMat.m13, transMat.m23);
+
+		double dt = time - lastTime;
+		if (!hasPose || (dt > MAX_GAP) || (dt < 0)) {
+			pos.set(newPos);
+			rot.set(newRot);
+			start();
+			hasPose = true;
+		} else {
+			if (dot(rot, newRot) < 0)
+				newRot.negate(); // same rotation, nearer to rot
+			update(newPos, newRot, Math.max(dt, MIN_DT));
+			rot.normalize();
+		}
+		lastTime = time;
+		return true;
+	} // end of add()
+
+	protected abstract void start();
+	// the filter has (re)started with pos and rot set to the first pose
+
+	protected abstract void update(Vector3d p, Quat4d q, double dt);
+	// move pos and rot towards the new pose (p,q), dt seconds after the last
+
+	public Matrix4d get() {
+		if (!hasPose)
+			return null;
+		mat.set(rot, pos, 1.0);
+		return mat;
+	} // end of get()
+
+	public void reset() {
+		hasPose = false;
+	}
+
+	protected static double dot(Quat4d q1, Quat4d q2) {
+		return q1.x * q2.x + q1.y * q2.y + q1.z * q2.z + q1.w * q2.w;
+	}
+
+	protected static double smoothingFactor(double cutoff, double dt)
+	/*
+	 * the weight given to a new value by an exponential smoothing (low-pass)
+	 * filter with the given cutoff frequency (Hz)
+	 */
+	{
+		double tau = 1.0 / (2 * Math.PI * cutoff);
+		return 1.0 / (1.0 + tau / dt);
+	} // end of smoothingFactor()
+
+} // end of RigidPoseFilter class
@@ -0,0 +1,27 @@
+// SlerpPoseFilter.java
+
+/* Exponential smoothing of a marker's pose: each new position is
+ linearly interpolated into the filtered position, and each new rotation
+ is spherically interpolated (slerped) into the filtered rotation, using
+ the same weight.
+
+ The weight depends on the time since the last pose, so the amount of
+ smoothing doesn't change with the frame rate.
+ */
+
+import javax.vecmath.Quat4d;
+import javax.vecmath.Vector3d;
+
+public class SlerpPoseFilter extends RigidPoseFilter {
+	private static final double CUTOFF = 3.0; // Hz
+
+	protected void start() {
+	}
+
+	protected void update(Vector3d p, Quat4d q, double dt) {
+		double alpha = smoothingFactor(CUTOFF, dt);
+		pos.interpolate(p, alpha);
+		rot.interpolate(q, alpha);
+	} // end of update()
+
+} // end of SlerpPoseFilter class
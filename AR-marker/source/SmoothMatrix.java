@@ -5,72 +5,151 @@
 /* To reduce shaking of model due to slight variations in
    calculaed rotations and positions in the transformation
    matrix.
-*/
 
-import java.util.*;
+   The last size matrices are kept in a ring buffer of doubles,
+   along with their running sum, so add() and get() take the same
+   time whatever the size is, and allocate nothing. Only the top
+   three rows are stored, since the bottom row is always (0 0 0 1).
+
+   Each time the ring buffer wraps around, the sum is recalculated
+   from the stored matrices, oldest first, so rounding errors from the
+   running subtractions don't build up.
+
+   This is the "average" PoseFilter. Averaging 10 frames adds about
+   five frames of lag, so the other filters may be a better choice
+   (see MarkerModel.createPoseFilter()).
+*/
 
-import javax.media.j3d.*;
 import javax.vecmath.*;
 
 import jp.nyatla.nyartoolkit.core.transmat.NyARTransMatResult;
 
 
 
-public class SmoothMatrix
+public class SmoothMatrix implements PoseFilter
 {
-  private final static int MAX_SIZE = 10;
+  private final static int MAX_SIZE = 10;   // default number of matrices
+  private final static int MAT_LEN = 12;   // elements in the top three rows
 
-  private ArrayList<Matrix4d> matsStore;
+  private int size;             // number of matrices averaged
+  private double[] matsStore;   // size matrices, MAT_LEN doubles each
+  private double[] sum;         // sum of the stored matrices
   private int numMats = 0;
+  private int next = 0;         // where the next matrix will be stored
 
+  private Matrix4d avMat;       // reused by get()
 
-  public SmoothMatrix() 
-  {
-    matsStore = new ArrayList<Matrix4d>();
 
+  public SmoothMatrix()
+  {  this(MAX_SIZE);  }
+
+
+  public SmoothMatrix(int size)
+  // a size of 1 means no smoothing
+  {
+    this.size = size;
+    matsStore = new double[size * MAT_LEN];
+    sum = new double[MAT_LEN];
+    avMat = new Matrix4d();
   } // end of SmoothMatrix()
 
 
 
-  public boolean add(NyARTransMatResult transMat)
-  {
+  public boolean add(NyARTransMatResult transMat, double time)
+  // the time isn't needed for an average
+  {  return add(transMat);  }
 
-    Matrix4d mat = new Matrix4d(-transMat.m00, -transMat.m01, -transMat.m02, -transMat.m03,
-                                -transMat.m10, -transMat.m11, -transMat.m12, -transMat.m13, 
-                                 transMat.m20,  transMat.m21,  transMat.m22,  transMat.m23,
-                                 0,             0,             0,             1             );
-    Transform3D t3d = new Transform3D(mat);
 
-    int flags = t3d.getType();
-    if ((flags & Transform3D.AFFINE) == 0) {
+  public boolean add(NyARTransMatResult transMat)
+  {
+    if (!isAffine(transMat)) {
       System.out.println("Not adding a non-affine matrix");
       return false;
     }
-    else {
-      if (numMats == MAX_SIZE) {
-        matsStore.remove(0);   // remove oldest
-        numMats--;
-      }
-      matsStore.add(mat);  // add at end of list
+
+    int pos = next * MAT_LEN;
+    if (numMats == size) {    // remove oldest from the sum
+      for (int i = 0; i < MAT_LEN; i++)
+        sum[i] -= matsStore[pos + i];
+    }
+    else
       numMats++;
-      return true;
+
+    matsStore[pos]    = -transMat.m00;  matsStore[pos+1]  = -transMat.m01;
+    matsStore[pos+2]  = -transMat.m02;  matsStore[pos+3]  = -transMat.m03;
+    matsStore[pos+4]  = -transMat.m10;  matsStore[pos+5]  = -transMat.m11;
+    matsStore[pos+6]  = -transMat.m12;  matsStore[pos+7]  = -transMat.m13;
+    matsStore[pos+8]  =  transMat.m20;  matsStore[pos+9]  =  transMat.m21;
+    matsStore[pos+10] =  transMat.m22;  matsStore[pos+11] =  transMat.m23;
+
+    next = (next + 1) % size;
+    if (next == 0)
+      resum();     // the stored order is now oldest first from index 0
+    else {
+      for (int i = 0; i < MAT_LEN; i++)
+        sum[i] += matsStore[pos + i];
     }
+    return true;
   }  // end of add()
 
 
+  static boolean isAffine(NyARTransMatResult transMat)
+  /* The bottom row is always (0 0 0 1), so the matrix is affine
+     as long as the other elements are proper numbers (which is
+     what Transform3D.getType() checks for). */
+  {
+    return isFinite(transMat.m00) && isFinite(transMat.m01) &&
+           isFinite(transMat.m02) && isFinite(transMat.m03) &&
+           isFinite(transMat.m10) && isFinite(transMat.m11) &&
+           isFinite(transMat.m12) && isFinite(transMat.m13) &&
+           isFinite(transMat.m20) && isFinite(transMat.m21) &&
+           isFinite(transMat.m22) && isFinite(transMat.m23);
+  }  // end of isAffine()
+
+
+  private static boolean isFinite(double d)
+  {  return !Double.isNaN(d) && !Double.isInfinite(d);  }
+
+
+  private void resum()
+  // recalculate the sum of the stored matrices, oldest first
+  {
+    for (int i = 0; i < MAT_LEN; i++)
+      sum[i] = 0;
+    for (int pos = 0; pos < size * MAT_LEN; pos += MAT_LEN)
+      for (int i = 0; i < MAT_LEN; i++)
+        sum[i] += matsStore[pos + i];
+  }  // end of resum()
+
+
+  public void reset()
+  // forget all the stored matrices
+  {
+    numMats = 0;
+    next = 0;
+    for (int i = 0; i < MAT_LEN; i++)
+      sum[i] = 0;
+  }  // end of reset()
+
+
   public Matrix4d get()
-  // average matricies in store
+  /* average matricies in store; the returned matrix is reused,
+     so is only valid until the next call to get() */
   {
     if (numMats == 0)
       return null;
 
-    Matrix4d avMat = new Matrix4d();
-    for(Matrix4d mat : matsStore)
-      avMat.add(mat);
-    avMat.mul( 1.0/numMats );
+    double scale = 1.0/numMats;
+    avMat.m00 = sum[0]*scale;  avMat.m01 = sum[1]*scale;
+    avMat.m02 = sum[2]*scale;  avMat.m03 = sum[3]*scale;
+    avMat.m10 = sum[4]*scale;  avMat.m11 = sum[5]*scale;
+    avMat.m12 = sum[6]*scale;  avMat.m13 = sum[7]*scale;
+    avMat.m20 = sum[8]*scale;  avMat.m21 = sum[9]*scale;
+    avMat.m22 = sum[10]*scale; avMat.m23 = sum[11]*scale;
+    avMat.m30 = 0;  avMat.m31 = 0;  avMat.m32 = 0;
+    avMat.m33 = numMats*scale;    // as in the sum of numMats 1's
 
     return avMat;
   }  // end of get()
 
 }  // end of SmoothMatrix class
-
@@ -0,0 +1,85 @@
+// StartupLoader.java
+
+/* Runs the application's startup work (reading the camera parameters,
+ the marker patterns and the models) on a pool of daemon threads, so
+ it is done in parallel, and logs how long each phase took, and when
+ it finished relative to the start of startup.
+
+ Tasks are started in the order they are submitted, so a task may wait
+ on the result of one submitted before it (see get()) without
+ deadlocking the pool.
+ */
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+public class StartupLoader {
+	private ExecutorService pool;
+	private long startTime; // nanosecs
+
+	public StartupLoader() {
+		startTime = System.nanoTime();
+		int numThreads = Math.max(2, Runtime.getRuntime().availableProcessors());
+		pool = Executors.newFixedThreadPool(numThreads, new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "StartupLoader");
+				t.setDaemon(true); // don't stop the JVM from exiting
+				return t;
+			}
+		});
+	} // end of StartupLoader()
+
+	public <T> Future<T> submit(final String phase, final Callable<T> task)
+	// run task on the pool, logging how long it took
+	{
+		return pool.submit(new Callable<T>() {
+			public T call() throws Exception {
+				long t0 = System.nanoTime();
+				try {
+					T result = task.call();
+					logPhase(phase, t0);
+					return result;
+				} catch (Exception e) {
+					System.out.println("Startup: " + phase + " failed: " + e);
+					throw e;
+				}
+			}
+		});
+	} // end of submit()
+
+	public void logPhase(String phase, long t0)
+	// log a phase which started at t0 (from System.nanoTime()) and just ended
+	{
+		long now = System.nanoTime();
+		System.out.printf("Startup: %s took %.0f ms (done at %.0f ms)\n",
+				phase, (now - t0) / 1e6, (now - startTime) / 1e6);
+	} // end of logPhase()
+
+	public static <T> T get(Future<T> future)
+	/*
+	 * wait for a task's result; if the task failed (see submit()), exit, as
+	 * the application can't start without it
+	 */
+	{
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			System.out.println(e);
+		} catch (ExecutionException e) {
+			// already reported
+		}
+		System.exit(1);
+		return null;
+	} // end of get()
+
+	public void shutdown()
+	// let the pool's threads end once the submitted tasks are done
+	{
+		pool.shutdown();
+	}
+
+} // end of StartupLoader class
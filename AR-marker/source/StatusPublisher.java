@@ -0,0 +1,125 @@
+// StatusPublisher.java
+
+/* Passes the markers' status text from the detection (behavior) thread
+ to a JTextArea, without the detection thread ever waiting on Swing.
+
+ The status is only rebuilt when an update is due (isDue()), at most
+ "status.rate" times a second (default 10), so frames in between cost
+ nothing. The text is written into reused StringBuilders, which are
+ passed to the GUI through a TripleBuffer: the detection thread fills
+ the back builder and publish()es it, and the text area is updated on
+ the event dispatch thread (EDT) from the newest published builder.
+ Updates published before the EDT gets to them are merged, since only
+ the newest is shown.
+
+ The append methods add numbers with a fixed number of decimal places
+ without making any temporary Strings.
+ */
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.swing.JTextArea;
+import javax.swing.SwingUtilities;
+
+public class StatusPublisher {
+	private static final double DEFAULT_RATE = 10; // updates per sec
+	private static final int BUFFER_SIZE = 1024; // initial chars per builder
+
+	private JTextArea textArea;
+	private double period; // secs between updates
+	private double nextUpdate = 0; // time of the next update (in secs)
+
+	private TripleBuffer<StringBuilder> buffers;
+
+	private AtomicBoolean isQueued = new AtomicBoolean(false);
+	// is an update waiting to run on the EDT?
+	private Runnable updater;
+
+	private long numPublished = 0;
+
+	public StatusPublisher(JTextArea ta) {
+		this(ta, Double.parseDouble(System.getProperty("status.rate", ""
+				+ DEFAULT_RATE)));
+	}
+
+	public StatusPublisher(JTextArea ta, double rate) {
+		textArea = ta;
+		period = 1.0 / rate;
+		buffers = new TripleBuffer<StringBuilder>(new StringBuilder(
+				BUFFER_SIZE), new StringBuilder(BUFFER_SIZE),
+				new StringBuilder(BUFFER_SIZE));
+
+		updater = new Runnable() {
+			public void run() // on the EDT
+			{
+				isQueued.set(false); // so a later publish() queues again
+				StringBuilder sb = buffers.acquire();
+				if (sb != null)
+					textArea.setText(sb.toString());
+			}
+		};
+	} // end of StatusPublisher()
+
+	// ------------------- detection thread --------------------
+
+	public boolean isDue(double time)
+	// is it time (in secs) to publish a new status?
+	{
+		return (time >= nextUpdate);
+	}
+
+	public StringBuilder startStatus(double time)
+	// the empty builder to write the new status into
+	{
+		nextUpdate = time + period;
+		StringBuilder sb = buffers.getBack();
+		sb.setLength(0);
+		return sb;
+	} // end of startStatus()
+
+	public void publish()
+	// pass the status to the GUI, unless an update is already queued
+	{
+		buffers.publish();
+		numPublished++;
+		if (isQueued.compareAndSet(false, true))
+			SwingUtilities.invokeLater(updater); // doesn't wait
+	} // end of publish()
+
+	public long getNumPublished() {
+		return numPublished;
+	}
+
+	public long getNumShown()
+	// published statuses that reached the text area
+	{
+		return buffers.getNumAcquired();
+	}
+
+	// ------------------- formatting --------------------------
+
+	public static void append(StringBuilder sb, double val, int places)
+	// add val with the given number of decimal places (up to 9)
+	{
+		if (Double.isNaN(val) || Double.isInfinite(val)
+				|| (Math.abs(val) >= Long.MAX_VALUE / 1e9)) {
+			sb.append(val); // rare, so allocating is okay
+			return;
+		}
+		long scale = 1;
+		for (int i = 0; i < places; i++)
+			scale *= 10;
+		long n = Math.round(Math.abs(val) * scale);
+		if ((val < 0) && (n != 0))
+			sb.append('-');
+		sb.append(n / scale);
+		if (places > 0) {
+			sb.append('.');
+			long frac = n % scale;
+			for (long s = scale / 10; s > frac && s > 1; s /= 10)
+				sb.append('0'); // leading zeros of the fraction
+			sb.append(frac);
+		}
+	} // end of append()
+
+} // end of StatusPublisher class
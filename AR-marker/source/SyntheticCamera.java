@@ -0,0 +1,375 @@
+// SyntheticCamera.java
+
+/* A frame source that replays raw camera dumps through the same
+ DetectMarkers pipeline used by MultiNyAR, without a webcam or a display.
+
+ Each raw file holds one frame: 4 bytes per pixel are read as BGRA
+ (e.g. Data/320x240ABGR.raw), 3 bytes per pixel as RGB
+ (e.g. Data/320x240NyId.raw). The frame size is taken from a
+ "<width>x<height>" prefix in the filename, defaulting to 320x240.
+ All the frames in a run must have the same size and pixel format.
+
+ The frames are loaded into memory first, then played in a loop either
+ at a fixed rate or as fast as possible. Frames/sec and the per-frame
+ latency of DetectMarkers.updateModels() are reported at the end (and
+ periodically during long runs), along with the time taken by each of
+ its stages (see FrameMetrics).
+
+ --------------------
+ Usage:
+ > run SyntheticCamera [-fps <n>] [-frames <n>] [-report <n>] [-threads <n>]
+                        [-track <n>] [-budget <ms>] [-record <dir>]
+                        [-pyramid <n>] [-threshold <n>|auto]
+                        <raw file or dir>...
+
+ -fps 0 (the default) plays the frames as fast as possible.
+ -threads n solves the marker poses on n threads (default 1).
+ -track n searches near the last found markers, with a full-frame
+   search every n frames (default 0: always search the whole frame).
+ -budget ms runs detection through a DetectionScheduler with a frame
+   budget of ms milliseconds (default 0: detect in every frame).
+ -record dir records the found poses in dir (see PoseRecorder), for
+   replaying with PoseReplayer.
+ -pyramid n looks for the markers in frames reduced n times in each
+   direction, and refines them at full size (default 1: no reduction).
+ -threshold n thresholds the frames at brightness n (default 100);
+   -threshold auto chooses each frame's threshold from its histogram
+   (see AutoThreshold).
+ With no file arguments, Data/320x240ABGR.raw is replayed.
+ */
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import jp.nyatla.nyartoolkit.NyARException;
+import jp.nyatla.nyartoolkit.core.param.NyARParam;
+import jp.nyatla.nyartoolkit.core.raster.rgb.INyARRgbRaster;
+import jp.nyatla.nyartoolkit.core.raster.rgb.NyARRgbRaster_BGRA;
+import jp.nyatla.nyartoolkit.core.raster.rgb.NyARRgbRaster_RGB;
+
+public class SyntheticCamera {
+	private static final String PARAMS_FNM = "Data" + MultiNyAR.FILE_SEPARATOR
+			+ "camera_para.dat";
+	private static final String DEFAULT_FRAME_FNM = "Data"
+			+ MultiNyAR.FILE_SEPARATOR + "320x240ABGR.raw";
+
+	private static final long NYID_MARKER = 73474;
+	// the ID of the marker in Data/320x240NyId.raw
+
+	private static final int DEFAULT_WIDTH = 320;
+	private static final int DEFAULT_HEIGHT = 240;
+
+	private static final Pattern SIZE_PATTERN = Pattern
+			.compile("^(\\d+)x(\\d+)");
+
+	private int width = -1, height = -1; // frame size, set by first frame
+	private int bytesPerPixel = -1;
+
+	private ArrayList<INyARRgbRaster> frames; // all the replayed frames
+	private DetectMarkers detectMarkers;
+	private DetectionScheduler scheduler = null; // null means detect always
+	private PoseRecorder recorder = null; // null means don't record
+
+	private long[] latencies; // per-frame updateModels() time (in ns)
+	private int numFrames = 0; // number of frames played so far
+
+	public SyntheticCamera(String[] fnms, int numPoseThreads,
+			int fullScanInterval, double frameBudget, int pyramidScale,
+			int threshold) {
+		frames = new ArrayList<INyARRgbRaster>();
+		for (String fnm : fnms)
+			addFrames(new File(fnm));
+		if (frames.isEmpty()) {
+			System.out.println("No raw frames to replay");
+			System.exit(1);
+		}
+		System.out.println("Loaded " + frames.size() + " frames of " + width
+				+ "x" + height + " (" + bytesPerPixel + " bytes/pixel)");
+
+		NyARParam cameraParams = readCameraParams(PARAMS_FNM);
+		detectMarkers = new DetectMarkers(null); // no GUI to report to
+		addMarkers(detectMarkers);
+		detectMarkers.setPoseThreads(numPoseThreads);
+		detectMarkers.setTracking(fullScanInterval);
+		detectMarkers.setPyramidScale(pyramidScale);
+		detectMarkers.setThreshold(threshold);
+		detectMarkers.createDetector(cameraParams, frames.get(0));
+		if (frameBudget > 0)
+			scheduler = new DetectionScheduler(detectMarkers, frameBudget);
+	} // end of SyntheticCamera()
+
+	public void record(String dirName)
+	// record the poses found while playing in dirName
+	{
+		recorder = new PoseRecorder(detectMarkers.getPoseEvents(), dirName);
+	}
+
+	private void addFrames(File f)
+	// add a raw frame file, or all the raw files in a directory
+	{
+		if (f.isDirectory()) {
+			File[] files = f.listFiles();
+			Arrays.sort(files); // replay in name order
+			for (File file : files)
+				if (file.isFile() && file.getName().endsWith(".raw"))
+					addFrames(file);
+			return;
+		}
+
+		int w = DEFAULT_WIDTH;
+		int h = DEFAULT_HEIGHT;
+		Matcher m = SIZE_PATTERN.matcher(f.getName());
+		if (m.find()) {
+			w = Integer.parseInt(m.group(1));
+			h = Integer.parseInt(m.group(2));
+		}
+
+		byte[] buf = readFile(f);
+		if ((buf == null) || (buf.length % (w * h) != 0)) {
+			System.out.println("Skipping " + f + ": not a " + w + "x" + h
+					+ " frame");
+			return;
+		}
+		int bpp = buf.length / (w * h);
+		if ((bpp != 3) && (bpp != 4)) {
+			System.out.println("Skipping " + f + ": unsupported "
+					+ bpp + " bytes/pixel");
+			return;
+		}
+
+		if (frames.isEmpty()) { // first frame fixes the format for the run
+			width = w;
+			height = h;
+			bytesPerPixel = bpp;
+		} else if ((w != width) || (h != height) || (bpp != bytesPerPixel)) {
+			System.out.println("Skipping " + f
+					+ ": different format from first frame");
+			return;
+		}
+
+		if (bpp == 4)
+			frames.add(NyARRgbRaster_BGRA.wrap(buf, w, h));
+		else
+			frames.add(NyARRgbRaster_RGB.wrap(buf, w, h));
+	} // end of addFrames()
+
+	private byte[] readFile(File f) {
+		byte[] buf = new byte[(int) f.length()];
+		try {
+			FileInputStream fs = new FileInputStream(f);
+			int pos = 0;
+			while (pos < buf.length) {
+				int n = fs.read(buf, pos, buf.length - pos);
+				if (n < 0)
+					break;
+				pos += n;
+			}
+			fs.close();
+			if (pos < buf.length)
+				return null;
+		} catch (IOException e) {
+			System.out.println("Could not read " + f + ": " + e);
+			return null;
+		}
+		return buf;
+	} // end of readFile()
+
+	private NyARParam readCameraParams(String fnm) {
+		NyARParam cameraParams = null;
+		try {
+			cameraParams = new NyARParam();
+			cameraParams.loadARParamFromFile(fnm);
+			cameraParams.changeScreenSize(width, height);
+		} catch (NyARException e) {
+			System.out.println("Could not read camera parameters from " + fnm);
+			System.exit(1);
+		}
+		return cameraParams;
+	} // end of readCameraParams()
+
+	private void addMarkers(DetectMarkers detectMarkers)
+	/*
+	 * the same markers and models as MultiNyAR.createSceneGraph(), and the ID
+	 * marker in Data/320x240NyId.raw
+	 */
+	{
+		MarkerModel mm1 = new MarkerModel("patt.hiro", "robot.3ds", 0.15, false);
+		if (mm1.isUsable())
+			detectMarkers.addMarker(mm1);
+
+		MarkerModel mm2 = new MarkerModel("patt.kanji", "cow.obj", 0.12, true);
+		if (mm2.isUsable())
+			detectMarkers.addMarker(mm2);
+
+		MarkerModel mm3 = new MarkerModel(MarkerModel.ID_PREFIX + NYID_MARKER,
+				"robot.3ds", 0.15, false);
+		if (mm3.isUsable())
+			detectMarkers.addMarker(mm3);
+	} // end of addMarkers()
+
+	public void play(int totalFrames, double fps, int reportInterval)
+	/*
+	 * replay the loaded frames (cyclically) into the detector, pacing them at
+	 * fps frames/sec, or as fast as possible if fps <= 0
+	 */
+	{
+		latencies = new long[totalFrames];
+		long period = (fps > 0) ? (long) (1000000000L / fps) : 0;
+
+		long startTime = System.nanoTime();
+		long nextFrameTime = startTime;
+		for (numFrames = 0; numFrames < totalFrames;) {
+			if (period > 0) {
+				waitUntil(nextFrameTime);
+				nextFrameTime += period;
+			}
+			INyARRgbRaster raster = frames.get(numFrames % frames.size());
+
+			long t0 = System.nanoTime();
+			if (scheduler != null)
+				scheduler.update(raster);
+			else
+				detectMarkers.updateModels(raster);
+			latencies[numFrames] = System.nanoTime() - t0;
+			numFrames++;
+
+			if ((reportInterval > 0) && (numFrames % reportInterval == 0))
+				report(System.nanoTime() - startTime);
+		}
+		if ((reportInterval <= 0) || (numFrames % reportInterval != 0))
+			report(System.nanoTime() - startTime); // final stats
+
+		if (recorder != null) {
+			recorder.close();
+			System.out.printf("  recorded %d poses in %d segments"
+					+ " (%d missed)\n", recorder.getNumRecorded(), recorder
+					.getNumSegments(), recorder.getNumMissed());
+		}
+	} // end of play()
+
+	private void waitUntil(long time) {
+		long delay;
+		while ((delay = time - System.nanoTime()) > 0) {
+			try {
+				Thread.sleep(delay / 1000000, (int) (delay % 1000000));
+			} catch (InterruptedException e) {
+				return;
+			}
+		}
+	} // end of waitUntil()
+
+	private void report(long elapsedTime)
+	// print throughput and latency stats for the frames played so far
+	{
+		if (numFrames == 0) {
+			System.out.println("No frames played");
+			return;
+		}
+		long[] sorted = Arrays.copyOf(latencies, numFrames);
+		Arrays.sort(sorted);
+		long total = 0;
+		for (long lat : sorted)
+			total += lat;
+
+		double secs = elapsedTime / 1e9;
+		System.out.printf("%d frames in %.2f s: %.1f frames/sec\n", numFrames,
+				secs, numFrames / secs);
+		System.out.printf(
+				"  latency (ms): avg %.3f  min %.3f  p50 %.3f  p99 %.3f  max %.3f\n",
+				total / 1e6 / numFrames, sorted[0] / 1e6,
+				percentile(sorted, 0.50) / 1e6, percentile(sorted, 0.99) / 1e6,
+				sorted[numFrames - 1] / 1e6);
+
+		PatternIndex index = detectMarkers.getPatternIndex();
+		if (index != null)
+			System.out.printf("  pattern index: %d lookups, hit rate %.1f%%\n",
+					index.getNumLookups(), index.getHitRate() * 100);
+
+		MarkerTracker tracker = detectMarkers.getTracker();
+		if (tracker != null)
+			System.out.printf(
+					"  tracking: %d region searches, %d full (%d after a loss)\n",
+					tracker.getNumRegionScans(), tracker.getNumFullScans(),
+					tracker.getNumRescans());
+
+		if (scheduler != null)
+			System.out.printf("  scheduler: detected %d of %d frames (stride %d,"
+					+ " %.1f ms each, %.1f/sec); extrapolation error %.2f mm"
+					+ " %.2f deg\n", scheduler.getNumDetected(),
+					scheduler.getNumFrames(), scheduler.getStride(),
+					scheduler.getDetectionTime() * 1000,
+					scheduler.getDetectionRate(),
+					scheduler.getExtrapolationPosError() * 1000,
+					Math.toDegrees(scheduler.getExtrapolationRotError()));
+
+		FrameMetrics metrics = detectMarkers.getMetrics();
+		for (String line : metrics.getSummary())
+			if (!line.endsWith("(0)")) // skip stages that didn't run
+				System.out.println("  " + line);
+	} // end of report()
+
+	private long percentile(long[] sorted, double p) {
+		int idx = (int) Math.ceil(p * sorted.length) - 1;
+		return sorted[Math.max(0, Math.min(idx, sorted.length - 1))];
+	}
+
+	// ------------------------------------------------------------
+
+	public static void main(String args[]) {
+		double fps = 0; // as fast as possible
+		int totalFrames = 1000;
+		int reportInterval = 0; // only report at the end
+		int numPoseThreads = 1;
+		int fullScanInterval = 0; // no tracking
+		double frameBudget = 0; // no scheduler
+		String recordDir = null; // don't record
+		int pyramidScale = 1; // search full-size frames
+		int threshold = 100;
+		ArrayList<String> fnms = new ArrayList<String>();
+
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-fps") && (i + 1 < args.length))
+				fps = Double.parseDouble(args[++i]);
+			else if (args[i].equals("-frames") && (i + 1 < args.length))
+				totalFrames = Integer.parseInt(args[++i]);
+			else if (args[i].equals("-report") && (i + 1 < args.length))
+				reportInterval = Integer.parseInt(args[++i]);
+			else if (args[i].equals("-threads") && (i + 1 < args.length))
+				numPoseThreads = Integer.parseInt(args[++i]);
+			else if (args[i].equals("-track") && (i + 1 < args.length))
+				fullScanInterval = Integer.parseInt(args[++i]);
+			else if (args[i].equals("-budget") && (i + 1 < args.length))
+				frameBudget = Double.parseDouble(args[++i]) / 1000;
+			else if (args[i].equals("-record") && (i + 1 < args.length))
+				recordDir = args[++i];
+			else if (args[i].equals("-pyramid") && (i + 1 < args.length))
+				pyramidScale = Integer.parseInt(args[++i]);
+			else if (args[i].equals("-threshold") && (i + 1 < args.length)) {
+				String th = args[++i];
+				threshold = th.equals("auto") ? DetectMarkers.AUTO_THRESHOLD
+						: Integer.parseInt(th);
+			} else
+				fnms.add(args[i]);
+		}
+		if (totalFrames <= 0) {
+			System.out.println("-frames must be at least 1");
+			System.exit(1);
+		}
+		if (fnms.isEmpty())
+			fnms.add(DEFAULT_FRAME_FNM);
+
+		SyntheticCamera camera = new SyntheticCamera(
+				fnms.toArray(new String[fnms.size()]), numPoseThreads,
+				fullScanInterval, frameBudget, pyramidScale, threshold);
+		if (recordDir != null)
+			camera.record(recordDir);
+		camera.play(totalFrames, fps, reportInterval);
+		System.exit(0);
+	} // end of main()
+
+} // end of SyntheticCamera class
@@ -0,0 +1,24 @@
+// ThresholdKernel.java
+
+/* The inner loop of RegionThreshold.threshold(), for one run of
+ pixels in a row, which can be replaced by a faster version (see
+ VectorThreshold in the vector directory).
+
+ Each pixel's R+G+B is compared with th (three times the threshold):
+ the pixel is black (0) if it's <= th, otherwise white (1).
+ */
+
+public interface ThresholdKernel {
+
+	void thresholdInts(int[] inBuf, int inPos, int[] outBuf, int outPos,
+			int len, int th);
+	// len pixels in INT1D_X8R8G8B8_32 format, starting at inBuf[inPos]
+
+	void thresholdBytes(byte[] inBuf, int inPos, int offset, int[] outBuf,
+			int outPos, int len, int th);
+	/*
+	 * len 4-byte pixels starting at inBuf[inPos], whose R,G,B bytes (in
+	 * either order) start offset bytes into each pixel
+	 */
+
+} // end of ThresholdKernel interface
@@ -0,0 +1,108 @@
+// TripleBuffer.java
+
+/* A lock-free triple buffer for handing frames from a single producer
+ (the camera capture thread) to a single consumer (the detector).
+
+ The three slots are always owned as follows:
+   - the back slot, which only the producer writes into,
+   - the middle slot, holding the newest complete frame,
+   - the front slot, which only the consumer reads from.
+
+ The producer fills the back slot then publish()es it, swapping it with
+ the middle slot. The consumer calls acquire(), which swaps the front
+ slot with the middle one if a new frame has been published since the
+ last acquire(). Neither side ever waits for the other.
+
+ The middle slot's index and a "fresh" flag are packed into a single
+ AtomicInteger so each swap is one getAndSet().
+
+ Two counts are kept:
+   - dropped: published frames that were replaced by a newer frame
+     before the consumer got to them,
+   - skipped: acquire() calls that found no new frame.
+ */
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class TripleBuffer<T> {
+	private static final int INDEX_MASK = 3;
+	private static final int FRESH = 4; // middle slot holds an unread frame
+
+	private final T[] slots;
+	private final AtomicInteger middle = new AtomicInteger(1);
+	private int back = 0; // only used by the producer
+	private int front = 2; // only used by the consumer
+
+	// written by a single thread each, read by anyone
+	private volatile long numPublished = 0;
+	private volatile long numDropped = 0;
+	private volatile long numAcquired = 0;
+	private volatile long numSkipped = 0;
+
+	public TripleBuffer(T back, T middle, T front) {
+		@SuppressWarnings("unchecked")
+		T[] s = (T[]) new Object[] { back, middle, front };
+		slots = s;
+	} // end of TripleBuffer()
+
+	// ------------------- producer side -----------------------
+
+	public T getBack()
+	// the slot the producer should fill next
+	{
+		return slots[back];
+	}
+
+	public void publish()
+	// make the filled back slot the newest frame
+	{
+		int old = middle.getAndSet(back | FRESH);
+		if ((old & FRESH) != 0)
+			numDropped++; // consumer never saw the previous frame
+		back = old & INDEX_MASK;
+		numPublished++;
+	} // end of publish()
+
+	// ------------------- consumer side -----------------------
+
+	public T acquire()
+	/*
+	 * return the newest published frame, which stays owned by the consumer
+	 * until the next acquire(); return null if nothing new has been published
+	 */
+	{
+		if ((middle.get() & FRESH) == 0) {
+			numSkipped++;
+			return null;
+		}
+		int old = middle.getAndSet(front);
+		front = old & INDEX_MASK;
+		numAcquired++;
+		return slots[front];
+	} // end of acquire()
+
+	public T getFront()
+	// the frame returned by the last successful acquire()
+	{
+		return slots[front];
+	}
+
+	// ----------------------- stats ---------------------------
+
+	public long getNumPublished() {
+		return numPublished;
+	}
+
+	public long getNumDropped() {
+		return numDropped;
+	}
+
+	public long getNumAcquired() {
+		return numAcquired;
+	}
+
+	public long getNumSkipped() {
+		return numSkipped;
+	}
+
+} // end of TripleBuffer class
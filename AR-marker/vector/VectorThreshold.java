@@ -0,0 +1,93 @@
+// VectorThreshold.java
+
+/* A ThresholdKernel which uses the JDK's Vector API (the incubating
+ jdk.incubator.vector module, JDK 16 onwards) to threshold as many
+ pixels at a time as the CPU's vector registers hold (e.g. 8 with
+ AVX2, 16 with AVX-512).
+
+ Each vector of 4-byte pixels is loaded as bytes and reinterpreted
+ as ints (in little-endian order, whatever the platform), so the R,G,B
+ bytes of a pixel are summed with shifts and masks in its int lane,
+ then compared with the threshold. The 24-bit formats aren't handled
+ here, since their pixels don't line up with the lanes.
+
+ Vector API code is very slow until the JIT has compiled it, so the
+ first few hundred frames are thresholded more slowly than by the
+ scalar loops; after that it's about 4-6 times faster for 640x480 and
+ 1280x720 BGRA frames (see HotPathBench).
+
+ This file is kept out of the source directory because it can only be
+ compiled, and run, with the module added. RegionThreshold loads it
+ by name when it's on the classpath and the module is available, and
+ uses its own loops otherwise.
+
+ --------------------
+ Compile (from the source directory, after the rest of the source):
+ > javac --add-modules jdk.incubator.vector -cp . -d ../vector
+         ../vector/VectorThreshold.java
+
+ then run with "--add-modules jdk.incubator.vector" given to java, and
+ ../vector on the classpath.
+ */
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+public class VectorThreshold implements ThresholdKernel {
+	private static final VectorSpecies<Integer> INTS = IntVector.SPECIES_PREFERRED;
+	private static final VectorSpecies<Byte> BYTES = INTS
+			.withLanes(byte.class); // the same number of bits as INTS
+
+	private static final IntVector BLACK = IntVector.zero(INTS);
+	private static final IntVector WHITE = IntVector.broadcast(INTS, 1);
+
+	public void thresholdInts(int[] inBuf, int inPos, int[] outBuf,
+			int outPos, int len, int th) {
+		int step = INTS.length();
+		int i = 0;
+		for (; i <= len - step; i += step)
+			threshold(IntVector.fromArray(INTS, inBuf, inPos + i), outBuf,
+					outPos + i, th);
+
+		for (; i < len; i++) { // the pixels left over
+			int pix = inBuf[inPos + i];
+			int sum = ((pix >> 16) & 0xff) + ((pix >> 8) & 0xff)
+					+ (pix & 0xff);
+			outBuf[outPos + i] = (sum <= th) ? 0 : 1;
+		}
+	} // end of thresholdInts()
+
+	public void thresholdBytes(byte[] inBuf, int inPos, int offset,
+			int[] outBuf, int outPos, int len, int th) {
+		int step = INTS.length();
+		int i = 0;
+		for (; i <= len - step; i += step) {
+			IntVector pixs = ByteVector.fromArray(BYTES, inBuf,
+					inPos + i * 4).reinterpretAsInts();
+			if (offset != 0) // move R,G,B into the low 3 bytes
+				pixs = pixs.lanewise(VectorOperators.LSHR, offset * 8);
+			threshold(pixs, outBuf, outPos + i, th);
+		}
+
+		int bp = inPos + i * 4 + offset;
+		for (; i < len; i++) { // the pixels left over
+			int sum = (inBuf[bp] & 0xff) + (inBuf[bp + 1] & 0xff)
+					+ (inBuf[bp + 2] & 0xff);
+			outBuf[outPos + i] = (sum <= th) ? 0 : 1;
+			bp += 4;
+		}
+	} // end of thresholdBytes()
+
+	private void threshold(IntVector pixs, int[] outBuf, int outPos, int th)
+	// sum the low 3 bytes of each lane, and store 0 if <= th, else 1
+	{
+		IntVector sum = pixs.and(0xff)
+				.add(pixs.lanewise(VectorOperators.LSHR, 8).and(0xff))
+				.add(pixs.lanewise(VectorOperators.LSHR, 16).and(0xff));
+		BLACK.blend(WHITE, sum.compare(VectorOperators.GT, th)).intoArray(
+				outBuf, outPos);
+	} // end of threshold()
+
+} // end of VectorThreshold class